@@ -0,0 +1,103 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares writing one turn's worth of lower window output into
+ * {@link CharacterMatrix} against {@link LegacyCharacterMatrix}. Run with
+ * {@code ./gradlew jmh}; the gc profiler reports allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharacterMatrixBenchmark {
+
+	private static final int LINE_WIDTH = 72;
+	private static final String[] WORDS = { "the", "troll", "swings", "his", "axe", "and", "you", "are", "in", "a",
+			"maze", "of", "twisty", "little", "passages", "all", "alike", "lamp", "brass", "north" };
+
+	/**
+	 * Typical turn sizes, in characters.
+	 */
+	@Param({ "2048", "4096" })
+	private int turnSize;
+
+	private char[] turn;
+	private String turnText;
+
+	private CharacterMatrix matrix;
+	private LegacyCharacterMatrix legacyMatrix;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder(turnSize);
+		int lineLength = 0;
+		while (sb.length() < turnSize) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			if (lineLength + word.length() + 1 > LINE_WIDTH) {
+				sb.append('\n');
+				lineLength = 0;
+			}
+			sb.append(word).append(' ');
+			lineLength += word.length() + 1;
+		}
+		sb.setLength(turnSize);
+		this.turnText = sb.toString();
+		this.turn = turnText.toCharArray();
+
+		this.matrix = new CharacterMatrix();
+		this.legacyMatrix = new LegacyCharacterMatrix();
+	}
+
+	@Benchmark
+	public int primitive() {
+		matrix.reset();
+		for (char c : turn) {
+			matrix.write(c);
+		}
+		return matrix.getCursorPosition()[0];
+	}
+
+	@Benchmark
+	public int bulk() {
+		matrix.reset();
+
+		// Written a line at a time, as GameMachine flushes its staged output.
+		int start = 0;
+		while (start < turnText.length()) {
+			int end = turnText.indexOf('\n', start) + 1;
+			if (end == 0) {
+				end = turnText.length();
+			}
+			matrix.write(turnText, start, end);
+			start = end;
+		}
+		return matrix.getCursorPosition()[0];
+	}
+
+	@Benchmark
+	public int legacy() {
+		legacyMatrix.reset();
+		for (char c : turn) {
+			legacyMatrix.write(c);
+		}
+		return legacyMatrix.getCursorPosition()[0];
+	}
+}
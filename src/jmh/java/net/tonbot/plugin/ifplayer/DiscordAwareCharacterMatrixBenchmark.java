@@ -0,0 +1,89 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link DiscordAwareCharacterMatrix#render()} against the regex based
+ * render it replaced, on a screen with indentation and trailing whitespace.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscordAwareCharacterMatrixBenchmark {
+
+	private static final String[] WORDS = { "the", "troll", "swings", "his", "axe", "and", "you", "are", "in", "a",
+			"maze", "of", "twisty", "little", "passages", "all", "alike", "lamp", "brass", "north" };
+
+	/**
+	 * Typical turn sizes, in characters.
+	 */
+	@Param({ "2048", "4096" })
+	private int turnSize;
+
+	private DiscordAwareCharacterMatrix matrix;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		this.matrix = new DiscordAwareCharacterMatrix();
+
+		int written = 0;
+		while (written < turnSize) {
+			// Indent some lines and pad others out, as status lines and menus do.
+			StringBuilder line = new StringBuilder();
+			if (random.nextInt(4) == 0) {
+				line.append("        ");
+			}
+			while (line.length() < 60) {
+				line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			if (random.nextInt(4) == 0) {
+				line.append("          ");
+			}
+			line.append('\n');
+
+			for (int i = 0; i < line.length(); i++) {
+				matrix.write(line.charAt(i));
+			}
+			written += line.length();
+		}
+	}
+
+	@Benchmark
+	public String singlePass() {
+		return matrix.render();
+	}
+
+	@Benchmark
+	public String regex() {
+		List<String> listOfLines = new ArrayList<>(matrix.rowCount);
+		for (int i = 0; i < matrix.rowCount; i++) {
+			StringBuffer lineSb = new StringBuffer();
+			for (int j = 0; j < matrix.rowLengths[i]; j++) {
+				lineSb.append(matrix.rows[i][j]);
+			}
+			listOfLines.add(lineSb.toString().replaceAll("\\s+$", "").replaceAll("\\s{4}", "\t"));
+		}
+
+		return StringUtils.join(listOfLines, "\n").replaceAll("\\s+$", "");
+	}
+}
@@ -0,0 +1,151 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares saving, restoring and listing slots with {@link SaveManagerImpl},
+ * which keeps a file per slot, against {@link LogSaveManager}, which appends
+ * them to a log. Each channel is filled up to the maximum number of slots
+ * before measuring. Run with {@code ./gradlew jmh}; filling a million slots
+ * takes a while, most of it in syncing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SaveManagerBenchmark {
+
+	private static final int MAX_SLOTS = 5;
+
+	/**
+	 * About the size of a compressed Quetzal save of a mid-sized story.
+	 */
+	private static final int SAVE_BYTES = 8 * 1024;
+	private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+	public enum Backend {
+		FILES, LOG;
+	}
+
+	/**
+	 * The total number of slots saved before measuring.
+	 */
+	@Param({ "10000", "100000", "1000000" })
+	private int slots;
+
+	@Param
+	private Backend backend;
+
+	private Path saveDir;
+	private Story story;
+	private SaveManager saveManager;
+	private int channels;
+	private byte[] save;
+	private SaveFileMetadata metadata;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.saveDir = Files.createTempDirectory("savemanagerbenchmark");
+
+		// The smallest file that is accepted as a version 5 story.
+		byte[] header = new byte[64];
+		header[0] = 5;
+		File storyFile = saveDir.resolve("bench.z5").toFile();
+		Files.write(storyFile.toPath(), header);
+		this.story = Story.loadFrom(storyFile);
+
+		File slotsDir = Files.createDirectory(saveDir.resolve("saves")).toFile();
+		this.saveManager = backend == Backend.LOG ? new LogSaveManager(slotsDir, MAX_SLOTS, SEGMENT_BYTES)
+				: new SaveManagerImpl(slotsDir, MAX_SLOTS);
+
+		this.save = new byte[SAVE_BYTES];
+		new Random(42).nextBytes(save);
+		this.metadata = new SaveFileMetadata("bench", ZonedDateTime.now());
+
+		this.channels = slots / MAX_SLOTS;
+		for (int channel = 0; channel < channels; channel++) {
+			for (int slot = 0; slot < MAX_SLOTS; slot++) {
+				write(saveManager.getSaveFile(channel, story, slot));
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (saveManager instanceof LogSaveManager) {
+			((LogSaveManager) saveManager).close();
+		}
+
+		try (Stream<Path> paths = Files.walk(saveDir)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	@Benchmark
+	public SaveFile save() throws IOException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long channel = random.nextInt(channels);
+		SaveFile saveFile = saveManager.getSaveFile(channel, story, random.nextInt(MAX_SLOTS));
+
+		write(saveFile);
+		return saveManager.saveNewMetadata(channel, saveFile, metadata);
+	}
+
+	@Benchmark
+	public int restore() throws IOException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		SaveFile saveFile = saveManager.getSaveFile(random.nextInt(channels), story, random.nextInt(MAX_SLOTS));
+
+		byte[] buffer = new byte[SAVE_BYTES];
+		int total = 0;
+		try (InputStream in = saveFile.getInputStream()) {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				total += read;
+			}
+		}
+		return total;
+	}
+
+	@Benchmark
+	public List<SaveFile> list() {
+		return saveManager.getSaveFiles(ThreadLocalRandom.current().nextInt(channels), story);
+	}
+
+	private void write(SaveFile saveFile) throws IOException {
+		SaveOutputStream out = saveFile.getOutputStream();
+		try {
+			out.write(save);
+			out.close();
+		} finally {
+			out.abort();
+		}
+	}
+}
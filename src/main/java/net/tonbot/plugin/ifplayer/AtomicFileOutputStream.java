@@ -0,0 +1,138 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A buffered stream that replaces a file atomically. Writes go to a temporary
+ * file next to the target. Closing the stream syncs it to disk, renames it
+ * over the target and syncs the directory, so readers see either the old
+ * contents or the new ones, never a partial write. {@link #abort()} discards
+ * everything written instead.
+ */
+class AtomicFileOutputStream extends SaveOutputStream {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AtomicFileOutputStream.class);
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final Path target;
+	private final Path temp;
+	private final FileChannel channel;
+	private final BufferedOutputStream out;
+
+	private boolean closed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param target
+	 *            The file to replace. Non-null.
+	 * @throws IOException
+	 *             If the temporary file could not be opened.
+	 */
+	public AtomicFileOutputStream(Path target) throws IOException {
+		this.target = Preconditions.checkNotNull(target, "target must be non-null.");
+		this.temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+
+		this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Syncs everything written to disk and replaces the target with it. Does
+	 * nothing if the stream is already closed or aborted.
+	 *
+	 * @throws IOException
+	 *             If the file could not be written or replaced. The target is left
+	 *             as it was.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		boolean replaced = false;
+		try {
+			out.flush();
+			channel.force(true);
+			out.close();
+
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			replaced = true;
+
+			syncDirectory();
+		} finally {
+			if (!replaced) {
+				discard();
+			}
+		}
+	}
+
+	@Override
+	public void abort() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		discard();
+	}
+
+	/**
+	 * Syncs the target's directory, so that the rename survives a crash. Some
+	 * platforms can't open a directory for this, in which case it is skipped.
+	 */
+	private void syncDirectory() {
+		Path dir = target.toAbsolutePath().getParent();
+		try (FileChannel dirChannel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			dirChannel.force(true);
+		} catch (IOException e) {
+			LOG.debug("Could not sync the directory {}.", dir, e);
+		}
+	}
+
+	private void discard() {
+		try {
+			channel.close();
+			Files.deleteIfExists(temp);
+		} catch (IOException e) {
+			LOG.warn("Could not delete the temporary file {}.", temp, e);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package net.tonbot.plugin.ifplayer;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * How often a {@link GameMachine} takes an {@link AutosaveSnapshot}. A snapshot
+ * is taken at the end of a turn once either limit has been reached.
+ */
+@Data
+@Builder
+class AutosavePolicy {
+
+	/**
+	 * The number of turns after which a snapshot is taken. Zero if snapshots
+	 * aren't taken by turns.
+	 */
+	private final int everyTurns;
+
+	/**
+	 * The time, in milliseconds, after which a snapshot is taken. Zero if
+	 * snapshots aren't taken by time.
+	 */
+	private final long everyMillis;
+
+	/**
+	 * Checks whether snapshots are taken at all.
+	 *
+	 * @return True iff either limit is set.
+	 */
+	public boolean isEnabled() {
+		return everyTurns > 0 || everyMillis > 0;
+	}
+}
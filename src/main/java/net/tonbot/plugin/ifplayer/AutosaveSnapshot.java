@@ -0,0 +1,213 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * The state of a game at the end of a turn: its dynamic memory, its stack, and
+ * where it was when it stopped to wait for input. Taking one only copies
+ * memory, so it can be done on the turn's thread, while writing it out is left
+ * to {@link AutosaveWriter}.
+ * <p>
+ * Snapshots are written in their own format rather than as Quetzal saves.
+ * Dynamic memory is stored as the difference from the story's original memory,
+ * run-length encoded the same way Quetzal's CMem chunk is, so a snapshot is
+ * usually a few kilobytes.
+ */
+@Data
+@Builder
+class AutosaveSnapshot {
+
+	private static final int MAGIC = 0x49464153; // "IFAS"
+	private static final int FORMAT_VERSION = 1;
+	private static final int SERIAL_LENGTH = 6;
+	private static final int MAX_ZERO_RUN = 256;
+
+	private final Story story;
+	private final String createdBy;
+	private final ZonedDateTime creationDate;
+
+	/**
+	 * The number of turns the session had taken.
+	 */
+	private final long turn;
+
+	private final int pc;
+	private final int fp;
+
+	/**
+	 * The stack, from the bottom up.
+	 */
+	private final int[] stack;
+
+	/**
+	 * A copy of the story's memory up to the start of static memory.
+	 */
+	private final byte[] dynamicMemory;
+
+	/**
+	 * Writes this snapshot. Meant to be called off the turn's thread.
+	 *
+	 * @param out
+	 *            The stream to write to. Non-null. Not closed.
+	 * @throws IOException
+	 *             If the snapshot could not be written.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		Preconditions.checkNotNull(out, "out must be non-null.");
+
+		byte[] compressedMemory = compress(dynamicMemory, originalDynamicMemory(story, dynamicMemory.length));
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeByte(FORMAT_VERSION);
+		data.writeShort(story.getRelease());
+		data.write(serial(story));
+		data.writeShort(story.getChecksum());
+
+		data.writeUTF(createdBy);
+		data.writeLong(creationDate.toInstant().toEpochMilli());
+		data.writeLong(turn);
+
+		data.writeInt(pc);
+		data.writeInt(fp);
+		data.writeInt(stack.length);
+		for (int value : stack) {
+			data.writeInt(value);
+		}
+
+		data.writeInt(dynamicMemory.length);
+		data.writeInt(compressedMemory.length);
+		data.write(compressedMemory);
+		data.flush();
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #writeTo(OutputStream)}.
+	 *
+	 * @param in
+	 *            The stream to read from. Non-null. Not closed.
+	 * @param story
+	 *            The story the snapshot was taken of. Non-null.
+	 * @return {@link AutosaveSnapshot}
+	 * @throws IOException
+	 *             If the snapshot could not be read, or isn't a snapshot of the
+	 *             given story.
+	 */
+	public static AutosaveSnapshot readFrom(InputStream in, Story story) throws IOException {
+		Preconditions.checkNotNull(in, "in must be non-null.");
+		Preconditions.checkNotNull(story, "story must be non-null.");
+
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC || data.readUnsignedByte() != FORMAT_VERSION) {
+			throw new IOException("Not an autosave.");
+		}
+
+		int release = data.readUnsignedShort();
+		byte[] serial = new byte[SERIAL_LENGTH];
+		data.readFully(serial);
+		int checksum = data.readUnsignedShort();
+		if (release != story.getRelease() || !Arrays.equals(serial, serial(story)) || checksum != story.getChecksum()) {
+			throw new IOException("The autosave is of a different story.");
+		}
+
+		AutosaveSnapshotBuilder builder = AutosaveSnapshot.builder().story(story).createdBy(data.readUTF())
+				.creationDate(ZonedDateTime.ofInstant(Instant.ofEpochMilli(data.readLong()), ZoneOffset.UTC))
+				.turn(data.readLong()).pc(data.readInt()).fp(data.readInt());
+
+		int[] stack = new int[data.readInt()];
+		for (int i = 0; i < stack.length; i++) {
+			stack[i] = data.readInt();
+		}
+
+		int dynamicMemoryLength = data.readInt();
+		byte[] compressedMemory = new byte[data.readInt()];
+		data.readFully(compressedMemory);
+		byte[] dynamicMemory = decompress(compressedMemory,
+				originalDynamicMemory(story, dynamicMemoryLength));
+
+		return builder.stack(stack).dynamicMemory(dynamicMemory).build();
+	}
+
+	/**
+	 * Gets the story's serial as exactly {@link #SERIAL_LENGTH} bytes. A serial is
+	 * normally six digits, but a shorter one is padded with zeroes and a longer
+	 * one is cut short.
+	 */
+	private static byte[] serial(Story story) {
+		return Arrays.copyOf(story.getSerial().getBytes(StandardCharsets.US_ASCII), SERIAL_LENGTH);
+	}
+
+	private static byte[] originalDynamicMemory(Story story, int length) {
+		byte[] original = new byte[length];
+		story.newMemory().copyBytesTo(original, 0, length);
+		return original;
+	}
+
+	/**
+	 * XORs memory with the original and run-length encodes the zeroes, which are
+	 * the bytes that haven't changed. A zero byte is followed by one less than
+	 * the length of its run.
+	 */
+	private static byte[] compress(byte[] memory, byte[] original) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int i = 0;
+		while (i < memory.length) {
+			int difference = (memory[i] ^ original[i]) & 0xFF;
+			if (difference != 0) {
+				out.write(difference);
+				i++;
+				continue;
+			}
+
+			int run = 1;
+			while (run < MAX_ZERO_RUN && i + run < memory.length && memory[i + run] == original[i + run]) {
+				run++;
+			}
+			out.write(0);
+			out.write(run - 1);
+			i += run;
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] compressed, byte[] original) throws IOException {
+		byte[] memory = original;
+		int position = 0;
+		int i = 0;
+		while (i < compressed.length) {
+			int difference = compressed[i++] & 0xFF;
+			if (difference != 0) {
+				if (position >= memory.length) {
+					throw new IOException("The autosave's memory is too long.");
+				}
+				memory[position++] ^= difference;
+				continue;
+			}
+
+			if (i >= compressed.length) {
+				throw new IOException("The autosave's memory is cut off.");
+			}
+			position += (compressed[i++] & 0xFF) + 1;
+		}
+
+		if (position != memory.length) {
+			throw new IOException("The autosave's memory has the wrong length.");
+		}
+		return memory;
+	}
+}
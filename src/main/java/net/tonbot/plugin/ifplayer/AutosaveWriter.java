@@ -0,0 +1,157 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+import lombok.Data;
+
+/**
+ * Writes {@link AutosaveSnapshot}s to the autosave of their story, on a
+ * background thread. Only the latest snapshot of each channel and story is
+ * kept while waiting to be written, so a snapshot that is replaced before the
+ * thread gets to it is never written at all.
+ */
+class AutosaveWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AutosaveWriter.class);
+
+	private final SaveManager saveManager;
+	private final Executor executor;
+
+	/**
+	 * The snapshot waiting to be written for each channel and story. Null while
+	 * nothing is waiting.
+	 */
+	private final ConcurrentHashMap<AutosaveKey, AtomicReference<AutosaveSnapshot>> pending;
+
+	private final AtomicLong snapshotsWritten;
+	private final AtomicLong snapshotsSuperseded;
+	private final AtomicLong snapshotsFailed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param saveManager
+	 *            {@link SaveManager}. Non-null.
+	 */
+	@Inject
+	public AutosaveWriter(SaveManager saveManager) {
+		this(saveManager, Executors.newSingleThreadExecutor(
+				new ThreadFactoryBuilder().setNameFormat("ifplayer-autosave-%d").setDaemon(true).build()));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param saveManager
+	 *            {@link SaveManager}. Non-null.
+	 * @param executor
+	 *            Runs the writes. Non-null.
+	 */
+	AutosaveWriter(SaveManager saveManager, Executor executor) {
+		this.saveManager = Preconditions.checkNotNull(saveManager, "saveManager must be non-null.");
+		this.executor = Preconditions.checkNotNull(executor, "executor must be non-null.");
+		this.pending = new ConcurrentHashMap<>();
+
+		this.snapshotsWritten = new AtomicLong(0);
+		this.snapshotsSuperseded = new AtomicLong(0);
+		this.snapshotsFailed = new AtomicLong(0);
+	}
+
+	/**
+	 * Queues a snapshot to be written. Returns right away. Replaces the
+	 * channel's snapshot of the same story if that hasn't been written yet.
+	 *
+	 * @param channelId
+	 *            The channel ID.
+	 * @param snapshot
+	 *            {@link AutosaveSnapshot}. Non-null.
+	 */
+	public void submit(long channelId, AutosaveSnapshot snapshot) {
+		Preconditions.checkNotNull(snapshot, "snapshot must be non-null.");
+
+		AutosaveKey key = new AutosaveKey(channelId, snapshot.getStory().getName());
+		AtomicReference<AutosaveSnapshot> latest = pending.computeIfAbsent(key, k -> new AtomicReference<>());
+
+		if (latest.getAndSet(snapshot) != null) {
+			// A write is already queued and will pick up this snapshot instead.
+			snapshotsSuperseded.incrementAndGet();
+			return;
+		}
+
+		executor.execute(() -> write(key, latest));
+	}
+
+	/**
+	 * Gets the number of snapshots that were written.
+	 *
+	 * @return The number of written snapshots.
+	 */
+	public long getSnapshotsWritten() {
+		return snapshotsWritten.get();
+	}
+
+	/**
+	 * Gets the number of snapshots that were dropped because a later one
+	 * replaced them before they were written.
+	 *
+	 * @return The number of superseded snapshots.
+	 */
+	public long getSnapshotsSuperseded() {
+		return snapshotsSuperseded.get();
+	}
+
+	/**
+	 * Gets the number of snapshots that could not be written.
+	 *
+	 * @return The number of failed snapshots.
+	 */
+	public long getSnapshotsFailed() {
+		return snapshotsFailed.get();
+	}
+
+	private void write(AutosaveKey key, AtomicReference<AutosaveSnapshot> latest) {
+		// From here on, a new snapshot queues another write.
+		AutosaveSnapshot snapshot = latest.getAndSet(null);
+		if (snapshot == null) {
+			return;
+		}
+
+		SaveOutputStream out = null;
+		try {
+			SaveFile saveFile = saveManager.getAutosaveFile(key.getChannelId(), snapshot.getStory());
+			out = saveFile.getOutputStream();
+			snapshot.writeTo(out);
+			out.close();
+			snapshotsWritten.incrementAndGet();
+			LOG.debug("Autosaved story {} of channel {} at turn {}.", key.getStoryName(), key.getChannelId(),
+					snapshot.getTurn());
+		} catch (IOException | RuntimeException e) {
+			snapshotsFailed.incrementAndGet();
+			LOG.error("Story {} of channel {} could not be autosaved.", key.getStoryName(), key.getChannelId(), e);
+		} finally {
+			if (out != null) {
+				// Does nothing if the snapshot was written.
+				out.abort();
+			}
+		}
+	}
+
+	@Data
+	private static class AutosaveKey {
+
+		private final long channelId;
+		private final String storyName;
+	}
+}
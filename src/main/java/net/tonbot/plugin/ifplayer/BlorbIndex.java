@@ -0,0 +1,185 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Data;
+
+/**
+ * The location of the interesting chunks in a Blorb container. Only the FORM
+ * header, the resource index and the chunk headers are read, so bundled
+ * pictures and sounds are never loaded.
+ * <p>
+ * See http://eblong.com/zarf/blorb/blorb.html for the format.
+ */
+@Data
+class BlorbIndex {
+
+	private static final String FORM = "FORM";
+	private static final String IFRS = "IFRS";
+	private static final String RIDX = "RIdx";
+	private static final String EXEC = "Exec";
+	private static final String ZCOD = "ZCOD";
+	private static final String IFHD = "IFhd";
+	private static final String IFMD = "IFmd";
+
+	private static final int FORM_HEADER_SIZE = 12;
+	private static final int CHUNK_HEADER_SIZE = 8;
+	private static final int RIDX_ENTRY_SIZE = 12;
+
+	private final ChunkLocation zcode;
+	private final ChunkLocation ifhd;
+	private final ChunkLocation ifmd;
+
+	/**
+	 * Gets the location of the game identifier chunk.
+	 *
+	 * @return The location of the IFhd chunk, if any.
+	 */
+	public Optional<ChunkLocation> getIfhd() {
+		return Optional.ofNullable(ifhd);
+	}
+
+	/**
+	 * Gets the location of the iFiction metadata chunk.
+	 *
+	 * @return The location of the IFmd chunk, if any.
+	 */
+	public Optional<ChunkLocation> getIfmd() {
+		return Optional.ofNullable(ifmd);
+	}
+
+	/**
+	 * Determines whether the first bytes of a file are a Blorb header.
+	 *
+	 * @param header
+	 *            The first bytes of the file. Non-null.
+	 * @return True iff the file is a Blorb container.
+	 */
+	public static boolean isBlorb(byte[] header) {
+		Preconditions.checkNotNull(header, "header must be non-null.");
+
+		return header.length >= FORM_HEADER_SIZE && FORM.equals(new String(header, 0, 4, StandardCharsets.US_ASCII))
+				&& IFRS.equals(new String(header, 8, 4, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Reads the index of a Blorb container.
+	 *
+	 * @param channel
+	 *            The container. Non-null.
+	 * @return The {@link BlorbIndex}.
+	 * @throws IOException
+	 *             if the container could not be read.
+	 * @throws IllegalArgumentException
+	 *             if the container is malformed or has no Z-code.
+	 */
+	public static BlorbIndex read(FileChannel channel) throws IOException {
+		Preconditions.checkNotNull(channel, "channel must be non-null.");
+
+		ByteBuffer formHeader = readAt(channel, 0, FORM_HEADER_SIZE);
+		byte[] formHeaderBytes = new byte[FORM_HEADER_SIZE];
+		formHeader.get(formHeaderBytes);
+		Preconditions.checkArgument(isBlorb(formHeaderBytes), "File is not a Blorb container.");
+
+		long end = Math.min(channel.size(), CHUNK_HEADER_SIZE + (formHeader.getInt(4) & 0xFFFFFFFFL));
+
+		ChunkLocation zcode = null;
+		ChunkLocation ifhd = null;
+		ChunkLocation ifmd = null;
+
+		long position = FORM_HEADER_SIZE;
+		while (position + CHUNK_HEADER_SIZE <= end) {
+			ChunkLocation chunk = readChunkHeader(channel, position);
+
+			if (RIDX.equals(chunk.getType()) && zcode == null) {
+				zcode = findExecChunk(channel, chunk).orElse(null);
+			} else if (ZCOD.equals(chunk.getType()) && zcode == null) {
+				// Tolerate containers with no usable resource index.
+				zcode = chunk;
+			} else if (IFHD.equals(chunk.getType())) {
+				ifhd = chunk;
+			} else if (IFMD.equals(chunk.getType())) {
+				ifmd = chunk;
+			}
+
+			if (zcode != null && ifhd != null && ifmd != null) {
+				break;
+			}
+
+			// Chunks are padded to an even length.
+			position = chunk.getDataOffset() + chunk.getLength() + (chunk.getLength() & 1);
+		}
+
+		if (zcode == null) {
+			throw new IllegalArgumentException("Blorb container has no Z-code.");
+		}
+
+		Preconditions.checkArgument(zcode.getDataOffset() + zcode.getLength() <= channel.size(),
+				"Blorb container is truncated.");
+
+		return new BlorbIndex(zcode, ifhd, ifmd);
+	}
+
+	private static Optional<ChunkLocation> findExecChunk(FileChannel channel, ChunkLocation resourceIndex)
+			throws IOException {
+		ByteBuffer countBuffer = readAt(channel, resourceIndex.getDataOffset(), 4);
+		long count = countBuffer.getInt(0) & 0xFFFFFFFFL;
+		Preconditions.checkArgument(
+				count <= Integer.MAX_VALUE / RIDX_ENTRY_SIZE && count * RIDX_ENTRY_SIZE + 4 <= resourceIndex.getLength(),
+				"Blorb resource index is malformed.");
+
+		ByteBuffer entries = readAt(channel, resourceIndex.getDataOffset() + 4, (int) count * RIDX_ENTRY_SIZE);
+		for (int i = 0; i < count; i++) {
+			byte[] usage = new byte[4];
+			entries.get(usage);
+			entries.getInt(); // Resource number
+			long start = entries.getInt() & 0xFFFFFFFFL;
+
+			if (EXEC.equals(new String(usage, StandardCharsets.US_ASCII))) {
+				ChunkLocation chunk = readChunkHeader(channel, start);
+				if (ZCOD.equals(chunk.getType())) {
+					return Optional.of(chunk);
+				}
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	private static ChunkLocation readChunkHeader(FileChannel channel, long position) throws IOException {
+		ByteBuffer header = readAt(channel, position, CHUNK_HEADER_SIZE);
+		byte[] type = new byte[4];
+		header.get(type);
+		long length = header.getInt() & 0xFFFFFFFFL;
+
+		return new ChunkLocation(new String(type, StandardCharsets.US_ASCII), position + CHUNK_HEADER_SIZE, length);
+	}
+
+	private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IllegalArgumentException("Blorb container is truncated.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * The location of a chunk's data within the container.
+	 */
+	@Data
+	static class ChunkLocation {
+
+		private final String type;
+		private final long dataOffset;
+		private final long length;
+	}
+}
@@ -0,0 +1,251 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.util.DiscordException;
+import sx.blah.discord.util.MissingPermissionsException;
+import sx.blah.discord.util.RateLimitException;
+import sx.blah.discord.util.RequestBuffer;
+
+/**
+ * Applies channel topics. Discord only allows a couple of topic changes per
+ * channel every ten minutes, so changes are gathered for a debounce window that
+ * starts with the first change that hasn't been applied, and only the latest
+ * one is applied once the window ends. A channel whose topic keeps changing
+ * still gets the latest topic once every window. Topics that are the same as
+ * the one already applied are never sent.
+ */
+class ChannelTopicUpdater {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ChannelTopicUpdater.class);
+
+	private final ScheduledExecutorService scheduler;
+	private final long debounceMillis;
+	private final ConcurrentHashMap<Long, ChannelTopic> channelTopics;
+
+	private final AtomicLong updatesSent;
+	private final AtomicLong updatesSuppressed;
+	private final AtomicLong updatesFailed;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param config
+	 *            {@link Config}. Non-null.
+	 */
+	@Inject
+	public ChannelTopicUpdater(Config config) {
+		this(Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("ifplayer-topic-%d").setDaemon(true).build()),
+				Preconditions.checkNotNull(config, "config must be non-null.").getTopicDebounceMillis());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param scheduler
+	 *            Runs the delayed topic changes. Non-null.
+	 * @param debounceMillis
+	 *            How long after the first unapplied topic change the latest
+	 *            one is applied. Non-negative.
+	 */
+	ChannelTopicUpdater(ScheduledExecutorService scheduler, long debounceMillis) {
+		Preconditions.checkArgument(debounceMillis >= 0, "debounceMillis must be non-negative.");
+
+		this.scheduler = Preconditions.checkNotNull(scheduler, "scheduler must be non-null.");
+		this.debounceMillis = debounceMillis;
+		this.channelTopics = new ConcurrentHashMap<>();
+
+		this.updatesSent = new AtomicLong(0);
+		this.updatesSuppressed = new AtomicLong(0);
+		this.updatesFailed = new AtomicLong(0);
+	}
+
+	/**
+	 * Sets the channel's topic once the debounce window ends. The window starts
+	 * with the first change that hasn't been applied, and a later call for the
+	 * same channel within it replaces this one without starting it over.
+	 *
+	 * @param channel
+	 *            {@link IChannel}. Non-null.
+	 * @param topic
+	 *            The topic. Non-null.
+	 */
+	public void update(IChannel channel, String topic) {
+		Preconditions.checkNotNull(channel, "channel must be non-null.");
+		Preconditions.checkNotNull(topic, "topic must be non-null.");
+
+		channelTopics.computeIfAbsent(channel.getLongID(), id -> new ChannelTopic(channel)).update(topic);
+	}
+
+	/**
+	 * Gets the number of topic changes that Discord applied.
+	 *
+	 * @return The number of applied topic changes.
+	 */
+	public long getUpdatesSent() {
+		return updatesSent.get();
+	}
+
+	/**
+	 * Gets the number of topic changes that were dropped, either because they
+	 * matched the current topic or because a later change replaced them.
+	 *
+	 * @return The number of suppressed topic changes.
+	 */
+	public long getUpdatesSuppressed() {
+		return updatesSuppressed.get();
+	}
+
+	/**
+	 * Gets the number of topic changes that Discord refused. Rate limited attempts
+	 * are retried, and are not counted.
+	 *
+	 * @return The number of failed topic changes.
+	 */
+	public long getUpdatesFailed() {
+		return updatesFailed.get();
+	}
+
+	private class ChannelTopic {
+
+		private final IChannel channel;
+
+		/**
+		 * The topic that was last applied successfully.
+		 */
+		private String applied;
+
+		/**
+		 * The topic that is being applied. Null if there is none.
+		 */
+		private String sending;
+
+		/**
+		 * The latest topic that has not been applied yet. Null if there is none.
+		 */
+		private String pending;
+
+		/**
+		 * Whether a flush has been scheduled and has not run yet.
+		 */
+		private boolean flushScheduled;
+
+		private boolean inFlight;
+
+		ChannelTopic(IChannel channel) {
+			this.channel = channel;
+			this.applied = channel.getTopic();
+		}
+
+		synchronized void update(String topic) {
+			if (pending != null) {
+				// Whatever was pending is now stale.
+				updatesSuppressed.incrementAndGet();
+				pending = null;
+			}
+
+			if (Objects.equals(topic, sending != null ? sending : applied)) {
+				updatesSuppressed.incrementAndGet();
+				return;
+			}
+
+			pending = topic;
+			scheduleFlush();
+		}
+
+		private void scheduleFlush() {
+			if (inFlight) {
+				// The flush is rescheduled once the topic in flight is done.
+				return;
+			}
+
+			if (flushScheduled) {
+				// The scheduled flush picks up the latest topic. It isn't pushed back, so
+				// a channel whose topic keeps changing still gets it applied.
+				return;
+			}
+
+			flushScheduled = true;
+			scheduler.schedule(this::flush, debounceMillis, TimeUnit.MILLISECONDS);
+		}
+
+		private synchronized void flush() {
+			flushScheduled = false;
+			if (pending == null) {
+				return;
+			}
+
+			inFlight = true;
+			RequestBuffer.request(this::send);
+		}
+
+		/**
+		 * Sends the latest topic. Rate limited attempts are retried by
+		 * {@link RequestBuffer}, and each retry picks up any newer topic.
+		 */
+		private void send() {
+			String topic;
+			synchronized (this) {
+				if (pending == null) {
+					inFlight = false;
+					return;
+				}
+
+				topic = pending;
+				pending = null;
+				sending = topic;
+			}
+
+			boolean succeeded = false;
+			try {
+				channel.changeTopic(topic);
+				succeeded = true;
+				LOG.debug("Set topic of channel {}.", channel.getLongID());
+			} catch (RateLimitException e) {
+				// Put the topic back for the retry, unless a newer one has come along.
+				synchronized (this) {
+					if (pending == null) {
+						pending = topic;
+					}
+					sending = null;
+				}
+				throw e;
+			} catch (MissingPermissionsException e) {
+				// This is fine. Just ignore it.
+				LOG.debug("Could not set channel topic, and therefore could not set status line.", e);
+			} catch (DiscordException e) {
+				LOG.error("Topic could not be set.", e);
+			}
+
+			synchronized (this) {
+				// A topic that could not be set is not applied, so asking for it again
+				// tries again.
+				if (succeeded) {
+					applied = topic;
+					updatesSent.incrementAndGet();
+				} else {
+					updatesFailed.incrementAndGet();
+				}
+				sending = null;
+				inFlight = false;
+				if (pending != null) {
+					scheduleFlush();
+				}
+			}
+		}
+	}
+}
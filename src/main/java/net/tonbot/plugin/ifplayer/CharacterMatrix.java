@@ -1,11 +1,6 @@
 package net.tonbot.plugin.ifplayer;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.Supplier;
-import java.util.stream.Collectors;
-
-import org.apache.commons.lang3.StringUtils;
+import java.util.Arrays;
 
 import com.google.common.base.Preconditions;
 
@@ -15,6 +10,15 @@ import lombok.Getter;
  * Invariant: cursorY must always point to an existing index. cursorX doesn't
  * have to point to an existing index. (But if cursorX is > 0, then cursorX-1
  * must be pointing to an existing index.)
+ * <p>
+ * Rows are stored as growable {@code char} arrays that are kept across
+ * {@link #reset()}, so writing does not allocate once the matrix has grown to
+ * the size of a typical turn.
+ * <p>
+ * Rows that are written to are marked dirty, and on the next render only dirty
+ * rows are compared with a copy of the last rendered frame. If nothing has
+ * changed, {@link #render()} returns the last frame again without rendering
+ * it.
  */
 class CharacterMatrix {
 
@@ -24,7 +28,45 @@ class CharacterMatrix {
 	@Getter
 	private Integer maxHeight;
 
-	protected List<List<Character>> matrix = null;
+	private Integer maxRetainedRows;
+	private Integer maxRowLength;
+
+	/**
+	 * The number of rows that have been dropped since the last reset.
+	 */
+	@Getter
+	private int truncatedRowCount;
+
+	private static final int INITIAL_ROWS = 16;
+	private static final int INITIAL_ROW_CAPACITY = 80;
+
+	/**
+	 * Only the first {@link #rowCount} rows are in use. Rows beyond that are kept
+	 * for reuse.
+	 */
+	protected char[][] rows = new char[INITIAL_ROWS][];
+
+	/**
+	 * The number of characters in use in each row.
+	 */
+	protected int[] rowLengths = new int[INITIAL_ROWS];
+
+	protected int rowCount;
+
+	/**
+	 * Whether each row has been written to since the last render.
+	 */
+	private boolean[] dirtyRows = new boolean[INITIAL_ROWS];
+
+	/**
+	 * A copy of the rows of the last rendered frame.
+	 */
+	private char[][] renderedRows = new char[INITIAL_ROWS][];
+	private int[] renderedRowLengths = new int[INITIAL_ROWS];
+
+	private int renderedRowCount;
+	private String lastFrame;
+	private boolean frameChanged;
 
 	protected int cursorX;
 	protected int cursorY;
@@ -70,6 +112,26 @@ class CharacterMatrix {
 		// What should happen to the cursor? hmm...
 	}
 
+	/**
+	 * Bounds an unconstrained matrix so that it behaves like a scrolling terminal.
+	 * Rows longer than the max row length are wrapped, and once there are more than
+	 * the max retained rows, the oldest row is dropped.
+	 * 
+	 * @param maxRetainedRows
+	 *            The number of rows to keep. Must be positive.
+	 * @param maxRowLength
+	 *            The length after which rows are wrapped. Must be positive.
+	 */
+	public void setScrollback(int maxRetainedRows, int maxRowLength) {
+		Preconditions.checkState(maxWidth == null && maxHeight == null,
+				"Only unconstrained matrices can have scrollback.");
+		Preconditions.checkArgument(maxRetainedRows > 0, "maxRetainedRows must be positive.");
+		Preconditions.checkArgument(maxRowLength > 0, "maxRowLength must be positive.");
+
+		this.maxRetainedRows = maxRetainedRows;
+		this.maxRowLength = maxRowLength;
+	}
+
 	/**
 	 * Sets the position of the cursor to 0,0 and clears out all data. Max height
 	 * and width are preserved.
@@ -78,10 +140,9 @@ class CharacterMatrix {
 		this.cursorX = 0;
 		this.cursorY = 0;
 
-		this.matrix = new ArrayList<>();
-
-		List<Character> row0 = new ArrayList<>();
-		this.matrix.add(row0);
+		this.rowCount = 0;
+		this.truncatedRowCount = 0;
+		addRow();
 	}
 
 	/**
@@ -115,11 +176,12 @@ class CharacterMatrix {
 			Preconditions.checkArgument(y < maxHeight, "y must be less than the max height.");
 		}
 
-		fillUpTo(matrix, y, () -> new ArrayList<>());
+		while (rowCount <= y) {
+			addRow();
+		}
 		this.cursorY = y;
 
-		List<Character> line = matrix.get(this.cursorY);
-		fillUpTo(line, Math.max(x - 1, 0), () -> ' ');
+		padRow(this.cursorY, Math.max(x, 1));
 		this.cursorX = x;
 	}
 
@@ -133,49 +195,268 @@ class CharacterMatrix {
 	 *            The character to write.
 	 */
 	public void write(char value) {
-		if ((maxWidth != null && this.cursorX >= maxWidth) || (maxHeight != null && this.cursorY >= maxHeight)) {
+		if (isCursorOutOfBounds()) {
 			return;
 		}
 
 		if (value == '\n') {
-			int nextCursorY = this.cursorY + 1;
-			if (maxHeight == null || nextCursorY < maxHeight) {
-				setCursor(nextCursorY, 0);
-			}
+			newLine();
 		} else {
-			List<Character> line = matrix.get(this.cursorY);
+			if (maxRowLength != null && this.cursorX >= maxRowLength) {
+				newLine();
+			}
 
 			// If necessary, pad the line up with spaces until where the cursor is.
-			fillUpTo(line, this.cursorX, () -> ' ');
+			padRow(this.cursorY, this.cursorX);
 
-			if (line.size() == this.cursorX) {
-				line.add(value);
-			} else {
-				line.set(this.cursorX, value);
-			}
+			char[] row = ensureRowCapacity(this.cursorY, this.cursorX + 1);
+			row[this.cursorX] = value;
+			dirtyRows[this.cursorY] = true;
+			rowLengths[this.cursorY] = Math.max(rowLengths[this.cursorY], this.cursorX + 1);
 
 			this.cursorX++;
 		}
 	}
 
+	/**
+	 * Writes a run of characters. Equivalent to calling {@link #write(char)} for
+	 * each character, but the bounds checks and padding are done once for each
+	 * line rather than once for each character.
+	 * 
+	 * @param text
+	 *            The text to write. Non-null.
+	 * @param start
+	 *            The index of the first character to write.
+	 * @param end
+	 *            The index after the last character to write.
+	 */
+	public void write(CharSequence text, int start, int end) {
+		Preconditions.checkNotNull(text, "text must be non-null.");
+		Preconditions.checkPositionIndexes(start, end, text.length());
+
+		int i = start;
+		while (i < end) {
+			if (isCursorOutOfBounds()) {
+				// Everything else, newlines included, would be a no-op.
+				return;
+			}
+
+			if (text.charAt(i) == '\n') {
+				newLine();
+				i++;
+				continue;
+			}
+
+			if (maxRowLength != null && this.cursorX >= maxRowLength) {
+				newLine();
+			}
+
+			int runEnd = i + 1;
+			while (runEnd < end && text.charAt(runEnd) != '\n') {
+				runEnd++;
+			}
+
+			// Characters past the max width are dropped, and the cursor is left out of
+			// bounds.
+			int count = runEnd - i;
+			if (maxWidth != null) {
+				count = Math.min(count, maxWidth - this.cursorX);
+			}
+			if (maxRowLength != null) {
+				count = Math.min(count, maxRowLength - this.cursorX);
+			}
+
+			padRow(this.cursorY, this.cursorX);
+
+			char[] row = ensureRowCapacity(this.cursorY, this.cursorX + count);
+			copy(text, i, i + count, row, this.cursorX);
+			dirtyRows[this.cursorY] = true;
+			rowLengths[this.cursorY] = Math.max(rowLengths[this.cursorY], this.cursorX + count);
+			this.cursorX += count;
+
+			i += count;
+		}
+	}
+
+	/**
+	 * Renders the matrix. If nothing has changed since the last call, the same
+	 * frame is returned without rendering it again.
+	 * 
+	 * @return The rendered frame.
+	 */
 	public String render() {
-		List<String> listOfLines = matrix.stream().map(line -> {
-			StringBuffer lineSb = new StringBuffer();
-			line.forEach(character -> lineSb.append(character));
-			return lineSb.toString();
-		}).collect(Collectors.toList());
+		if (lastFrame != null && !hasChangedSinceRender()) {
+			Arrays.fill(dirtyRows, false);
+			this.frameChanged = false;
+			return lastFrame;
+		}
+
+		String frame = renderRows();
+		this.frameChanged = !frame.equals(lastFrame);
+		this.lastFrame = frame;
+
+		for (int i = 0; i < rowCount; i++) {
+			if (dirtyRows[i] || rowLengths[i] != renderedRowLengths[i]) {
+				if (renderedRows[i] == null || renderedRows[i].length < rowLengths[i]) {
+					renderedRows[i] = new char[rows[i].length];
+				}
+				System.arraycopy(rows[i], 0, renderedRows[i], 0, rowLengths[i]);
+				renderedRowLengths[i] = rowLengths[i];
+			}
+		}
+		Arrays.fill(renderedRowLengths, rowCount, renderedRowLengths.length, 0);
+		Arrays.fill(dirtyRows, false);
+		this.renderedRowCount = rowCount;
+
+		return frame;
+	}
+
+	/**
+	 * Whether the last call to {@link #render()} returned a frame different from
+	 * the one before it. The first frame always counts as changed.
+	 * 
+	 * @return True if the last rendered frame changed.
+	 */
+	public boolean isFrameChanged() {
+		return frameChanged;
+	}
+
+	/**
+	 * Renders the rows as they are now.
+	 * 
+	 * @return The rendered rows.
+	 */
+	protected String renderRows() {
+		int length = rowCount - 1;
+		for (int i = 0; i < rowCount; i++) {
+			length += rowLengths[i];
+		}
+
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < rowCount; i++) {
+			if (i > 0) {
+				sb.append('\n');
+			}
+			sb.append(rows[i], 0, rowLengths[i]);
+		}
+
+		return sb.toString();
+	}
+
+	private boolean hasChangedSinceRender() {
+		if (rowCount != renderedRowCount) {
+			return true;
+		}
+
+		for (int i = 0; i < rowCount; i++) {
+			if (rowLengths[i] != renderedRowLengths[i]) {
+				return true;
+			}
+
+			if (dirtyRows[i]) {
+				char[] row = rows[i];
+				char[] renderedRow = renderedRows[i];
+				for (int x = 0; x < rowLengths[i]; x++) {
+					if (row[x] != renderedRow[x]) {
+						return true;
+					}
+				}
+			}
+		}
 
-		String result = StringUtils.join(listOfLines, "\n");
+		return false;
+	}
+
+	private boolean isCursorOutOfBounds() {
+		return (maxWidth != null && this.cursorX >= maxWidth) || (maxHeight != null && this.cursorY >= maxHeight);
+	}
+
+	private void newLine() {
+		if (maxRetainedRows != null && this.cursorY + 1 >= maxRetainedRows) {
+			dropOldestRow();
+		}
+
+		int nextCursorY = this.cursorY + 1;
+		if (maxHeight == null || nextCursorY < maxHeight) {
+			setCursor(nextCursorY, 0);
+		}
+	}
+
+	private static void copy(CharSequence text, int start, int end, char[] dest, int destStart) {
+		if (text instanceof StringBuilder) {
+			((StringBuilder) text).getChars(start, end, dest, destStart);
+		} else if (text instanceof String) {
+			((String) text).getChars(start, end, dest, destStart);
+		} else {
+			for (int i = start; i < end; i++) {
+				dest[destStart + i - start] = text.charAt(i);
+			}
+		}
+	}
+
+	/**
+	 * Appends an empty row, reusing a previously allocated one if possible.
+	 */
+	private void addRow() {
+		if (rowCount == rows.length) {
+			rows = Arrays.copyOf(rows, rows.length * 2);
+			rowLengths = Arrays.copyOf(rowLengths, rowLengths.length * 2);
+			dirtyRows = Arrays.copyOf(dirtyRows, dirtyRows.length * 2);
+			renderedRows = Arrays.copyOf(renderedRows, renderedRows.length * 2);
+			renderedRowLengths = Arrays.copyOf(renderedRowLengths, renderedRowLengths.length * 2);
+		}
+
+		if (rows[rowCount] == null) {
+			rows[rowCount] = new char[maxWidth != null ? maxWidth : INITIAL_ROW_CAPACITY];
+		}
+
+		rowLengths[rowCount] = 0;
+		rowCount++;
+	}
+
+	/**
+	 * Drops the first row and moves every other row up by one. The dropped row's
+	 * array is moved to the end for reuse.
+	 */
+	private void dropOldestRow() {
+		char[] dropped = rows[0];
+		System.arraycopy(rows, 1, rows, 0, rowCount - 1);
+		System.arraycopy(rowLengths, 1, rowLengths, 0, rowCount - 1);
+		rows[rowCount - 1] = dropped;
+
+		rowCount--;
+		this.cursorY--;
+		this.truncatedRowCount++;
+
+		// Every row now holds a different line than it did in the last frame.
+		Arrays.fill(dirtyRows, 0, rowCount, true);
+	}
+
+	/**
+	 * Pads a row with spaces so that it is at least the given length.
+	 */
+	private void padRow(int y, int length) {
+		int rowLength = rowLengths[y];
+		if (rowLength >= length) {
+			return;
+		}
 
-		return result;
+		char[] row = ensureRowCapacity(y, length);
+		Arrays.fill(row, rowLength, length, ' ');
+		rowLengths[y] = length;
+		dirtyRows[y] = true;
 	}
 
-	private <T> void fillUpTo(List<T> list, int upToIndex, Supplier<T> initialValueSupplier) {
-		if (upToIndex >= list.size()) {
-			int needMoreCount = upToIndex - list.size() + 1;
-			for (int i = 0; i < needMoreCount; i++) {
-				list.add(initialValueSupplier.get());
+	private char[] ensureRowCapacity(int y, int capacity) {
+		char[] row = rows[y];
+		if (row.length < capacity) {
+			int newCapacity = Math.max(row.length * 2, capacity);
+			if (maxRowLength != null) {
+				newCapacity = Math.min(newCapacity, Math.max(maxRowLength, capacity));
 			}
+			row = Arrays.copyOf(row, newCapacity);
+			rows[y] = row;
 		}
+		return row;
 	}
 }
@@ -9,12 +9,212 @@ import lombok.Data;
 @Data
 class Config {
 
+	private static final long DEFAULT_STORY_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+	private static final int DEFAULT_SESSION_MAILBOX_CAPACITY = 8;
+	private static final long DEFAULT_TURN_SLICE_INSTRUCTIONS = 200_000;
+	private static final long DEFAULT_TURN_SLICE_MILLIS = 50;
+	private static final long DEFAULT_TURN_MAX_INSTRUCTIONS = 100_000_000;
+	private static final int DEFAULT_LOWER_WINDOW_MAX_LINES = 100;
+	private static final int DEFAULT_LOWER_WINDOW_MAX_LINE_LENGTH = 1000;
+	private static final long DEFAULT_TOPIC_DEBOUNCE_MILLIS = 30_000;
+	private static final long DEFAULT_SAVE_LOG_SEGMENT_BYTES = 64L * 1024 * 1024;
+	private static final int DEFAULT_AUTOSAVE_TURNS = 0;
+	private static final long DEFAULT_AUTOSAVE_MILLIS = 0;
+
 	private final String storiesDir;
 	private final String savesDir;
 
+	/**
+	 * The maximum total heap taken up by the story cache. Memory-mapped Z-code is
+	 * not on the heap, so it does not count towards this.
+	 */
+	private final long storyCacheMaxBytes;
+
+	/**
+	 * How story files are brought into memory.
+	 */
+	private final StoryLoadMode storyLoadMode;
+
+	/**
+	 * The number of threads that run turns for all sessions.
+	 */
+	private final int sessionWorkerThreads;
+
+	/**
+	 * The maximum number of inputs that may be waiting for a session before
+	 * further input is dropped.
+	 */
+	private final int sessionMailboxCapacity;
+
+	/**
+	 * The number of instructions a turn may run before yielding to other
+	 * sessions.
+	 */
+	private final long turnSliceInstructions;
+
+	/**
+	 * The time, in milliseconds, a turn may run before yielding to other
+	 * sessions.
+	 */
+	private final long turnSliceMillis;
+
+	/**
+	 * The number of instructions a turn may run in total before the story is
+	 * stopped.
+	 */
+	private final long turnMaxInstructions;
+
+	/**
+	 * The number of lines of a turn's output to keep. Earlier lines are dropped.
+	 */
+	private final int lowerWindowMaxLines;
+
+	/**
+	 * The length after which lines of a turn's output are wrapped.
+	 */
+	private final int lowerWindowMaxLineLength;
+
+	/**
+	 * The time, in milliseconds, after a channel's first unapplied topic change
+	 * that the latest one is applied.
+	 */
+	private final long topicDebounceMillis;
+
+	/**
+	 * Whether the upper window is shown in one pinned message that is edited
+	 * each turn, instead of in a new message.
+	 */
+	private final boolean statusMessageInPlace;
+
+	/**
+	 * Where save slots are kept.
+	 */
+	private final SaveStoreType saveStore;
+
+	/**
+	 * The size after which a new segment of the save log is started. Only used
+	 * by the {@link SaveStoreType#LOG} save store.
+	 */
+	private final long saveLogSegmentBytes;
+
+	/**
+	 * The number of versions to keep of each save slot, stored as chunks shared
+	 * between all slots. Zero keeps each slot in a plain file. Only used by the
+	 * {@link SaveStoreType#FILES} save store.
+	 */
+	private final int saveHistoryVersions;
+
+	/**
+	 * The number of turns after which a session's game is autosaved. Zero turns
+	 * off autosaving by turns.
+	 */
+	private final int autosaveTurns;
+
+	/**
+	 * The time, in milliseconds, after which a session's game is autosaved at the
+	 * end of its next turn. Zero turns off autosaving by time.
+	 */
+	private final long autosaveMillis;
+
 	@JsonCreator
-	public Config(@JsonProperty("storiesDir") String storiesDir, @JsonProperty("savesDir") String savesDir) {
+	public Config(@JsonProperty("storiesDir") String storiesDir, @JsonProperty("savesDir") String savesDir,
+			@JsonProperty("storyCacheMaxBytes") Long storyCacheMaxBytes,
+			@JsonProperty("storyLoadMode") StoryLoadMode storyLoadMode,
+			@JsonProperty("sessionWorkerThreads") Integer sessionWorkerThreads,
+			@JsonProperty("sessionMailboxCapacity") Integer sessionMailboxCapacity,
+			@JsonProperty("turnSliceInstructions") Long turnSliceInstructions,
+			@JsonProperty("turnSliceMillis") Long turnSliceMillis,
+			@JsonProperty("turnMaxInstructions") Long turnMaxInstructions,
+			@JsonProperty("lowerWindowMaxLines") Integer lowerWindowMaxLines,
+			@JsonProperty("lowerWindowMaxLineLength") Integer lowerWindowMaxLineLength,
+			@JsonProperty("topicDebounceMillis") Long topicDebounceMillis,
+			@JsonProperty("statusMessageInPlace") Boolean statusMessageInPlace,
+			@JsonProperty("saveStore") SaveStoreType saveStore,
+			@JsonProperty("saveLogSegmentBytes") Long saveLogSegmentBytes,
+			@JsonProperty("saveHistoryVersions") Integer saveHistoryVersions,
+			@JsonProperty("autosaveTurns") Integer autosaveTurns,
+			@JsonProperty("autosaveMillis") Long autosaveMillis) {
 		this.storiesDir = Preconditions.checkNotNull(storiesDir, "storiesDir must be non-null.");
 		this.savesDir = Preconditions.checkNotNull(savesDir, "savesDir must be non-null.");
+
+		this.storyCacheMaxBytes = storyCacheMaxBytes != null ? storyCacheMaxBytes : DEFAULT_STORY_CACHE_MAX_BYTES;
+		Preconditions.checkArgument(this.storyCacheMaxBytes >= 0, "storyCacheMaxBytes must be non-negative.");
+
+		this.storyLoadMode = storyLoadMode != null ? storyLoadMode : StoryLoadMode.HEAP;
+
+		this.sessionWorkerThreads = sessionWorkerThreads != null ? sessionWorkerThreads
+				: Runtime.getRuntime().availableProcessors();
+		Preconditions.checkArgument(this.sessionWorkerThreads > 0, "sessionWorkerThreads must be positive.");
+
+		this.sessionMailboxCapacity = sessionMailboxCapacity != null ? sessionMailboxCapacity
+				: DEFAULT_SESSION_MAILBOX_CAPACITY;
+		Preconditions.checkArgument(this.sessionMailboxCapacity > 0, "sessionMailboxCapacity must be positive.");
+
+		this.turnSliceInstructions = turnSliceInstructions != null ? turnSliceInstructions
+				: DEFAULT_TURN_SLICE_INSTRUCTIONS;
+		Preconditions.checkArgument(this.turnSliceInstructions > 0, "turnSliceInstructions must be positive.");
+
+		this.turnSliceMillis = turnSliceMillis != null ? turnSliceMillis : DEFAULT_TURN_SLICE_MILLIS;
+		Preconditions.checkArgument(this.turnSliceMillis > 0, "turnSliceMillis must be positive.");
+
+		this.turnMaxInstructions = turnMaxInstructions != null ? turnMaxInstructions : DEFAULT_TURN_MAX_INSTRUCTIONS;
+		Preconditions.checkArgument(this.turnMaxInstructions > 0, "turnMaxInstructions must be positive.");
+
+		this.lowerWindowMaxLines = lowerWindowMaxLines != null ? lowerWindowMaxLines : DEFAULT_LOWER_WINDOW_MAX_LINES;
+		Preconditions.checkArgument(this.lowerWindowMaxLines > 0, "lowerWindowMaxLines must be positive.");
+
+		this.lowerWindowMaxLineLength = lowerWindowMaxLineLength != null ? lowerWindowMaxLineLength
+				: DEFAULT_LOWER_WINDOW_MAX_LINE_LENGTH;
+		Preconditions.checkArgument(this.lowerWindowMaxLineLength > 0, "lowerWindowMaxLineLength must be positive.");
+
+		this.topicDebounceMillis = topicDebounceMillis != null ? topicDebounceMillis : DEFAULT_TOPIC_DEBOUNCE_MILLIS;
+		Preconditions.checkArgument(this.topicDebounceMillis >= 0, "topicDebounceMillis must be non-negative.");
+
+		this.statusMessageInPlace = statusMessageInPlace != null ? statusMessageInPlace : false;
+
+		this.saveStore = saveStore != null ? saveStore : SaveStoreType.FILES;
+
+		this.saveLogSegmentBytes = saveLogSegmentBytes != null ? saveLogSegmentBytes
+				: DEFAULT_SAVE_LOG_SEGMENT_BYTES;
+		Preconditions.checkArgument(this.saveLogSegmentBytes > 0, "saveLogSegmentBytes must be positive.");
+
+		this.saveHistoryVersions = saveHistoryVersions != null ? saveHistoryVersions : 0;
+		Preconditions.checkArgument(this.saveHistoryVersions >= 0, "saveHistoryVersions must be non-negative.");
+
+		this.autosaveTurns = autosaveTurns != null ? autosaveTurns : DEFAULT_AUTOSAVE_TURNS;
+		Preconditions.checkArgument(this.autosaveTurns >= 0, "autosaveTurns must be non-negative.");
+
+		this.autosaveMillis = autosaveMillis != null ? autosaveMillis : DEFAULT_AUTOSAVE_MILLIS;
+		Preconditions.checkArgument(this.autosaveMillis >= 0, "autosaveMillis must be non-negative.");
+	}
+
+	/**
+	 * Gets the {@link TurnBudget} described by this config.
+	 * 
+	 * @return {@link TurnBudget}
+	 */
+	public TurnBudget getTurnBudget() {
+		return TurnBudget.builder().sliceInstructions(turnSliceInstructions).sliceMillis(turnSliceMillis)
+				.maxInstructions(turnMaxInstructions).build();
+	}
+
+	/**
+	 * Gets the {@link ScrollbackLimits} of the lower window described by this
+	 * config.
+	 * 
+	 * @return {@link ScrollbackLimits}
+	 */
+	public ScrollbackLimits getScrollbackLimits() {
+		return ScrollbackLimits.builder().maxLines(lowerWindowMaxLines).maxLineLength(lowerWindowMaxLineLength)
+				.build();
+	}
+
+	/**
+	 * Gets the {@link AutosavePolicy} described by this config.
+	 * 
+	 * @return {@link AutosavePolicy}
+	 */
+	public AutosavePolicy getAutosavePolicy() {
+		return AutosavePolicy.builder().everyTurns(autosaveTurns).everyMillis(autosaveMillis).build();
 	}
 }
@@ -0,0 +1,190 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.nio.ByteBuffer;
+
+import org.zmpp.base.Memory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link Memory} over a shared, read-only story image. Pages are copied from
+ * the image the first time they are written to, so many sessions of the same
+ * story only pay for the pages that each of them has dirtied. In practice, this
+ * is limited to the story's dynamic memory.
+ * <p>
+ * The image may be a heap buffer or a memory-mapped file. Each instance works
+ * on its own duplicate of the image, so this class is not thread safe, but any
+ * number of instances may share the same image across threads.
+ */
+class CopyOnWriteMemory implements Memory {
+
+	static final int PAGE_SHIFT = 10;
+	static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private ByteBuffer image;
+	private final int size;
+	private final byte[][] pages;
+	private int dirtyPageCount;
+	private boolean detached;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param image
+	 *            The shared story image, starting at position 0. Non-null. Will
+	 *            not be modified.
+	 */
+	public CopyOnWriteMemory(ByteBuffer image) {
+		Preconditions.checkNotNull(image, "image must be non-null.");
+		this.image = image.duplicate();
+		this.size = image.capacity();
+		this.pages = new byte[(size + PAGE_MASK) >> PAGE_SHIFT][];
+		this.dirtyPageCount = 0;
+		this.detached = false;
+	}
+
+	/**
+	 * Gets the number of pages that have been copied from the shared image.
+	 *
+	 * @return The number of dirty pages.
+	 */
+	public int getDirtyPageCount() {
+		return dirtyPageCount;
+	}
+
+	/**
+	 * Gets a contiguous copy of the whole memory. Since callers may write to the
+	 * returned array, this memory stops sharing the image and all subsequent
+	 * reads and writes go through the returned array instead.
+	 */
+	@Override
+	public byte[] buffer() {
+		if (!detached) {
+			byte[] copy = new byte[size];
+			copyBytesTo(copy, 0, size);
+
+			this.image = ByteBuffer.wrap(copy);
+			for (int i = 0; i < pages.length; i++) {
+				pages[i] = null;
+			}
+			this.dirtyPageCount = 0;
+			this.detached = true;
+		}
+
+		return image.array();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsAddress(int address) {
+		return address >= 0 && address < size;
+	}
+
+	@Override
+	public int byteAt(int address) {
+		byte[] page = pages[address >> PAGE_SHIFT];
+		if (page != null) {
+			return page[address & PAGE_MASK] & 0xFF;
+		}
+		return image.get(address) & 0xFF;
+	}
+
+	@Override
+	public void setByteAt(int address, int value) {
+		if (detached) {
+			image.put(address, (byte) value);
+		} else {
+			writablePage(address >> PAGE_SHIFT)[address & PAGE_MASK] = (byte) value;
+		}
+	}
+
+	@Override
+	public int shortAt(int address) {
+		return (byteAt(address) << 8) | byteAt(address + 1);
+	}
+
+	@Override
+	public void setShortAt(int address, int value) {
+		setByteAt(address, value >>> 8);
+		setByteAt(address + 1, value);
+	}
+
+	@Override
+	public int intAt(int address) {
+		return (byteAt(address) << 24) | (byteAt(address + 1) << 16) | (byteAt(address + 2) << 8)
+				| byteAt(address + 3);
+	}
+
+	@Override
+	public void setIntAt(int address, int value) {
+		setByteAt(address, value >>> 24);
+		setByteAt(address + 1, value >>> 16);
+		setByteAt(address + 2, value >>> 8);
+		setByteAt(address + 3, value);
+	}
+
+	@Override
+	public void copyBytesTo(byte[] dest, int srcOffset, int numBytes) {
+		int copied = 0;
+		while (copied < numBytes) {
+			int address = srcOffset + copied;
+			int offsetInPage = address & PAGE_MASK;
+			int length = Math.min(PAGE_SIZE - offsetInPage, numBytes - copied);
+
+			byte[] page = pages[address >> PAGE_SHIFT];
+			if (page != null) {
+				System.arraycopy(page, offsetInPage, dest, copied, length);
+			} else {
+				image.position(address);
+				image.get(dest, copied, length);
+			}
+
+			copied += length;
+		}
+	}
+
+	@Override
+	public void copyBytesTo(int dstOffset, int srcOffset, int numBytes) {
+		// Source and destination may overlap, so go through a temporary buffer.
+		byte[] bytes = new byte[numBytes];
+		copyBytesTo(bytes, srcOffset, numBytes);
+		copyBytesFrom(bytes, 0, dstOffset, numBytes);
+	}
+
+	@Override
+	public void copyBytesFrom(byte[] src, int srcOffset, int destOffset, int numBytes) {
+		if (detached) {
+			System.arraycopy(src, srcOffset, image.array(), destOffset, numBytes);
+			return;
+		}
+
+		int copied = 0;
+		while (copied < numBytes) {
+			int address = destOffset + copied;
+			int offsetInPage = address & PAGE_MASK;
+			int length = Math.min(PAGE_SIZE - offsetInPage, numBytes - copied);
+
+			System.arraycopy(src, srcOffset + copied, writablePage(address >> PAGE_SHIFT), offsetInPage, length);
+
+			copied += length;
+		}
+	}
+
+	private byte[] writablePage(int pageIndex) {
+		byte[] page = pages[pageIndex];
+		if (page == null) {
+			int pageStart = pageIndex << PAGE_SHIFT;
+			page = new byte[PAGE_SIZE];
+			image.position(pageStart);
+			image.get(page, 0, Math.min(PAGE_SIZE, size - pageStart));
+			pages[pageIndex] = page;
+			dirtyPageCount++;
+		}
+		return page;
+	}
+}
@@ -1,10 +1,5 @@
 package net.tonbot.plugin.ifplayer;
 
-import java.util.List;
-import java.util.stream.Collectors;
-
-import org.apache.commons.lang3.StringUtils;
-
 /**
  * Discord has a maximum character limit per message, so this specialization of
  * {@link CharacterMatrix} will remove any unnecessary whitespace. This class
@@ -15,9 +10,17 @@ import org.apache.commons.lang3.StringUtils;
  * <li>Replace 4 spaces with a tab. When code blocks are used, Discord displays
  * 1 tab as 4 spaces, but only treats a tab as 1 character.
  * </ul>
+ * Rendering is done in a single pass into a reused builder. The output is the
+ * same as trimming each line with {@code \s+$}, replacing {@code \s{4}} with a
+ * tab, joining the lines with newlines and trimming the result with
+ * {@code \s+$} again.
  */
 class DiscordAwareCharacterMatrix extends CharacterMatrix {
 
+	private static final int SPACES_PER_TAB = 4;
+
+	private final StringBuilder renderBuffer = new StringBuilder();
+
 	public DiscordAwareCharacterMatrix() {
 		super();
 	}
@@ -27,17 +30,91 @@ class DiscordAwareCharacterMatrix extends CharacterMatrix {
 	}
 
 	@Override
-	public String render() {
-		List<String> listOfLines = matrix.stream().map(line -> {
-			StringBuffer lineSb = new StringBuffer();
-			line.forEach(character -> lineSb.append(character));
-			return lineSb.toString().replaceAll("\\s+$", "").replaceAll("\\s{4}", "\t");
-		}).collect(Collectors.toList());
+	protected String renderRows() {
+		StringBuilder sb = renderBuffer;
+		sb.setLength(0);
+
+		for (int i = 0; i < rowCount; i++) {
+			if (i > 0) {
+				sb.append('\n');
+			}
+			appendLine(sb, rows[i], rowLengths[i]);
+		}
 
 		// Removes trailing empty lines
-		String result = StringUtils.join(listOfLines, "\n").replaceAll("\\s+$", "");
+		int end = sb.length();
+		if (end > 0 && isNonWhitespaceLineTerminator(sb.charAt(end - 1))) {
+			int start = trailingWhitespaceStart(sb, end - 1);
+			sb.delete(start, end - 1);
+		} else {
+			sb.setLength(trailingWhitespaceStart(sb, end));
+		}
+
+		return sb.toString();
+	}
+
+	private static void appendLine(StringBuilder sb, char[] line, int length) {
+		// Trim whitespace from the end. Like the regex $, this also trims whitespace
+		// that is only followed by a final line terminator.
+		int contentEnd;
+		boolean keepLastChar = length > 0 && isNonWhitespaceLineTerminator(line[length - 1]);
+		if (keepLastChar) {
+			contentEnd = trailingWhitespaceStart(line, length - 1);
+		} else {
+			contentEnd = trailingWhitespaceStart(line, length);
+		}
 
-		return result;
+		// Replace every 4 consecutive whitespace characters with a tab.
+		int whitespaceRun = 0;
+		for (int i = 0; i < contentEnd; i++) {
+			char c = line[i];
+			if (!isWhitespace(c)) {
+				sb.append(line, i - whitespaceRun, whitespaceRun);
+				whitespaceRun = 0;
+				sb.append(c);
+			} else if (++whitespaceRun == SPACES_PER_TAB) {
+				sb.append('\t');
+				whitespaceRun = 0;
+			}
+		}
+		// The content never ends with whitespace, so the run is always flushed.
+
+		if (keepLastChar) {
+			sb.append(line[length - 1]);
+		}
+	}
+
+	/**
+	 * Finds the start of the whitespace that ends at the given index.
+	 */
+	private static int trailingWhitespaceStart(char[] chars, int end) {
+		int start = end;
+		while (start > 0 && isWhitespace(chars[start - 1])) {
+			start--;
+		}
+		return start;
+	}
+
+	private static int trailingWhitespaceStart(CharSequence chars, int end) {
+		int start = end;
+		while (start > 0 && isWhitespace(chars.charAt(start - 1))) {
+			start--;
+		}
+		return start;
+	}
+
+	/**
+	 * Whether the character is in the regex class {@code \s}.
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
 	}
 
+	/**
+	 * Whether the character is a line terminator that the regex {@code $} may
+	 * precede, but which isn't in {@code \s}.
+	 */
+	private static boolean isNonWhitespaceLineTerminator(char c) {
+		return c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
 }
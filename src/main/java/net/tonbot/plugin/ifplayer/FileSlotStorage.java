@@ -0,0 +1,45 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Preconditions;
+
+import lombok.Data;
+
+/**
+ * A save slot kept in its own file.
+ */
+@Data
+class FileSlotStorage implements SaveSlotStorage {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File file;
+
+	public FileSlotStorage(File file) {
+		this.file = Preconditions.checkNotNull(file, "file must be non-null.");
+	}
+
+	@Override
+	public SaveOutputStream openOutputStream() throws IOException {
+		return new AtomicFileOutputStream(file.toPath());
+	}
+
+	@Override
+	public InputStream openInputStream() throws IOException {
+		return new BufferedInputStream(
+				Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ)), BUFFER_SIZE);
+	}
+
+	@Override
+	public URI getURI() {
+		return file.toURI();
+	}
+}
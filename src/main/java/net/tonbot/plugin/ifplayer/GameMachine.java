@@ -1,11 +1,13 @@
 package net.tonbot.plugin.ifplayer;
 
+import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -48,6 +50,10 @@ class GameMachine implements ScreenModel, OutputStream {
 
 	private static final int UPPER_WINDOW_WIDTH = 100;
 
+	private static final long CLOCK_CHECK_MASK = 0x3FF;
+
+	private static final int MAX_PENDING_OUTPUT = 1024;
+
 	private static final int MAX_EXPECTED_WINDOWS = 2;
 	private static final int LOWER_WINDOW_INDEX = 0;
 	private static final int UPPER_WINDOW_INDEX = 1;
@@ -56,10 +62,14 @@ class GameMachine implements ScreenModel, OutputStream {
 			.asScalaBuffer(ImmutableList.<CapabilityFlag>of()).toList();
 
 	private final Machine vm;
+	private final Memory memory;
 
 	@Getter
 	private final Story story;
 	private final long channelId;
+	private final TurnBudget turnBudget;
+	private final AutosavePolicy autosavePolicy;
+	private final OnAutosaveCallback autosaveCallback;
 
 	private SaveFile saveFile = null;
 	private OnSavedCallback fileSavedCallback;
@@ -67,15 +77,36 @@ class GameMachine implements ScreenModel, OutputStream {
 
 	private List<CharacterMatrix> windows;
 	private int activeWindow;
+
+	/**
+	 * Output for the active window that hasn't been written to it yet. Must be
+	 * flushed before anything reads or moves the active window's cursor.
+	 */
+	private final StringBuilder pendingOutput = new StringBuilder(MAX_PENDING_OUTPUT);
 	private boolean selected = true; // No idea wtf this does.
 	private boolean started = false;
 	private boolean statusLineIsReadable = false;
-	private boolean manuallyStopped = false;
+	private volatile boolean manuallyStopped = false;
 
-	public GameMachine(final Story story, final long channelId, final OnSavedCallback fileSavedCallback) {
+	private boolean turnInProgress = false;
+	private String turnUsername;
+	private long turnInstructionCount;
+
+	private long turnCount = 0;
+	private int turnsSinceAutosave = 0;
+	private long lastAutosaveNanos;
+
+	public GameMachine(final Story story, final long channelId, final OnSavedCallback fileSavedCallback,
+			final TurnBudget turnBudget, final ScrollbackLimits scrollbackLimits,
+			final AutosavePolicy autosavePolicy, final OnAutosaveCallback autosaveCallback) {
 		this.story = Preconditions.checkNotNull(story, "story must be non-null.");
 		this.channelId = channelId;
+		this.turnBudget = Preconditions.checkNotNull(turnBudget, "turnBudget must be non-null.");
+		Preconditions.checkNotNull(scrollbackLimits, "scrollbackLimits must be non-null.");
 		this.fileSavedCallback = Preconditions.checkNotNull(fileSavedCallback, "fileSavedCallback must be non-null.");
+		this.autosavePolicy = Preconditions.checkNotNull(autosavePolicy, "autosavePolicy must be non-null.");
+		this.autosaveCallback = Preconditions.checkNotNull(autosaveCallback, "autosaveCallback must be non-null.");
+		this.lastAutosaveNanos = System.nanoTime();
 
 		if (story.getVersion() == 6) {
 			throw new IllegalArgumentException("Z-Machine V6 files are not supported.");
@@ -83,8 +114,11 @@ class GameMachine implements ScreenModel, OutputStream {
 
 		this.windows = new ArrayList<>(MAX_EXPECTED_WINDOWS);
 
-		// The lower window should be unconstrained.
-		this.windows.add(LOWER_WINDOW_INDEX, new DiscordAwareCharacterMatrix());
+		// The lower window should be unconstrained, except for how much of a turn it
+		// keeps.
+		CharacterMatrix lowerWindow = new DiscordAwareCharacterMatrix();
+		lowerWindow.setScrollback(scrollbackLimits.getMaxLines(), scrollbackLimits.getMaxLineLength());
+		this.windows.add(LOWER_WINDOW_INDEX, lowerWindow);
 
 		// The upper window should have a constant width.
 		// The height, however, can change at any time.
@@ -93,8 +127,8 @@ class GameMachine implements ScreenModel, OutputStream {
 		this.activeWindow = 0;
 
 		this.vm = new Machine();
-		Memory mem = story.getMemory();
-		vm.init(mem, this);
+		this.memory = story.newMemory();
+		vm.init(memory, this);
 
 		initUI();
 	}
@@ -121,15 +155,17 @@ class GameMachine implements ScreenModel, OutputStream {
 	}
 
 	/**
-	 * Gets the next screen state after providing the given input.
+	 * Starts a turn by providing the given input. If the turn doesn't finish
+	 * within the time slice of the {@link TurnBudget}, a
+	 * {@link TurnResult.Status#YIELDED} result is returned and the turn must be
+	 * finished with {@link #continueTurn()}.
 	 * 
 	 * @param input
 	 *            The input. Only nullable on the first call. Non-null on subsequent
 	 *            calls.
 	 * @param username
 	 *            The user who sent the input.
-	 * @return An optional {@link ScreenState}. Empty if the game not running or is
-	 *         no longer running.
+	 * @return The {@link TurnResult}.
 	 * @throws GameMachineException
 	 *             If an error occurred with the turn. These exceptions do not
 	 *             necessarily mean that the game machine has been stopped. This
@@ -137,13 +173,17 @@ class GameMachine implements ScreenModel, OutputStream {
 	 *             though.
 	 * 
 	 */
-	public Optional<ScreenState> takeTurn(String input, String username) {
+	public TurnResult takeTurn(String input, String username) {
 		Preconditions.checkNotNull(username, "username must be non-null.");
 
 		if (this.manuallyStopped || vm.state().runState() == ZMachineRunStates.Halted()) {
 			throw new GameMachineException("This GameMachine has been stopped.");
 		}
 
+		if (this.turnInProgress) {
+			throw new GameMachineException("The previous turn hasn't finished yet.");
+		}
+
 		if (this.started) {
 			Preconditions.checkNotNull(!StringUtils.isEmpty(input), "input must be non-null and non-empty.");
 
@@ -155,18 +195,71 @@ class GameMachine implements ScreenModel, OutputStream {
 		}
 
 		this.started = true;
+		this.turnInProgress = true;
+		this.turnUsername = username;
+		this.turnInstructionCount = 0;
+
+		return continueTurn();
+	}
+
+	/**
+	 * Resumes a turn that has yielded.
+	 * 
+	 * @return The {@link TurnResult}.
+	 * @throws GameMachineException
+	 *             If an error occurred with the turn.
+	 */
+	public TurnResult continueTurn() {
+		if (this.manuallyStopped || vm.state().runState() == ZMachineRunStates.Halted()) {
+			throw new GameMachineException("This GameMachine has been stopped.");
+		}
 
-		ScreenState nextScreenState = null;
+		if (!this.turnInProgress) {
+			throw new GameMachineException("There is no turn to continue.");
+		}
+
+		try {
+			return runSlice();
+		} catch (RuntimeException e) {
+			// A turn that failed, such as one whose save couldn't be written, must not
+			// block the next one. The VM is still waiting on whatever failed, so the next
+			// turn tries it again.
+			this.turnInProgress = false;
+			throw e;
+		}
+	}
+
+	private TurnResult runSlice() {
+		long sliceDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(turnBudget.getSliceMillis());
+		long sliceInstructionCount = 0;
 
 		while (true) {
 			while (vm.state().runState() == ZMachineRunStates.Running()) {
 				vm.doInstruction(false);
+				sliceInstructionCount++;
+				turnInstructionCount++;
+
+				if (turnInstructionCount >= turnBudget.getMaxInstructions()) {
+					LOG.warn("Story {} exceeded {} instructions in one turn and has been halted.", story.getName(),
+							turnBudget.getMaxInstructions());
+					this.turnInProgress = false;
+					this.stop();
+					return TurnResult.builder().status(TurnResult.Status.HALTED)
+							.haltReason("The story ran for too long without waiting for input, so it has been stopped.")
+							.build();
+				}
+
+				// Reading the clock is comparatively expensive, so only check it occasionally.
+				if (sliceInstructionCount >= turnBudget.getSliceInstructions()
+						|| ((sliceInstructionCount & CLOCK_CHECK_MASK) == 0 && System.nanoTime() >= sliceDeadline)) {
+					return TurnResult.builder().status(TurnResult.Status.YIELDED).build();
+				}
 			}
 
 			if (isSavingToFile) {
 				// Saving finished
-				SaveFileMetadata md = SaveFileMetadata.builder().createdBy(username).creationDate(ZonedDateTime.now())
-						.build();
+				SaveFileMetadata md = SaveFileMetadata.builder().createdBy(turnUsername)
+						.creationDate(ZonedDateTime.now()).build();
 				this.saveFile = fileSavedCallback.getOnSavedCallback(channelId, saveFile, md);
 				isSavingToFile = false;
 			}
@@ -180,16 +273,23 @@ class GameMachine implements ScreenModel, OutputStream {
 							.statusLineScoreOrTime(vm.statusLineScoreOrTime());
 				}
 
+				this.flushPendingOutput();
 				CharacterMatrix upperWindow = windows.get(UPPER_WINDOW_INDEX);
 				CharacterMatrix lowerWindow = windows.get(LOWER_WINDOW_INDEX);
 
-				nextScreenState = builder.windowContents(ImmutableList.of(upperWindow.render(), lowerWindow.render()))
+				ScreenState nextScreenState = builder
+						.windowContents(ImmutableList.of(upperWindow.render(), lowerWindow.render()))
+						.windowChanges(ImmutableList.of(upperWindow.isFrameChanged(), lowerWindow.isFrameChanged()))
+						.truncatedLineCount(lowerWindow.getTruncatedRowCount())
 						.build();
 
 				upperWindow.reset();
 				lowerWindow.reset();
 
-				break;
+				this.turnInProgress = false;
+				this.autosaveIfDue();
+				return TurnResult.builder().status(TurnResult.Status.AWAITING_INPUT).screenState(nextScreenState)
+						.build();
 			} else if (vm.state().runState() == ZMachineRunStates.SaveGame()) {
 				this.requestSaveFile();
 			} else if (vm.state().runState() == ZMachineRunStates.RestoreGame()) {
@@ -197,11 +297,10 @@ class GameMachine implements ScreenModel, OutputStream {
 			} else if (vm.state().runState() == ZMachineRunStates.Halted()) {
 				this.flush();
 				LOG.info("Machine has halted.");
-				break;
+				this.turnInProgress = false;
+				return TurnResult.builder().status(TurnResult.Status.HALTED).build();
 			}
 		}
-
-		return Optional.ofNullable(nextScreenState);
 	}
 
 	/**
@@ -253,6 +352,7 @@ class GameMachine implements ScreenModel, OutputStream {
 			throw new IllegalStateException("Cursor is not supported on the lower window.");
 		}
 
+		this.flushPendingOutput();
 		CharacterMatrix charMatrix = this.windows.get(this.activeWindow);
 		int[] cursorPosition = charMatrix.getCursorPosition();
 		return new Tuple2<>(cursorPosition[0] + 1, cursorPosition[1] + 1);
@@ -266,6 +366,7 @@ class GameMachine implements ScreenModel, OutputStream {
 	@Override
 	public void eraseWindow(int windowId) {
 		LOG.debug("eraseWindow called with windowId {}", windowId);
+		this.flushPendingOutput();
 
 		if (windowId == -1) {
 			CharacterMatrix topWindow = this.windows.get(UPPER_WINDOW_INDEX);
@@ -334,6 +435,7 @@ class GameMachine implements ScreenModel, OutputStream {
 			return;
 		}
 
+		this.flushPendingOutput();
 		CharacterMatrix charMatrix = this.windows.get(this.activeWindow);
 		charMatrix.setCursor(line - 1, column - 1);
 	}
@@ -354,6 +456,7 @@ class GameMachine implements ScreenModel, OutputStream {
 		// Selects the given window for text output.
 		LOG.debug("setWindow called with windowId {}", windowId);
 		Preconditions.checkArgument(windowId < MAX_EXPECTED_WINDOWS, "Unexpected windowId received.");
+		this.flushPendingOutput();
 		this.activeWindow = windowId;
 	}
 
@@ -365,6 +468,7 @@ class GameMachine implements ScreenModel, OutputStream {
 		// cleared after the split.
 		// More at: http://inform-fiction.org/zmachine/standards/z1point1/sect15.html
 		LOG.debug("splitWindow called with lines {}", lines);
+		this.flushPendingOutput();
 
 		if (story.getVersion() == 3) {
 			// Clears the top window.
@@ -395,6 +499,7 @@ class GameMachine implements ScreenModel, OutputStream {
 	@Override
 	public void flush() {
 		LOG.debug("flush called.");
+		this.flushPendingOutput();
 	}
 
 	private void readChar(String suppliedLine) {
@@ -411,23 +516,68 @@ class GameMachine implements ScreenModel, OutputStream {
 		}
 	}
 
+	/**
+	 * Takes a snapshot if the {@link AutosavePolicy} calls for one and hands it
+	 * off to be written. Only called while the story is waiting for input, which
+	 * is the only time the VM's state is complete and can't change underneath
+	 * the copy. The time limit is therefore only checked at the end of a turn.
+	 */
+	private void autosaveIfDue() {
+		this.turnCount++;
+		this.turnsSinceAutosave++;
+
+		if (!autosavePolicy.isEnabled()) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		boolean dueByTurns = autosavePolicy.getEveryTurns() > 0
+				&& turnsSinceAutosave >= autosavePolicy.getEveryTurns();
+		boolean dueByTime = autosavePolicy.getEveryMillis() > 0
+				&& now - lastAutosaveNanos >= TimeUnit.MILLISECONDS.toNanos(autosavePolicy.getEveryMillis());
+		if (!dueByTurns && !dueByTime) {
+			return;
+		}
+
+		this.turnsSinceAutosave = 0;
+		this.lastAutosaveNanos = now;
+		autosaveCallback.onAutosave(channelId, takeSnapshot());
+	}
+
+	/**
+	 * Copies the dynamic memory and stack. This is all the turn pays for an
+	 * autosave; encoding and writing the snapshot happen elsewhere.
+	 */
+	private AutosaveSnapshot takeSnapshot() {
+		byte[] dynamicMemory = new byte[story.getStaticMemoryBase()];
+		memory.copyBytesTo(dynamicMemory, 0, dynamicMemory.length);
+
+		int[] stack = new int[vm.state().sp()];
+		for (int i = 0; i < stack.length; i++) {
+			stack[i] = vm.state().stackValueAt(i);
+		}
+
+		return AutosaveSnapshot.builder().story(story).createdBy(turnUsername).creationDate(ZonedDateTime.now())
+				.turn(turnCount).pc(vm.state().pc()).fp(vm.state().fp()).stack(stack).dynamicMemory(dynamicMemory)
+				.build();
+	}
+
 	private void requestRestoreFile() {
-		java.io.InputStream saveFileInputStream;
+		if (saveFile == null) {
+			vm.resumeWithRestoreStream(null);
+			return;
+		}
 
-		try {
-			if (saveFile != null) {
-				saveFileInputStream = saveFile.getInputStream();
-				LOG.debug("Attempting to load file at {}", saveFile.getURI());
-			} else {
-				saveFileInputStream = null;
-			}
-		} catch (UncheckedIOException e) {
-			saveFileInputStream = null;
+		LOG.debug("Attempting to load file at {}", saveFile.getURI());
+
+		// The VM reads the whole stream before returning, so it can be closed right
+		// away.
+		try (java.io.InputStream saveFileInputStream = saveFile.getInputStream()) {
+			vm.resumeWithRestoreStream(saveFileInputStream);
+		} catch (IOException | UncheckedIOException e) {
 			LOG.error("Save file at {} could not be read.", saveFile.getURI(), e);
 			throw new GameMachineException("Failed to load the game.", e);
 		}
-
-		vm.resumeWithRestoreStream(saveFileInputStream);
 	}
 
 	private void requestSaveFile() {
@@ -435,14 +585,24 @@ class GameMachine implements ScreenModel, OutputStream {
 			throw new GameMachineException("Cannot save the game because there is no save file selected.");
 		}
 
+		LOG.debug("Attempting to save file at {}", saveFile.getURI());
+
+		// The VM writes the whole stream before returning. The old save is only
+		// replaced once the new one has been written out completely.
+		SaveOutputStream saveFileOutputStream = null;
 		try {
-			java.io.OutputStream saveFileOutputStream = saveFile.getOutputStream();
-			LOG.debug("Attempting to save file at {}", saveFile.getURI());
+			saveFileOutputStream = saveFile.getOutputStream();
 			vm.resumeWithSaveStream(saveFileOutputStream);
+			saveFileOutputStream.close();
 			this.isSavingToFile = true;
-		} catch (UncheckedIOException e) {
+		} catch (IOException | UncheckedIOException e) {
 			LOG.error("Save file at {} could not be accessed.", saveFile.getURI(), e);
 			throw new GameMachineException("Failed to save the game.", e);
+		} finally {
+			if (saveFileOutputStream != null) {
+				// Does nothing if the save was written.
+				saveFileOutputStream.abort();
+			}
 		}
 	}
 
@@ -453,8 +613,24 @@ class GameMachine implements ScreenModel, OutputStream {
 
 	@Override
 	public void putChar(char c) {
+		pendingOutput.append(c);
+
+		if (c == '\n' || pendingOutput.length() >= MAX_PENDING_OUTPUT) {
+			this.flushPendingOutput();
+		}
+	}
+
+	/**
+	 * Writes pending output to the active window in one run.
+	 */
+	private void flushPendingOutput() {
+		if (pendingOutput.length() == 0) {
+			return;
+		}
+
 		CharacterMatrix charMatrix = this.windows.get(this.activeWindow);
-		charMatrix.write(c);
+		charMatrix.write(pendingOutput, 0, pendingOutput.length());
+		pendingOutput.setLength(0);
 	}
 
 	@Override
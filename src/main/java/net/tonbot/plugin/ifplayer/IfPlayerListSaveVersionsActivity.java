@@ -0,0 +1,102 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.awt.Color;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+
+import net.tonbot.common.Activity;
+import net.tonbot.common.ActivityDescriptor;
+import net.tonbot.common.ActivityUsageException;
+import net.tonbot.common.BotUtils;
+import net.tonbot.common.Enactable;
+import net.tonbot.common.TonbotBusinessException;
+import sx.blah.discord.handle.impl.events.guild.channel.message.MessageReceivedEvent;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.util.EmbedBuilder;
+
+class IfPlayerListSaveVersionsActivity implements Activity {
+
+	private static final ActivityDescriptor ACTIVITY_DESCRIPTOR = ActivityDescriptor.builder().route("if versions")
+			.parameters(ImmutableList.of("<slot number>"))
+			.description("Lists the saved versions of a save slot for the current story.").build();
+
+	private final SessionManager sessionManager;
+	private final SaveManager saveManager;
+	private final BotUtils botUtils;
+	private final Color accentColor;
+
+	@Inject
+	public IfPlayerListSaveVersionsActivity(
+			SessionManager sessionManager,
+			SaveManager saveManager,
+			BotUtils botUtils,
+			Color accentColor) {
+		this.sessionManager = Preconditions.checkNotNull(sessionManager, "sessionManager must be non-null.");
+		this.saveManager = Preconditions.checkNotNull(saveManager, "saveManager must be non-null.");
+		this.botUtils = Preconditions.checkNotNull(botUtils, "botUtils must be non-null.");
+		this.accentColor = Preconditions.checkNotNull(accentColor, "accentColor must be non-null.");
+	}
+
+	@Override
+	public ActivityDescriptor getDescriptor() {
+		return ACTIVITY_DESCRIPTOR;
+	}
+
+	@Enactable
+	public void enact(MessageReceivedEvent messageReceivedEvent, IfPlayerListSaveVersionsRequest request) {
+		IChannel channel = messageReceivedEvent.getChannel();
+
+		if (request.getSlotNumber() < 0 || request.getSlotNumber() >= saveManager.getMaxSlots()) {
+			throw new ActivityUsageException("You need to enter a number from 0 to " + (saveManager.getMaxSlots() - 1));
+		}
+
+		Session session = sessionManager.getSession(
+				SessionKey.builder()
+					.channelId(channel.getLongID())
+					.build())
+				.orElse(null);
+
+		if (session == null) {
+			throw new TonbotBusinessException("You need to play a story first.");
+		}
+
+		Story story = session.getGameMachine().getStory();
+		List<SaveVersion> versions = saveManager.getSaveVersions(channel.getLongID(), story,
+				request.getSlotNumber());
+
+		if (versions.isEmpty()) {
+			throw new TonbotBusinessException("No versions are kept for slot " + request.getSlotNumber() + ".");
+		}
+
+		EmbedBuilder embedBuilder = new EmbedBuilder();
+		embedBuilder.appendDescription("Versions of slot " + request.getSlotNumber() + " for **" + story.getName()
+				+ "** in channel **" + channel.getName() + "**, newest first:");
+
+		for (int i = versions.size() - 1; i >= 0; i--) {
+			SaveVersion version = versions.get(i);
+
+			StringBuilder contentsBuilder = new StringBuilder();
+			if (version.getMetadata() != null) {
+				contentsBuilder.append("Saved by: ").append(version.getMetadata().getCreatedBy()).append("\n")
+						.append("Saved on: ").append(version.getMetadata().getCreationDate().toString());
+			} else {
+				contentsBuilder.append("Saved");
+			}
+
+			StringBuilder topicBuilder = new StringBuilder();
+			topicBuilder.append("Version ").append(version.getNumber());
+
+			if (i == versions.size() - 1) {
+				topicBuilder.append(" :point_left:");
+			}
+
+			embedBuilder.appendField(topicBuilder.toString(), contentsBuilder.toString(), false);
+		}
+		embedBuilder.withColor(accentColor);
+
+		botUtils.sendEmbed(channel, embedBuilder.build());
+	}
+}
@@ -0,0 +1,18 @@
+package net.tonbot.plugin.ifplayer;
+
+import javax.annotation.Nonnull;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.tonbot.common.Param;
+
+@EqualsAndHashCode
+@ToString()
+class IfPlayerListSaveVersionsRequest {
+
+	@Getter
+	@Param(name = "slot number", ordinal = 0, description = "The slot number to list the versions of.")
+	@Nonnull
+	private int slotNumber;
+}
@@ -2,6 +2,7 @@ package net.tonbot.plugin.ifplayer;
 
 import java.awt.Color;
 import java.io.File;
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -46,9 +47,11 @@ class IfPlayerListStoriesActivity implements Activity {
 	public void enact(MessageReceivedEvent messageReceivedEvent) {
 		List<File> storyFiles = storyLibrary.listAllStories();
 		List<String> storyNames = storyFiles.stream()
-				.map(File::getName)
-				.sorted()
-				.map(n -> "``" + n + "``")
+				.sorted(Comparator.comparing(File::getName))
+				.map(file -> {
+					String title = storyLibrary.getMetadata(file).map(StoryMetadata::getTitle).orElse(null);
+					return "``" + file.getName() + "``" + (title != null ? " - " + title : "");
+				})
 				.collect(Collectors.toList());
 
 		EmbedBuilder embedBuilder = new EmbedBuilder();
@@ -26,8 +26,9 @@ class IfPlayerModule extends AbstractModule {
 	private final File storyDir;
 	private final File saveDir;
 	private final Color accentColor;
+	private final Config config;
 
-	public IfPlayerModule(IDiscordClient discordClient, BotUtils botUtils, String prefix, Color accentColor, File storyDir, File saveDir) {
+	public IfPlayerModule(IDiscordClient discordClient, BotUtils botUtils, String prefix, Color accentColor, File storyDir, File saveDir, Config config) {
 		this.discordClient = Preconditions.checkNotNull(discordClient, "discordClient must be non-null.");
 		this.botUtils = Preconditions.checkNotNull(botUtils, "botUtils must be non-null.");
 		this.prefix = Preconditions.checkNotNull(prefix, "prefix must be non-null.");
@@ -40,6 +41,8 @@ class IfPlayerModule extends AbstractModule {
 		Preconditions.checkNotNull(saveDir, "saveDir must be non-null.");
 		Preconditions.checkArgument(saveDir.isDirectory(), "saveDir must be a directory.");
 		this.saveDir = saveDir;
+
+		this.config = Preconditions.checkNotNull(config, "config must be non-null.");
 	}
 
 	@Override
@@ -51,10 +54,25 @@ class IfPlayerModule extends AbstractModule {
 		bind(File.class).annotatedWith(StoryDir.class).toInstance(storyDir);
 		bind(File.class).annotatedWith(SaveDir.class).toInstance(saveDir);
 		bind(Integer.class).annotatedWith(MaxSaveSlots.class).toInstance(MAX_SAVE_SLOTS);
+		bind(Config.class).toInstance(config);
 
 		bind(SessionManager.class).to(SessionManagerImpl.class).in(Scopes.SINGLETON);
 		bind(SessionOrchestrator.class).to(SessionOrchestratorImpl.class).in(Scopes.SINGLETON);
-		bind(SaveManager.class).to(SaveManagerImpl.class).in(Scopes.SINGLETON);
+		if (config.getSaveStore() == SaveStoreType.LOG) {
+			bind(SaveManager.class).to(LogSaveManager.class).in(Scopes.SINGLETON);
+		} else {
+			bind(SaveManagerImpl.class).in(Scopes.SINGLETON);
+			bind(SaveManager.class).to(SaveManagerImpl.class);
+			bind(SaveLayoutMigrator.class).asEagerSingleton();
+			bind(SaveChunkSweeper.class).asEagerSingleton();
+		}
+		bind(StoryCache.class).in(Scopes.SINGLETON);
+		bind(StoryCatalog.class).in(Scopes.SINGLETON);
+		bind(SessionExecutor.class).in(Scopes.SINGLETON);
+		bind(OutboundMessageQueue.class).in(Scopes.SINGLETON);
+		bind(ChannelTopicUpdater.class).in(Scopes.SINGLETON);
+		bind(AutosaveWriter.class).in(Scopes.SINGLETON);
+		bind(StoryLibrary.class).asEagerSingleton();
 	}
 
 	@Provides
@@ -62,8 +80,11 @@ class IfPlayerModule extends AbstractModule {
 	Set<Activity> activities(IfPlayerListStoriesActivity listStoriesActivity,
 			IfPlayerPlayStoryActivity playStoryActivity, IfPlayerStopStoryActivity stopStoryActivity,
 			IfPlayerControlsActivity controlsActivity, IfPlayerListSaveSlotsActivity listSaveSlotsActivity,
-			IfPlayerSetSaveSlotActivity setSaveSlotActivity, IfPlayerDeleteSaveSlotActivity deleteSaveSlotActivity) {
+			IfPlayerSetSaveSlotActivity setSaveSlotActivity, IfPlayerDeleteSaveSlotActivity deleteSaveSlotActivity,
+			IfPlayerListSaveVersionsActivity listSaveVersionsActivity,
+			IfPlayerRevertSaveSlotActivity revertSaveSlotActivity) {
 		return ImmutableSet.of(listStoriesActivity, playStoryActivity, stopStoryActivity, controlsActivity,
-				listSaveSlotsActivity, setSaveSlotActivity, deleteSaveSlotActivity);
+				listSaveSlotsActivity, setSaveSlotActivity, deleteSaveSlotActivity, listSaveVersionsActivity,
+				revertSaveSlotActivity);
 	}
 }
@@ -42,10 +42,13 @@ public class IfPlayerPlugin extends TonbotPlugin {
 					tonbotPluginArgs.getPrefix(), 
 					tonbotPluginArgs.getColor(),
 					storyDir, 
-					savesDir));
+					savesDir,
+					config));
 		} catch (IOException e) {
 			throw new RuntimeException("Could not read configuration file.", e);
 		}
+
+		injector.getInstance(StoryLibrary.class).start();
 	}
 
 	@Override
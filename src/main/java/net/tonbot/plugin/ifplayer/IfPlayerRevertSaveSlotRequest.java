@@ -0,0 +1,23 @@
+package net.tonbot.plugin.ifplayer;
+
+import javax.annotation.Nonnull;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import net.tonbot.common.Param;
+
+@EqualsAndHashCode
+@ToString()
+class IfPlayerRevertSaveSlotRequest {
+
+	@Getter
+	@Param(name = "slot number", ordinal = 0, description = "The slot number to revert.")
+	@Nonnull
+	private int slotNumber;
+
+	@Getter
+	@Param(name = "version number", ordinal = 1, description = "The version to go back to.")
+	@Nonnull
+	private int versionNumber;
+}
@@ -0,0 +1,650 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.UrlEscapers;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+import lombok.Data;
+import net.tonbot.plugin.ifplayer.SaveLog.Location;
+import net.tonbot.plugin.ifplayer.SaveLog.Position;
+import net.tonbot.plugin.ifplayer.SaveLog.Record;
+import net.tonbot.plugin.ifplayer.SaveLog.RecordType;
+
+/**
+ * Stores save slots as records in a {@link SaveLog} under the save directory,
+ * instead of as one file per slot. An index of every slot is kept in memory and
+ * rebuilt on startup, from the log's last checkpoint and the records after it.
+ * <p>
+ * Segments that are mostly made up of superseded records are compacted in the
+ * background: their live records are copied to the end of the log and the
+ * segment is deleted. A checkpoint is written after each round of compaction.
+ * <p>
+ * Only the newest save of each slot is kept. Save history is only supported by
+ * {@link SaveManagerImpl}.
+ */
+class LogSaveManager implements SaveManager {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LogSaveManager.class);
+
+	private static final String LOG_DIR_NAME = "log";
+	private static final int GROUP_LOCK_STRIPES = 64;
+	private static final long COMPACTION_INTERVAL_SECONDS = 60;
+
+	/**
+	 * Segments whose live records make up no more than this share of their size
+	 * are compacted.
+	 */
+	private static final double COMPACTION_MAX_LIVE_RATIO = 0.5;
+
+	private final int maxSlots;
+	private final SaveLog log;
+	private final ObjectMapper objectMapper;
+
+	/**
+	 * The slots of each story in each channel. Slots that have been deleted are
+	 * kept until their delete record is compacted away.
+	 */
+	private final Map<GroupKey, ConcurrentSkipListMap<Integer, SlotState>> groups;
+
+	/**
+	 * Guards the slots of each story in each channel while they are changed or
+	 * read from the log.
+	 */
+	private final Striped<Lock> groupLocks;
+
+	/**
+	 * Changes to the log hold the read lock from appending a record until it has
+	 * been applied. A checkpoint holds the write lock, so that it sees every
+	 * record up to the log's position applied.
+	 */
+	private final ReadWriteLock checkpointLock;
+
+	/**
+	 * The position of the last checkpoint. Null if none was written since
+	 * startup.
+	 */
+	private Position checkpointPosition;
+
+	private final long recordsReplayed;
+
+	@Inject
+	public LogSaveManager(@SaveDir File saveDir, @MaxSaveSlots int maxSlots, Config config) {
+		this(saveDir, maxSlots, config.getSaveLogSegmentBytes());
+
+		ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("ifplayer-save-compactor-%d").setDaemon(true).build());
+		compactor.scheduleWithFixedDelay(() -> {
+			try {
+				compact();
+				checkpoint();
+			} catch (RuntimeException e) {
+				LOG.error("Save log compaction failed.", e);
+			}
+		}, COMPACTION_INTERVAL_SECONDS, COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Constructor. Replays the log, but neither compacts it nor writes checkpoints
+	 * in the background.
+	 *
+	 * @param saveDir
+	 *            The save directory. Non-null.
+	 * @param maxSlots
+	 *            The maximum number of slots. Must be positive.
+	 * @param segmentBytes
+	 *            The size after which a new log segment is started. Must be
+	 *            positive.
+	 */
+	LogSaveManager(File saveDir, int maxSlots, long segmentBytes) {
+		Preconditions.checkNotNull(saveDir, "saveDir must be non-null.");
+
+		Preconditions.checkArgument(maxSlots > 0, "maxSlots must be a positive number.");
+		this.maxSlots = maxSlots;
+
+		this.objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+		this.objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+		this.groups = new ConcurrentHashMap<>();
+		this.groupLocks = Striped.lock(GROUP_LOCK_STRIPES);
+		this.checkpointLock = new ReentrantReadWriteLock();
+
+		this.log = new SaveLog(new File(saveDir, LOG_DIR_NAME), segmentBytes);
+
+		long start = System.nanoTime();
+		this.recordsReplayed = log.recover((record, location) -> apply(
+				new GroupKey(record.getChannelId(), record.getStoryName()), record.getSlot(), record.getType(),
+				location, parseMetadata(record)));
+		LOG.info("Replayed {} save log records in {} ms. The log takes up {} bytes, of which {} are live.",
+				recordsReplayed, (System.nanoTime() - start) / 1_000_000, log.getDiskBytes(), log.getLiveBytes());
+	}
+
+	@Override
+	public int getMaxSlots() {
+		return maxSlots;
+	}
+
+	@Override
+	public List<SaveFile> getSaveFiles(long channelId, Story story) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+
+		GroupKey groupKey = new GroupKey(channelId, story.getName());
+		Map<Integer, SlotState> slots = groups.get(groupKey);
+		if (slots == null) {
+			return ImmutableList.of();
+		}
+
+		ImmutableList.Builder<SaveFile> saveFilesListBuilder = ImmutableList.builder();
+		for (Map.Entry<Integer, SlotState> slot : slots.entrySet()) {
+			if (slot.getKey() < maxSlots && slot.getValue().isLive()) {
+				saveFilesListBuilder.add(toSaveFile(groupKey, slot.getKey(), slot.getValue().getMetadata()));
+			}
+		}
+
+		return saveFilesListBuilder.build();
+	}
+
+	@Override
+	public SaveFile getSaveFile(long channelId, Story story, int slot) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+		Preconditions.checkArgument(slot >= 0, "slot must be non-negative.");
+		Preconditions.checkArgument(slot < maxSlots, "slot must be less than the max slots.");
+
+		GroupKey groupKey = new GroupKey(channelId, story.getName());
+		SlotState state = withGroupLock(groupKey, () -> ensureCreated(groupKey, slot));
+
+		return toSaveFile(groupKey, slot, state.getMetadata());
+	}
+
+	@Override
+	public SaveFile getAutosaveFile(long channelId, Story story) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+
+		// The autosave takes the slot just past the last one, which is never listed.
+		return toSaveFile(new GroupKey(channelId, story.getName()), maxSlots, null);
+	}
+
+	@Override
+	public SaveFile saveNewMetadata(long channelId, SaveFile saveFile, SaveFileMetadata newSaveFileMetadata) {
+		Preconditions.checkNotNull(saveFile, "saveFile must be non-null.");
+		Preconditions.checkNotNull(newSaveFileMetadata, "newSaveFileMetadata must be non-null.");
+
+		byte[] payload;
+		try {
+			payload = objectMapper.writeValueAsBytes(newSaveFileMetadata);
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		GroupKey groupKey = new GroupKey(channelId, saveFile.getStoryName());
+		withGroupLock(groupKey, () -> {
+			ensureCreated(groupKey, saveFile.getSlot());
+			Location location = log.append(RecordType.METADATA, channelId, saveFile.getStoryName(),
+					saveFile.getSlot(), payload);
+			return apply(groupKey, saveFile.getSlot(), RecordType.METADATA, location, newSaveFileMetadata);
+		});
+
+		return toSaveFile(groupKey, saveFile.getSlot(), newSaveFileMetadata);
+	}
+
+	@Override
+	public void deleteSaveFile(long channelId, Story story, int slot) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+		Preconditions.checkArgument(slot >= 0, "slot must be non-negative.");
+		Preconditions.checkArgument(slot < maxSlots, "slot must be less that the maximum number of slots.");
+
+		GroupKey groupKey = new GroupKey(channelId, story.getName());
+		withGroupLock(groupKey, () -> {
+			SlotState state = getSlotState(groupKey, slot);
+			if (state == null || !state.isLive()) {
+				return null;
+			}
+
+			Location location = log.append(RecordType.DELETE, channelId, story.getName(), slot, new byte[0]);
+			return apply(groupKey, slot, RecordType.DELETE, location, null);
+		});
+	}
+
+	/**
+	 * The log only keeps the newest save of each slot, so no history is listed.
+	 */
+	@Override
+	public List<SaveVersion> getSaveVersions(long channelId, Story story, int slot) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+		return ImmutableList.of();
+	}
+
+	@Override
+	public SaveFile revertSaveFile(long channelId, Story story, int slot, int versionNumber) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+		throw new IllegalArgumentException("Slot " + slot + " has no version " + versionNumber + ".");
+	}
+
+	/**
+	 * Compacts every segment whose live records make up no more than half of it,
+	 * oldest first.
+	 *
+	 * @return The number of segments that were compacted.
+	 */
+	synchronized int compact() {
+		List<Long> candidates = log.getCompactionCandidates(COMPACTION_MAX_LIVE_RATIO);
+		if (candidates.isEmpty()) {
+			return 0;
+		}
+
+		long diskBytesBefore = log.getDiskBytes();
+		for (long segmentId : candidates) {
+			// A delete record only has to be kept while older records of its slot may
+			// still exist, and those can only be in this segment or older ones.
+			boolean oldest = log.isOldest(segmentId);
+
+			for (Record record : log.readSegment(segmentId)) {
+				GroupKey groupKey = new GroupKey(record.getChannelId(), record.getStoryName());
+				withGroupLock(groupKey, () -> {
+					relocate(groupKey, record, oldest);
+					return null;
+				});
+			}
+
+			log.deleteSegment(segmentId);
+		}
+
+		LOG.info("Compacted {} save log segments. The log went from {} to {} bytes.", candidates.size(),
+				diskBytesBefore, log.getDiskBytes());
+		return candidates.size();
+	}
+
+	/**
+	 * Copies a record out of a segment that is being compacted, if it is still
+	 * live.
+	 */
+	private void relocate(GroupKey groupKey, Record record, boolean dropDeletes) {
+		Location location = record.getLocation();
+		Map<Integer, SlotState> slots = groups.get(groupKey);
+		SlotState state = slots != null ? slots.get(record.getSlot()) : null;
+		if (state == null) {
+			return;
+		}
+
+		if (location.equals(state.getReset())) {
+			if (state.isDeleted() && dropDeletes) {
+				slots.remove(record.getSlot());
+			} else {
+				slots.put(record.getSlot(), state.withReset(log.copy(location)));
+			}
+		} else if (location.equals(state.getBlob())) {
+			slots.put(record.getSlot(), state.withBlob(log.copy(location)));
+		} else if (location.equals(state.getMetadataLocation())) {
+			slots.put(record.getSlot(), state.withMetadataLocation(log.copy(location)));
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of every slot, so that the next startup only has to
+	 * replay the records after it. Does nothing if nothing has been written since
+	 * the last checkpoint.
+	 *
+	 * @throws UncheckedIOException
+	 *             If the checkpoint could not be written.
+	 */
+	synchronized void checkpoint() {
+		Position position;
+		Map<GroupKey, Map<Integer, SlotState>> snapshot = new HashMap<>();
+
+		checkpointLock.writeLock().lock();
+		try {
+			position = log.getPosition();
+			if (position.equals(checkpointPosition)) {
+				return;
+			}
+
+			// Slot states are immutable, so copying the maps is enough.
+			groups.forEach((groupKey, slots) -> snapshot.put(groupKey, new TreeMap<>(slots)));
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+
+		List<Record> records = new ArrayList<>();
+		snapshot.forEach((groupKey, slots) -> slots
+				.forEach((slot, state) -> records.addAll(toRecords(groupKey, slot, state))));
+
+		log.writeCheckpoint(position, records);
+		this.checkpointPosition = position;
+	}
+
+	/**
+	 * Lists the live records that make up a slot's state.
+	 */
+	private List<Record> toRecords(GroupKey groupKey, int slot, SlotState state) {
+		List<Record> records = new ArrayList<>();
+		if (state.getReset() != null) {
+			records.add(new Record(state.isDeleted() ? RecordType.DELETE : RecordType.CREATE, groupKey.getChannelId(),
+					groupKey.getStoryName(), slot, new byte[0], state.getReset()));
+		}
+
+		if (state.getBlob() != null) {
+			records.add(new Record(RecordType.BLOB, groupKey.getChannelId(), groupKey.getStoryName(), slot, null,
+					state.getBlob()));
+		}
+
+		if (state.getMetadataLocation() != null) {
+			byte[] payload = new byte[0];
+			if (state.getMetadata() != null) {
+				try {
+					payload = objectMapper.writeValueAsBytes(state.getMetadata());
+				} catch (JsonProcessingException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			records.add(new Record(RecordType.METADATA, groupKey.getChannelId(), groupKey.getStoryName(), slot,
+					payload, state.getMetadataLocation()));
+		}
+
+		return records;
+	}
+
+	/**
+	 * Gets the number of records that were replayed from the log's segments on
+	 * startup, rather than from its checkpoint.
+	 *
+	 * @return The number of records.
+	 */
+	long getRecordsReplayed() {
+		return recordsReplayed;
+	}
+
+	/**
+	 * Closes the log. Only used by tests, since the log is otherwise open for as
+	 * long as the bot runs.
+	 */
+	void close() throws IOException {
+		log.close();
+	}
+
+	/**
+	 * Creates a slot if it doesn't exist. Must be called with the group lock held.
+	 */
+	private SlotState ensureCreated(GroupKey groupKey, int slot) {
+		SlotState state = getSlotState(groupKey, slot);
+		if (state != null && state.isLive()) {
+			return state;
+		}
+
+		Location location = log.append(RecordType.CREATE, groupKey.getChannelId(), groupKey.getStoryName(), slot,
+				new byte[0]);
+		return apply(groupKey, slot, RecordType.CREATE, location, null);
+	}
+
+	private SlotState getSlotState(GroupKey groupKey, int slot) {
+		Map<Integer, SlotState> slots = groups.get(groupKey);
+		return slots != null ? slots.get(slot) : null;
+	}
+
+	/**
+	 * Applies a record to a slot's state, and releases the records it supersedes.
+	 * Records may be applied in any order. Must be called with the group lock
+	 * held, or while the log is being replayed.
+	 *
+	 * @return The slot's new state.
+	 */
+	private SlotState apply(GroupKey groupKey, int slot, RecordType type, Location location,
+			SaveFileMetadata metadata) {
+		Map<Integer, SlotState> slots = groups.computeIfAbsent(groupKey, key -> new ConcurrentSkipListMap<>());
+
+		List<Location> superseded = new ArrayList<>();
+		SlotState updated = slots.getOrDefault(slot, SlotState.EMPTY).apply(type, location, metadata, superseded);
+		slots.put(slot, updated);
+
+		superseded.forEach(log::release);
+		return updated;
+	}
+
+	private SaveFileMetadata parseMetadata(Record record) {
+		if (record.getType() != RecordType.METADATA) {
+			return null;
+		}
+
+		try {
+			return objectMapper.readValue(record.getPayload(), SaveFileMetadata.class);
+		} catch (IOException e) {
+			LOG.warn("The metadata of slot {} of story {} in channel {} could not be read.", record.getSlot(),
+					record.getStoryName(), record.getChannelId(), e);
+			return null;
+		}
+	}
+
+	private <T> T withGroupLock(GroupKey groupKey, Supplier<T> action) {
+		Lock lock = groupLocks.get(groupKey);
+		checkpointLock.readLock().lock();
+		lock.lock();
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+			checkpointLock.readLock().unlock();
+		}
+	}
+
+	private SaveFile toSaveFile(GroupKey groupKey, int slot, SaveFileMetadata metadata) {
+		return SaveFile.builder().storage(new LogSlotStorage(groupKey, slot)).slot(slot)
+				.storyName(groupKey.getStoryName()).metadata(metadata).build();
+	}
+
+	/**
+	 * A slot's contents, read from and written to the log. A save is appended to
+	 * the log in one record when its stream is closed.
+	 */
+	private class LogSlotStorage implements SaveSlotStorage {
+
+		private final GroupKey groupKey;
+		private final int slot;
+
+		LogSlotStorage(GroupKey groupKey, int slot) {
+			this.groupKey = groupKey;
+			this.slot = slot;
+		}
+
+		@Override
+		public SaveOutputStream openOutputStream() {
+			return new SaveOutputStream() {
+
+				private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				private boolean closed;
+
+				@Override
+				public void write(int b) {
+					buffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					buffer.write(b, off, len);
+				}
+
+				@Override
+				public void close() {
+					if (closed) {
+						return;
+					}
+					closed = true;
+
+					byte[] payload = buffer.toByteArray();
+					withGroupLock(groupKey, () -> {
+						ensureCreated(groupKey, slot);
+						Location location = log.append(RecordType.BLOB, groupKey.getChannelId(),
+								groupKey.getStoryName(), slot, payload);
+						return apply(groupKey, slot, RecordType.BLOB, location, null);
+					});
+				}
+
+				@Override
+				public void abort() {
+					closed = true;
+				}
+			};
+		}
+
+		@Override
+		public InputStream openInputStream() {
+			byte[] payload = withGroupLock(groupKey, () -> {
+				SlotState state = getSlotState(groupKey, slot);
+				if (state == null || state.getBlob() == null) {
+					// Nothing has been saved to the slot yet.
+					return new byte[0];
+				}
+
+				// Compaction holds the group lock while it moves a record, so the
+				// record's segment can't be deleted before it is read.
+				byte[] blob = log.readPayload(state.getBlob());
+				Preconditions.checkState(blob != null, "The save of slot %s was compacted away while it was read.",
+						slot);
+				return blob;
+			});
+
+			return new ByteArrayInputStream(payload);
+		}
+
+		@Override
+		public URI getURI() {
+			return URI.create("savelog:/" + groupKey.getChannelId() + "/"
+					+ UrlEscapers.urlPathSegmentEscaper().escape(groupKey.getStoryName()) + "/" + slot);
+		}
+	}
+
+	/**
+	 * What the log holds for a slot. Each part is the newest record of its kind,
+	 * by sequence number.
+	 */
+	@Data
+	private static class SlotState {
+
+		static final SlotState EMPTY = new SlotState(null, false, null, null, null);
+
+		/**
+		 * The newest {@link RecordType#CREATE} or {@link RecordType#DELETE} record.
+		 * Records older than it no longer apply to the slot.
+		 */
+		private final Location reset;
+		private final boolean deleted;
+		private final Location blob;
+		private final Location metadataLocation;
+		private final SaveFileMetadata metadata;
+
+		boolean isLive() {
+			return reset != null && !deleted;
+		}
+
+		SlotState withReset(Location reset) {
+			return new SlotState(reset, deleted, blob, metadataLocation, metadata);
+		}
+
+		SlotState withBlob(Location blob) {
+			return new SlotState(reset, deleted, blob, metadataLocation, metadata);
+		}
+
+		SlotState withMetadataLocation(Location metadataLocation) {
+			return new SlotState(reset, deleted, blob, metadataLocation, metadata);
+		}
+
+		/**
+		 * Applies a record.
+		 *
+		 * @param superseded
+		 *            Receives the records that no longer apply, which may include
+		 *            the one being applied.
+		 * @return The new state.
+		 */
+		SlotState apply(RecordType type, Location location, SaveFileMetadata newMetadata,
+				List<Location> superseded) {
+			long sequence = location.getSequence();
+			if (reset != null && reset.getSequence() > sequence) {
+				superseded.add(location);
+				return this;
+			}
+
+			switch (type) {
+			case CREATE:
+			case DELETE:
+				if (reset != null) {
+					superseded.add(reset);
+				}
+
+				Location keptBlob = blob;
+				if (blob != null && blob.getSequence() < sequence) {
+					superseded.add(blob);
+					keptBlob = null;
+				}
+
+				Location keptMetadataLocation = metadataLocation;
+				SaveFileMetadata keptMetadata = metadata;
+				if (metadataLocation != null && metadataLocation.getSequence() < sequence) {
+					superseded.add(metadataLocation);
+					keptMetadataLocation = null;
+					keptMetadata = null;
+				}
+
+				return new SlotState(location, type == RecordType.DELETE, keptBlob, keptMetadataLocation,
+						keptMetadata);
+			case BLOB:
+				if (blob != null && blob.getSequence() > sequence) {
+					superseded.add(location);
+					return this;
+				}
+				if (blob != null) {
+					superseded.add(blob);
+				}
+				return withBlob(location);
+			case METADATA:
+				if (metadataLocation != null && metadataLocation.getSequence() > sequence) {
+					superseded.add(location);
+					return this;
+				}
+				if (metadataLocation != null) {
+					superseded.add(metadataLocation);
+				}
+				return new SlotState(reset, deleted, blob, location, newMetadata);
+			default:
+				throw new IllegalArgumentException("Unknown record type " + type);
+			}
+		}
+	}
+
+	@Data
+	private static class GroupKey {
+
+		private final long channelId;
+		private final String storyName;
+	}
+}
@@ -0,0 +1,176 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Splits text into chunks that fit in a Discord message. Splits are made on
+ * line boundaries where possible. If a split falls inside a code block, the
+ * block is closed at the end of one chunk and reopened at the start of the
+ * next, so every chunk renders on its own.
+ */
+class MessageSplitter {
+
+	/**
+	 * Discord's maximum number of characters per message.
+	 */
+	static final int MAX_MESSAGE_LENGTH = 2000;
+
+	private static final String FENCE = "```";
+
+	/**
+	 * Reopening a block with a newline right after the fence stops Discord from
+	 * treating the first line as a language name.
+	 */
+	private static final String REOPEN_FENCE = FENCE + "\n";
+
+	private final int maxLength;
+
+	private final List<String> chunks;
+	private final StringBuilder chunk;
+	private boolean chunkHasContent;
+	private boolean inFence;
+
+	private MessageSplitter(int maxLength) {
+		this.maxLength = maxLength;
+		this.chunks = new ArrayList<>();
+		this.chunk = new StringBuilder(maxLength);
+	}
+
+	/**
+	 * Splits a message into chunks of at most {@link #MAX_MESSAGE_LENGTH}
+	 * characters.
+	 *
+	 * @param message
+	 *            The message. Non-null.
+	 * @return The chunks, in order. Empty if the message is empty.
+	 */
+	public static List<String> split(String message) {
+		return split(message, MAX_MESSAGE_LENGTH);
+	}
+
+	/**
+	 * Splits a message into chunks.
+	 *
+	 * @param message
+	 *            The message. Non-null.
+	 * @param maxLength
+	 *            The maximum length of a chunk. Must leave room for a closing and
+	 *            reopening fence.
+	 * @return The chunks, in order. Empty if the message is empty.
+	 */
+	public static List<String> split(String message, int maxLength) {
+		Preconditions.checkNotNull(message, "message must be non-null.");
+		Preconditions.checkArgument(maxLength > 2 * FENCE.length() + REOPEN_FENCE.length(), "maxLength is too small.");
+
+		if (message.isEmpty()) {
+			return ImmutableList.of();
+		} else if (message.length() <= maxLength) {
+			return ImmutableList.of(message);
+		}
+
+		MessageSplitter splitter = new MessageSplitter(maxLength);
+		int lineStart = 0;
+		while (true) {
+			int lineEnd = message.indexOf('\n', lineStart);
+			if (lineEnd < 0) {
+				splitter.appendLine(message.substring(lineStart));
+				break;
+			}
+
+			splitter.appendLine(message.substring(lineStart, lineEnd));
+			lineStart = lineEnd + 1;
+		}
+		splitter.flush();
+
+		return ImmutableList.copyOf(splitter.chunks);
+	}
+
+	private void appendLine(String line) {
+		boolean needsSeparator = chunkHasContent;
+		if (!fits(line, needsSeparator) && chunkHasContent) {
+			flush();
+			needsSeparator = false;
+		}
+
+		// If the line still doesn't fit, it has to be broken up.
+		while (!fits(line, needsSeparator)) {
+			int cut = maxLength - chunk.length() - FENCE.length();
+
+			// Don't cut a fence in half. Fences are found the same way as when counting
+			// them, so that runs of more than three backticks are handled consistently.
+			int fence = line.indexOf(FENCE);
+			while (fence >= 0 && fence < cut) {
+				if (fence + FENCE.length() > cut) {
+					cut = fence;
+					break;
+				}
+				fence = line.indexOf(FENCE, fence + FENCE.length());
+			}
+
+			append(line.substring(0, cut), needsSeparator);
+			flush();
+
+			line = line.substring(cut);
+			needsSeparator = false;
+		}
+
+		append(line, needsSeparator);
+	}
+
+	/**
+	 * Whether the text fits in the current chunk, along with the fence needed to
+	 * close it.
+	 */
+	private boolean fits(String text, boolean withSeparator) {
+		int length = chunk.length() + (withSeparator ? 1 : 0) + text.length();
+		if (isFenceOpenAfter(text)) {
+			length += FENCE.length();
+		}
+		return length <= maxLength;
+	}
+
+	private void append(String text, boolean withSeparator) {
+		if (withSeparator) {
+			chunk.append('\n');
+		}
+		chunk.append(text);
+
+		chunkHasContent = true;
+		inFence = isFenceOpenAfter(text);
+	}
+
+	/**
+	 * Gets whether the fence is open after the given text, assuming it is
+	 * appended to the current chunk.
+	 */
+	private boolean isFenceOpenAfter(String text) {
+		boolean open = inFence;
+		int index = text.indexOf(FENCE);
+		while (index >= 0) {
+			open = !open;
+			index = text.indexOf(FENCE, index + FENCE.length());
+		}
+		return open;
+	}
+
+	private void flush() {
+		if (!chunkHasContent) {
+			return;
+		}
+
+		if (inFence) {
+			chunk.append(FENCE);
+		}
+		chunks.add(chunk.toString());
+
+		chunk.setLength(0);
+		chunkHasContent = false;
+		if (inFence) {
+			chunk.append(REOPEN_FENCE);
+		}
+	}
+}
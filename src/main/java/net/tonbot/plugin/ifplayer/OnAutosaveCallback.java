@@ -0,0 +1,15 @@
+package net.tonbot.plugin.ifplayer;
+
+interface OnAutosaveCallback {
+
+	/**
+	 * Called on the turn's thread whenever a {@link GameMachine} has taken a
+	 * snapshot. Must return quickly.
+	 * 
+	 * @param channelId
+	 *            Channel ID.
+	 * @param snapshot
+	 *            The snapshot. Non-null.
+	 */
+	void onAutosave(long channelId, AutosaveSnapshot snapshot);
+}
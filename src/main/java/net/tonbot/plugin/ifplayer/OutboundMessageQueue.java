@@ -0,0 +1,349 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+import lombok.Data;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IMessage;
+import sx.blah.discord.util.DiscordException;
+import sx.blah.discord.util.MissingPermissionsException;
+import sx.blah.discord.util.RateLimitException;
+import sx.blah.discord.util.RequestBuffer;
+
+/**
+ * Sends messages to channels. Each channel has its own queue, which is sent
+ * one message at a time and strictly in order. Sends go through
+ * {@link RequestBuffer}, so a rate limited channel waits out its own bucket
+ * without holding up other channels.
+ * <p>
+ * When a channel falls behind, the messages queued for it are merged into as
+ * few Discord messages as fit, rather than being sent one by one.
+ * <p>
+ * Edits of a {@link StatusMessage} are queued alongside, so they land in order
+ * with the channel's other messages.
+ */
+class OutboundMessageQueue {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OutboundMessageQueue.class);
+
+	private final Executor senders;
+	private final ConcurrentHashMap<Long, ChannelQueue> channelQueues;
+
+	private final AtomicInteger queueDepth;
+	private final AtomicLong messagesSent;
+	private final AtomicLong messagesCoalesced;
+	private final AtomicLong messagesFailed;
+	private final AtomicLong totalSendLatencyNanos;
+	private final AtomicLong maxSendLatencyNanos;
+
+	@Inject
+	public OutboundMessageQueue() {
+		// A sender blocks while its channel is rate limited, so channels don't share
+		// a fixed number of threads.
+		this(Executors.newCachedThreadPool(
+				new ThreadFactoryBuilder().setNameFormat("ifplayer-outbound-%d").setDaemon(true).build()));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param senders
+	 *            Runs the channels' senders. Non-null.
+	 */
+	OutboundMessageQueue(Executor senders) {
+		this.senders = Preconditions.checkNotNull(senders, "senders must be non-null.");
+		this.channelQueues = new ConcurrentHashMap<>();
+
+		this.queueDepth = new AtomicInteger(0);
+		this.messagesSent = new AtomicLong(0);
+		this.messagesCoalesced = new AtomicLong(0);
+		this.messagesFailed = new AtomicLong(0);
+		this.totalSendLatencyNanos = new AtomicLong(0);
+		this.maxSendLatencyNanos = new AtomicLong(0);
+	}
+
+	/**
+	 * Queues a message. Messages longer than a Discord message are split.
+	 *
+	 * @param channel
+	 *            The {@link IChannel} to send to. Non-null.
+	 * @param message
+	 *            The message. Non-null.
+	 */
+	public void send(IChannel channel, String message) {
+		Preconditions.checkNotNull(channel, "channel must be non-null.");
+		Preconditions.checkNotNull(message, "message must be non-null.");
+
+		ChannelQueue channelQueue = channelQueue(channel);
+		for (String chunk : MessageSplitter.split(message)) {
+			channelQueue.offer(new QueuedMessage(chunk, null, System.nanoTime()));
+		}
+	}
+
+	/**
+	 * Queues an update of a status message. The message is sent and pinned on its
+	 * first update, and edited after that. Text that does not fit in one Discord
+	 * message is cut short.
+	 *
+	 * @param channel
+	 *            The {@link IChannel} the status message is in. Non-null.
+	 * @param statusMessage
+	 *            {@link StatusMessage}. Non-null.
+	 * @param text
+	 *            The new text. Non-empty.
+	 */
+	public void updateStatus(IChannel channel, StatusMessage statusMessage, String text) {
+		Preconditions.checkNotNull(channel, "channel must be non-null.");
+		Preconditions.checkNotNull(statusMessage, "statusMessage must be non-null.");
+		Preconditions.checkArgument(!StringUtils.isEmpty(text), "text must be non-empty.");
+
+		statusMessage.setPendingText(MessageSplitter.split(text).get(0));
+		channelQueue(channel).offer(new QueuedMessage(null, statusMessage, System.nanoTime()));
+	}
+
+	/**
+	 * Queues the release of a status message. It is unpinned once everything
+	 * queued before it has been sent.
+	 *
+	 * @param channel
+	 *            The {@link IChannel} the status message is in. Non-null.
+	 * @param statusMessage
+	 *            {@link StatusMessage}. Non-null.
+	 */
+	public void releaseStatus(IChannel channel, StatusMessage statusMessage) {
+		Preconditions.checkNotNull(channel, "channel must be non-null.");
+		Preconditions.checkNotNull(statusMessage, "statusMessage must be non-null.");
+
+		statusMessage.release();
+		channelQueue(channel).offer(new QueuedMessage(null, statusMessage, System.nanoTime()));
+	}
+
+	/**
+	 * Gets the number of messages waiting to be sent to a channel.
+	 *
+	 * @param channelId
+	 *            The channel ID.
+	 * @return The queue depth.
+	 */
+	public int getQueueDepth(long channelId) {
+		ChannelQueue channelQueue = channelQueues.get(channelId);
+		return channelQueue != null ? channelQueue.depth.get() : 0;
+	}
+
+	/**
+	 * Gets a snapshot of the queue's metrics.
+	 *
+	 * @return {@link OutboundStats}
+	 */
+	public OutboundStats getStats() {
+		long sent = messagesSent.get();
+		return OutboundStats.builder()
+				.queueDepth(queueDepth.get())
+				.messagesSent(sent)
+				.messagesCoalesced(messagesCoalesced.get())
+				.messagesFailed(messagesFailed.get())
+				.meanSendLatencyMillis(
+						sent > 0 ? TimeUnit.NANOSECONDS.toMillis(totalSendLatencyNanos.get() / sent) : 0)
+				.maxSendLatencyMillis(TimeUnit.NANOSECONDS.toMillis(maxSendLatencyNanos.get()))
+				.build();
+	}
+
+	private ChannelQueue channelQueue(IChannel channel) {
+		return channelQueues.computeIfAbsent(channel.getLongID(), id -> new ChannelQueue(channel));
+	}
+
+	private void recordSent(int messageCount, long enqueuedAt) {
+		long latency = System.nanoTime() - enqueuedAt;
+
+		messagesSent.incrementAndGet();
+		messagesCoalesced.addAndGet(messageCount - 1);
+		totalSendLatencyNanos.addAndGet(latency);
+		maxSendLatencyNanos.accumulateAndGet(latency, Math::max);
+	}
+
+	private void recordFailed() {
+		messagesFailed.incrementAndGet();
+	}
+
+	private class ChannelQueue {
+
+		private final IChannel channel;
+		private final Queue<QueuedMessage> queue;
+		private final AtomicInteger depth;
+		private final AtomicBoolean scheduled;
+
+		private final StringBuilder batch;
+
+		ChannelQueue(IChannel channel) {
+			this.channel = channel;
+			this.queue = new ConcurrentLinkedQueue<>();
+			this.depth = new AtomicInteger(0);
+			this.scheduled = new AtomicBoolean(false);
+			this.batch = new StringBuilder(MessageSplitter.MAX_MESSAGE_LENGTH);
+		}
+
+		void offer(QueuedMessage message) {
+			queue.add(message);
+			depth.incrementAndGet();
+			queueDepth.incrementAndGet();
+			scheduleIfIdle();
+		}
+
+		private void scheduleIfIdle() {
+			if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+				senders.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			try {
+				QueuedMessage first;
+				while ((first = queue.poll()) != null) {
+					if (first.getStatusMessage() != null) {
+						depth.decrementAndGet();
+						queueDepth.decrementAndGet();
+
+						applyStatus(first);
+						continue;
+					}
+
+					// Merge whatever else is already waiting, so that a channel that fell behind
+					// catches up in as few messages as possible.
+					batch.setLength(0);
+					batch.append(first.getText());
+					int count = 1;
+
+					QueuedMessage next;
+					while ((next = queue.peek()) != null && next.getStatusMessage() == null
+							&& batch.length() + 1 + next.getText().length() <= MessageSplitter.MAX_MESSAGE_LENGTH) {
+						queue.poll();
+						batch.append('\n').append(next.getText());
+						count++;
+					}
+
+					depth.addAndGet(-count);
+					queueDepth.addAndGet(-count);
+
+					if (sendNow(batch.toString())) {
+						recordSent(count, first.getEnqueuedAt());
+					} else {
+						recordFailed();
+					}
+				}
+			} finally {
+				scheduled.set(false);
+				scheduleIfIdle();
+			}
+		}
+
+		private boolean sendNow(String text) {
+			return request(() -> channel.sendMessage(text), "send a message");
+		}
+
+		/**
+		 * Applies the latest update of a status message.
+		 */
+		private void applyStatus(QueuedMessage queuedMessage) {
+			StatusMessage statusMessage = queuedMessage.getStatusMessage();
+			IMessage message = statusMessage.getMessage();
+			boolean succeeded;
+
+			if (statusMessage.isReleased()) {
+				if (message == null) {
+					return;
+				}
+
+				statusMessage.setMessage(null);
+				succeeded = request(() -> channel.unpin(message), "unpin the status message");
+			} else {
+				// Null if a later update in the queue has already been applied.
+				String text = statusMessage.takePendingText();
+				if (text == null) {
+					return;
+				}
+
+				if (message != null) {
+					succeeded = request(() -> message.edit(text), "edit the status message");
+				} else {
+					AtomicReference<IMessage> sentMessage = new AtomicReference<>();
+					succeeded = request(() -> sentMessage.set(channel.sendMessage(text)), "send the status message");
+					if (succeeded) {
+						statusMessage.setMessage(sentMessage.get());
+						request(() -> channel.pin(sentMessage.get()), "pin the status message");
+					}
+				}
+			}
+
+			if (succeeded) {
+				recordSent(1, queuedMessage.getEnqueuedAt());
+			} else {
+				recordFailed();
+			}
+		}
+
+		/**
+		 * Makes a request and waits for it. Waiting keeps the channel's messages in
+		 * order.
+		 * 
+		 * @return True if the request succeeded.
+		 */
+		private boolean request(RequestBuffer.IVoidRequest request, String description) {
+			try {
+				return RequestBuffer.request(() -> {
+					try {
+						request.doRequest();
+						return true;
+					} catch (RateLimitException e) {
+						// RateLimitException is a DiscordException, but it must reach RequestBuffer,
+						// which waits out the channel's rate limit bucket and retries.
+						throw e;
+					} catch (MissingPermissionsException e) {
+						LOG.debug("Missing permissions to {} in channel {}.", description, channel.getLongID(), e);
+					} catch (DiscordException e) {
+						LOG.error("Could not {} in channel {}.", description, channel.getLongID(), e);
+					}
+					return false;
+				}).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				LOG.error("Could not {} in channel {}.", description, channel.getLongID(), e);
+			}
+			return false;
+		}
+	}
+
+	@Data
+	private static class QueuedMessage {
+
+		/**
+		 * The text to send. Null for status message updates.
+		 */
+		private final String text;
+
+		/**
+		 * The status message to update. Null for plain messages.
+		 */
+		private final StatusMessage statusMessage;
+
+		private final long enqueuedAt;
+	}
+}
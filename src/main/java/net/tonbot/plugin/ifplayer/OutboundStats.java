@@ -0,0 +1,46 @@
+package net.tonbot.plugin.ifplayer;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * A snapshot of the {@link OutboundMessageQueue}'s metrics.
+ */
+@Data
+@Builder
+class OutboundStats {
+
+	/**
+	 * The number of messages waiting to be sent, across all channels.
+	 */
+	private final int queueDepth;
+
+	/**
+	 * The number of Discord messages sent, counting status message edits.
+	 */
+	private final long messagesSent;
+
+	/**
+	 * The number of queued messages that were merged into another message instead
+	 * of being sent on their own.
+	 */
+	private final long messagesCoalesced;
+
+	/**
+	 * The number of Discord messages that could not be sent, counting status
+	 * message edits. These are not counted as sent.
+	 */
+	private final long messagesFailed;
+
+	/**
+	 * The mean time, in milliseconds, from a message being queued to it being
+	 * sent.
+	 */
+	private final long meanSendLatencyMillis;
+
+	/**
+	 * The longest time, in milliseconds, from a message being queued to it being
+	 * sent.
+	 */
+	private final long maxSendLatencyMillis;
+}
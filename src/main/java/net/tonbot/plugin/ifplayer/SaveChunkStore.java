@@ -0,0 +1,170 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+
+import lombok.Data;
+
+/**
+ * Keeps save chunks in files named after the SHA-256 hash of their contents, so
+ * that each distinct chunk is stored once no matter how many saves use it.
+ * <p>
+ * Chunks are never changed once written. Chunks that are no longer used are
+ * removed by {@link #sweep(Set, long)}.
+ */
+class SaveChunkStore {
+
+	private static final HashFunction CHUNK_HASH = Hashing.sha256();
+	private static final int LOCK_STRIPES = 64;
+
+	private final SaveLayout layout;
+
+	/**
+	 * Guards each chunk while it is written, reused or swept.
+	 */
+	private final Striped<Lock> chunkLocks;
+
+	public SaveChunkStore(SaveLayout layout) {
+		this.layout = Preconditions.checkNotNull(layout, "layout must be non-null.");
+		this.chunkLocks = Striped.lock(LOCK_STRIPES);
+	}
+
+	/**
+	 * Stores a chunk, unless the same chunk is already stored. Either way, the
+	 * chunk is protected from sweeps that started before now.
+	 *
+	 * @param chunk
+	 *            The chunk. Non-null.
+	 * @return The chunk's hash.
+	 * @throws UncheckedIOException
+	 *             If the chunk could not be written.
+	 */
+	public String put(byte[] chunk) {
+		Preconditions.checkNotNull(chunk, "chunk must be non-null.");
+
+		String hash = CHUNK_HASH.hashBytes(chunk).toString();
+		File file = layout.getChunkFile(hash);
+
+		Lock lock = chunkLocks.get(hash);
+		lock.lock();
+		try {
+			if (file.exists()) {
+				file.setLastModified(System.currentTimeMillis());
+				return hash;
+			}
+
+			Files.createDirectories(file.getParentFile().toPath());
+			AtomicFileOutputStream out = new AtomicFileOutputStream(file.toPath());
+			try {
+				out.write(chunk);
+				out.close();
+			} finally {
+				out.abort();
+			}
+
+			return hash;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads a chunk.
+	 *
+	 * @param hash
+	 *            The chunk's hash. Non-null.
+	 * @return The chunk.
+	 * @throws UncheckedIOException
+	 *             If the chunk could not be read.
+	 */
+	public byte[] get(String hash) {
+		Preconditions.checkNotNull(hash, "hash must be non-null.");
+
+		try {
+			return Files.readAllBytes(layout.getChunkFile(hash).toPath());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Deletes every chunk that isn't in use. Chunks written or reused after the
+	 * sweep started are kept, since the saves using them may not have been seen
+	 * yet.
+	 *
+	 * @param liveHashes
+	 *            The hashes of the chunks in use. Non-null.
+	 * @param startMillis
+	 *            When the sweep started, before the chunks in use were listed.
+	 * @return {@link SweepResult}
+	 * @throws UncheckedIOException
+	 *             If the chunks could not be listed.
+	 */
+	public SweepResult sweep(Set<String> liveHashes, long startMillis) {
+		Preconditions.checkNotNull(liveHashes, "liveHashes must be non-null.");
+
+		// File times may be rounded down to the second.
+		long cutoffMillis = startMillis - 1000;
+
+		int deleted = 0;
+		long keptBytes = 0;
+		File chunksDir = layout.getChunksDir();
+		if (!chunksDir.isDirectory()) {
+			return new SweepResult(0, 0);
+		}
+
+		try (Stream<Path> paths = Files.walk(chunksDir.toPath(), 2)) {
+			Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+			while (iterator.hasNext()) {
+				File file = iterator.next().toFile();
+				String hash = file.getName();
+
+				if (liveHashes.contains(hash)) {
+					keptBytes += file.length();
+					continue;
+				}
+
+				Lock lock = chunkLocks.get(hash);
+				lock.lock();
+				try {
+					if (file.lastModified() < cutoffMillis && file.delete()) {
+						deleted++;
+					} else {
+						keptBytes += file.length();
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return new SweepResult(deleted, keptBytes);
+	}
+
+	@Data
+	static class SweepResult {
+
+		private final int deletedChunks;
+
+		/**
+		 * The size of the chunks left after the sweep.
+		 */
+		private final long storedBytes;
+	}
+}
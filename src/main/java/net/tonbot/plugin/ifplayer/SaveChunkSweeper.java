@@ -0,0 +1,50 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Deletes save chunks that no version uses any more, in the background, and
+ * logs how much space sharing chunks saves.
+ */
+class SaveChunkSweeper {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SaveChunkSweeper.class);
+
+	private static final long INITIAL_DELAY_MINUTES = 10;
+	private static final long INTERVAL_MINUTES = 24 * 60;
+
+	@Inject
+	public SaveChunkSweeper(SaveManagerImpl saveManager) {
+		Preconditions.checkNotNull(saveManager, "saveManager must be non-null.");
+
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("ifplayer-chunk-sweeper-%d").setDaemon(true).build());
+		executor.scheduleWithFixedDelay(() -> {
+			try {
+				long start = System.nanoTime();
+				SaveHistoryStats stats = saveManager.sweepChunks();
+
+				if (stats.getVersions() == 0 && stats.getSweptChunks() == 0) {
+					// Save history isn't in use.
+					return;
+				}
+
+				LOG.info("Swept {} unused save chunks in {} ms. {} save versions would take {} bytes as whole "
+						+ "files, and take {} bytes as {} shared chunks.", stats.getSweptChunks(),
+						(System.nanoTime() - start) / 1_000_000, stats.getVersions(), stats.getLogicalBytes(),
+						stats.getStoredBytes(), stats.getChunks());
+			} catch (RuntimeException e) {
+				LOG.error("Save chunk sweep failed.", e);
+			}
+		}, INITIAL_DELAY_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+}
@@ -0,0 +1,83 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Splits saves into chunks at positions picked by their contents rather than
+ * their offsets. A change in one part of a save, even one that shifts
+ * everything after it, only changes the chunks around it, so consecutive saves
+ * of a slot and saves of the same story at similar states share most of their
+ * chunks.
+ * <p>
+ * Boundaries are found with a gear hash: a chunk ends where the top bits of the
+ * hash of the 64 bytes just before it are all zero, within a minimum and
+ * maximum chunk size.
+ */
+class SaveChunker {
+
+	private static final int MIN_CHUNK_SIZE = 512;
+	private static final int MAX_CHUNK_SIZE = 8 * 1024;
+
+	/**
+	 * Gives chunks of about 1 KB past the minimum size, on average.
+	 */
+	private static final long BOUNDARY_MASK = ((1L << 10) - 1) << 54;
+
+	private static final long[] GEAR = new long[256];
+
+	static {
+		// Fixed, so that the same contents are always split the same way.
+		Random random = new Random(0x5A5E_C4A7L);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+
+	private SaveChunker() {
+	}
+
+	/**
+	 * Splits data into chunks.
+	 *
+	 * @param data
+	 *            The data. Non-null.
+	 * @return The chunks, in order. Empty if the data is empty.
+	 */
+	public static List<byte[]> split(byte[] data) {
+		Preconditions.checkNotNull(data, "data must be non-null.");
+
+		ImmutableList.Builder<byte[]> chunks = ImmutableList.builder();
+		int start = 0;
+		while (start < data.length) {
+			int end = findBoundary(data, start);
+			byte[] chunk = new byte[end - start];
+			System.arraycopy(data, start, chunk, 0, chunk.length);
+			chunks.add(chunk);
+			start = end;
+		}
+
+		return chunks.build();
+	}
+
+	private static int findBoundary(byte[] data, int start) {
+		int limit = Math.min(data.length, start + MAX_CHUNK_SIZE);
+		int position = start + MIN_CHUNK_SIZE;
+		if (position >= limit) {
+			return limit;
+		}
+
+		long hash = 0;
+		for (; position < limit; position++) {
+			hash = (hash << 1) + GEAR[data[position] & 0xFF];
+			if ((hash & BOUNDARY_MASK) == 0) {
+				return position + 1;
+			}
+		}
+
+		return limit;
+	}
+}
@@ -1,11 +1,8 @@
 package net.tonbot.plugin.ifplayer;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.net.URI;
 import java.util.Optional;
@@ -16,23 +13,34 @@ import lombok.Builder;
 import lombok.Data;
 
 @Data
-@Builder
 class SaveFile {
 
+	/**
+	 * The file the save is kept in. Null if it is kept in some other
+	 * {@link SaveSlotStorage}.
+	 */
 	private final File file;
+	private final SaveSlotStorage storage;
 	private final String storyName;
 	private final int slot;
 	private final SaveFileMetadata metadata;
 
-	public SaveFile(File file, String storyName, int slot, SaveFileMetadata metadata) {
+	/**
+	 * Constructor. Exactly one of {@code file} and {@code storage} must be given.
+	 */
+	@Builder
+	public SaveFile(File file, SaveSlotStorage storage, String storyName, int slot, SaveFileMetadata metadata) {
 		this.metadata = metadata;
 
 		Preconditions.checkArgument(slot >= 0, "slot must be non-negative.");
 		this.slot = slot;
 
-		Preconditions.checkNotNull(file, "file must be non-null.");
-		Preconditions.checkArgument(file.exists(), "file must exist.");
+		// The file isn't checked for existence, since that would cost a filesystem
+		// operation per slot when listing them.
+		Preconditions.checkArgument((file == null) != (storage == null),
+				"Exactly one of file and storage must be non-null.");
 		this.file = file;
+		this.storage = storage != null ? storage : new FileSlotStorage(file);
 
 		this.storyName = Preconditions.checkNotNull(storyName, "storyName must be non-null.");
 	}
@@ -41,23 +49,35 @@ class SaveFile {
 		return Optional.ofNullable(metadata);
 	}
 
-	public OutputStream getOutputStream() {
+	/**
+	 * Opens a stream that replaces the save's contents when it is closed. The
+	 * caller must either close or abort the stream.
+	 *
+	 * @return {@link SaveOutputStream}
+	 */
+	public SaveOutputStream getOutputStream() {
 		try {
-			return new FileOutputStream(file);
-		} catch (FileNotFoundException e) {
+			return storage.openOutputStream();
+		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
+	/**
+	 * Opens a buffered stream of the save's contents. The caller must close the
+	 * stream.
+	 *
+	 * @return {@link InputStream}
+	 */
 	public InputStream getInputStream() {
 		try {
-			return new FileInputStream(file);
-		} catch (FileNotFoundException e) {
+			return storage.openInputStream();
+		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
 	public URI getURI() {
-		return file.toURI();
+		return storage.getURI();
 	}
 }
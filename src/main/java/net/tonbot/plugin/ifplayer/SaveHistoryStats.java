@@ -0,0 +1,37 @@
+package net.tonbot.plugin.ifplayer;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * How much disk the versioned saves take, as of the last chunk sweep.
+ */
+@Data
+@Builder
+class SaveHistoryStats {
+
+	/**
+	 * The number of versions kept, across all slots.
+	 */
+	private final long versions;
+
+	/**
+	 * The number of distinct chunks those versions are made of.
+	 */
+	private final long chunks;
+
+	/**
+	 * What the versions would take if each were stored as a whole file.
+	 */
+	private final long logicalBytes;
+
+	/**
+	 * What the chunks take on disk.
+	 */
+	private final long storedBytes;
+
+	/**
+	 * The number of unused chunks the sweep deleted.
+	 */
+	private final int sweptChunks;
+}
@@ -0,0 +1,173 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+import lombok.Data;
+
+/**
+ * The save slots of one story in one channel. Stored as a single file, so that
+ * listing the slots takes one read instead of several per slot. Immutable;
+ * changes return a new index.
+ */
+@Data
+class SaveIndex {
+
+	@JsonProperty("slots")
+	private final SortedMap<Integer, Entry> slots;
+
+	@JsonCreator
+	public SaveIndex(@JsonProperty("slots") Map<Integer, Entry> slots) {
+		this.slots = slots != null ? ImmutableSortedMap.copyOf(slots) : ImmutableSortedMap.of();
+	}
+
+	/**
+	 * Gets an empty index.
+	 * 
+	 * @return An empty {@link SaveIndex}.
+	 */
+	public static SaveIndex empty() {
+		return new SaveIndex(null);
+	}
+
+	/**
+	 * Returns an index where the given slot has the given entry.
+	 * 
+	 * @param slot
+	 *            The slot number.
+	 * @param entry
+	 *            {@link Entry}. Non-null.
+	 * @return A new {@link SaveIndex}.
+	 */
+	public SaveIndex withSlot(int slot, Entry entry) {
+		SortedMap<Integer, Entry> newSlots = new TreeMap<>(slots);
+		newSlots.put(slot, entry);
+		return new SaveIndex(newSlots);
+	}
+
+	/**
+	 * Returns an index without the given slot.
+	 * 
+	 * @param slot
+	 *            The slot number.
+	 * @return A new {@link SaveIndex}.
+	 */
+	public SaveIndex withoutSlot(int slot) {
+		SortedMap<Integer, Entry> newSlots = new TreeMap<>(slots);
+		newSlots.remove(slot);
+		return new SaveIndex(newSlots);
+	}
+
+	@Data
+	static class Entry {
+
+		/**
+		 * Null if the slot has been created but never saved to.
+		 */
+		@JsonProperty("metadata")
+		private final SaveFileMetadata metadata;
+
+		/**
+		 * The size of the save file in bytes.
+		 */
+		@JsonProperty("size")
+		private final long size;
+
+		/**
+		 * The slot's versions, oldest first. Empty if the slot is kept in a plain
+		 * save file instead.
+		 */
+		@JsonProperty("versions")
+		private final List<SaveVersion> versions;
+
+		public Entry(SaveFileMetadata metadata, long size) {
+			this(metadata, size, null);
+		}
+
+		@JsonCreator
+		public Entry(@JsonProperty("metadata") SaveFileMetadata metadata, @JsonProperty("size") long size,
+				@JsonProperty("versions") List<SaveVersion> versions) {
+			this.metadata = metadata;
+			this.size = size;
+			this.versions = versions != null ? ImmutableList.copyOf(versions) : ImmutableList.of();
+		}
+
+		/**
+		 * Gets the newest version.
+		 * 
+		 * @return The newest {@link SaveVersion}, or empty if the slot isn't
+		 *         versioned.
+		 */
+		@JsonIgnore
+		public Optional<SaveVersion> getLatestVersion() {
+			return versions.isEmpty() ? Optional.empty() : Optional.of(versions.get(versions.size() - 1));
+		}
+
+		/**
+		 * Returns an entry where the given version is the newest. The oldest versions
+		 * are dropped once there are more than the given number.
+		 * 
+		 * @param version
+		 *            {@link SaveVersion}. Non-null.
+		 * @param maxVersions
+		 *            The number of versions to keep. Must be positive.
+		 * @return A new {@link Entry}.
+		 */
+		public Entry withVersion(SaveVersion version, int maxVersions) {
+			Preconditions.checkNotNull(version, "version must be non-null.");
+			Preconditions.checkArgument(maxVersions > 0, "maxVersions must be positive.");
+
+			List<SaveVersion> newVersions = new ArrayList<>(versions);
+			newVersions.add(version);
+			if (newVersions.size() > maxVersions) {
+				newVersions = newVersions.subList(newVersions.size() - maxVersions, newVersions.size());
+			}
+
+			// A new save has no metadata until it is recorded, so the slot keeps showing
+			// the old metadata until then.
+			SaveFileMetadata newMetadata = version.getMetadata() != null ? version.getMetadata() : metadata;
+			return new Entry(newMetadata, version.getSize(), newVersions);
+		}
+
+		/**
+		 * Returns an entry with the given metadata. If the newest version has no
+		 * metadata yet, it gets this metadata.
+		 * 
+		 * @param metadata
+		 *            {@link SaveFileMetadata}. Non-null.
+		 * @return A new {@link Entry}.
+		 */
+		public Entry withMetadata(SaveFileMetadata metadata) {
+			Preconditions.checkNotNull(metadata, "metadata must be non-null.");
+
+			List<SaveVersion> newVersions = new ArrayList<>(versions);
+			SaveVersion latest = getLatestVersion().orElse(null);
+			if (latest != null && latest.getMetadata() == null) {
+				newVersions.set(newVersions.size() - 1, latest.withMetadata(metadata));
+			}
+
+			return new Entry(metadata, size, newVersions);
+		}
+
+		/**
+		 * Gets the next unused version number.
+		 * 
+		 * @return The version number.
+		 */
+		@JsonIgnore
+		public int getNextVersionNumber() {
+			return getLatestVersion().map(version -> version.getNumber() + 1).orElse(1);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import lombok.Data;
+
+/**
+ * Where save files live in the save directory.
+ * <p>
+ * Files are sharded as {@code <shard>/<channelId>/<storyName>/<file>}, where the
+ * shard is two hex digits taken from a hash of the channel ID. This keeps every
+ * directory small no matter how many channels have saves.
+ * <p>
+ * Chunks of versioned saves are shared between all channels, and kept in
+ * {@code chunks/<prefix>/<hash>}, where the prefix is the first two hex digits
+ * of the hash.
+ * <p>
+ * Saves used to be kept flat in the save directory, as
+ * {@code <channelId>_<storyName>_slot<N>.save}. Those locations are still
+ * resolved here so that they can be read until they have been migrated.
+ */
+class SaveLayout {
+
+	private static final HashFunction SHARD_HASH = Hashing.murmur3_32();
+
+	private static final Pattern FLAT_SLOT_FILE = Pattern.compile("(\\d+)_(.+)_slot(\\d+)\\.(save|meta)");
+	private static final Pattern FLAT_INDEX_FILE = Pattern.compile("(\\d+)_(.+)\\.index");
+
+	private static final String INDEX_FILE_NAME = "slots.index";
+	private static final String CHUNKS_DIR_NAME = "chunks";
+	private static final int INDEX_FILE_DEPTH = 4;
+
+	private final File saveDir;
+
+	public SaveLayout(File saveDir) {
+		this.saveDir = Preconditions.checkNotNull(saveDir, "saveDir must be non-null.");
+	}
+
+	/**
+	 * Gets the directory of a story's saves in a channel.
+	 *
+	 * @param channelId
+	 *            The channel ID.
+	 * @param storyName
+	 *            The story name. Non-null.
+	 * @return The directory. It may not exist yet.
+	 */
+	public File getStoryDir(long channelId, String storyName) {
+		String shard = String.format("%02x", SHARD_HASH.hashLong(channelId).asInt() & 0xff);
+		return new File(new File(new File(saveDir, shard), Long.toString(channelId)), storyName);
+	}
+
+	public File getSaveFile(long channelId, String storyName, int slot) {
+		return new File(getStoryDir(channelId, storyName), "slot" + slot + ".save");
+	}
+
+	public File getIndexFile(long channelId, String storyName) {
+		return new File(getStoryDir(channelId, storyName), INDEX_FILE_NAME);
+	}
+
+	public File getChunksDir() {
+		return new File(saveDir, CHUNKS_DIR_NAME);
+	}
+
+	public File getChunkFile(String hash) {
+		Preconditions.checkNotNull(hash, "hash must be non-null.");
+		return new File(new File(getChunksDir(), hash.substring(0, 2)), hash);
+	}
+
+	/**
+	 * Finds every index file in the sharded layout.
+	 *
+	 * @return The index files.
+	 * @throws UncheckedIOException
+	 *             If the save directory could not be walked.
+	 */
+	public List<File> findIndexFiles() {
+		try (Stream<Path> paths = Files.walk(saveDir.toPath(), INDEX_FILE_DEPTH)) {
+			return paths.filter(path -> path.getNameCount() - saveDir.toPath().getNameCount() == INDEX_FILE_DEPTH)
+					.filter(path -> path.getFileName().toString().equals(INDEX_FILE_NAME)).map(Path::toFile)
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public File getFlatSaveFile(long channelId, String storyName, int slot) {
+		return new File(saveDir, String.format("%s_%s_slot%s.save", channelId, storyName, slot));
+	}
+
+	public File getFlatMetadataFile(long channelId, String storyName, int slot) {
+		return new File(saveDir, String.format("%s_%s_slot%s.meta", channelId, storyName, slot));
+	}
+
+	public File getFlatIndexFile(long channelId, String storyName) {
+		return new File(saveDir, String.format("%s_%s.index", channelId, storyName));
+	}
+
+	/**
+	 * Parses the name of a file in the flat layout.
+	 *
+	 * @param fileName
+	 *            The file name. Non-null.
+	 * @return The {@link FlatFile}, or empty if the name isn't one of a save file.
+	 */
+	public Optional<FlatFile> parseFlatFileName(String fileName) {
+		Preconditions.checkNotNull(fileName, "fileName must be non-null.");
+
+		try {
+			Matcher slotMatcher = FLAT_SLOT_FILE.matcher(fileName);
+			if (slotMatcher.matches()) {
+				return Optional.of(new FlatFile(Long.parseLong(slotMatcher.group(1)), slotMatcher.group(2),
+						Integer.parseInt(slotMatcher.group(3)), slotMatcher.group(4).equals("meta")));
+			}
+
+			Matcher indexMatcher = FLAT_INDEX_FILE.matcher(fileName);
+			if (indexMatcher.matches()) {
+				return Optional.of(new FlatFile(Long.parseLong(indexMatcher.group(1)), indexMatcher.group(2), null,
+						false));
+			}
+		} catch (NumberFormatException e) {
+			// Not one of ours.
+		}
+
+		return Optional.empty();
+	}
+
+	/**
+	 * A file in the flat layout.
+	 */
+	@Data
+	static class FlatFile {
+
+		private final long channelId;
+		private final String storyName;
+
+		/**
+		 * The slot number. Null for index files.
+		 */
+		private final Integer slot;
+
+		/**
+		 * Whether this is a per-slot metadata file. These predate the index.
+		 */
+		private final boolean metadata;
+	}
+}
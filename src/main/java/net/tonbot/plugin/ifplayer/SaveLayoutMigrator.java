@@ -0,0 +1,45 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Moves saves out of the old flat layout in the background, once on startup.
+ * The bot keeps serving saves from both layouts while this runs.
+ */
+class SaveLayoutMigrator {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SaveLayoutMigrator.class);
+
+	@Inject
+	public SaveLayoutMigrator(SaveManagerImpl saveManager) {
+		Preconditions.checkNotNull(saveManager, "saveManager must be non-null.");
+
+		ExecutorService executor = Executors.newSingleThreadExecutor(
+				new ThreadFactoryBuilder().setNameFormat("ifplayer-save-migrator-%d").setDaemon(true).build());
+		executor.execute(() -> {
+			try {
+				long start = System.nanoTime();
+				int migrated = saveManager.migrateFlatLayout();
+
+				if (saveManager.isFlatLayoutMigrated()) {
+					LOG.info("Migrated the saves of {} stories to the sharded layout in {} ms.", migrated,
+							(System.nanoTime() - start) / 1_000_000);
+				} else {
+					LOG.info("Migrated the saves of {} stories to the sharded layout. Stories that were in use "
+							+ "will be migrated on the next start.", migrated);
+				}
+			} catch (RuntimeException e) {
+				LOG.error("Save migration failed. Saves will keep being read from both layouts.", e);
+			}
+		});
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,869 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import lombok.Data;
+
+/**
+ * An append-only log of save records, split into segment files of a bounded
+ * size.
+ * <p>
+ * Every record carries a sequence number, which is kept when the record is
+ * copied to another segment. Replaying the log in any order and keeping the
+ * highest sequence number therefore always rebuilds the same state.
+ * <p>
+ * A record is laid out as: magic (int), record length (int), sequence number
+ * (long), type (byte), channel ID (long), slot (int), story name length
+ * (short), story name (UTF-8), payload length (int), payload, and a CRC32 of
+ * everything from the sequence number to the end of the payload (int).
+ * <p>
+ * A checkpoint lists the records that were live up to a position in the log.
+ * Recovery starts from the last checkpoint and only replays the records after
+ * it.
+ */
+class SaveLog implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SaveLog.class);
+
+	private static final int MAGIC = 0x5A534C47;
+	private static final int FRAME_HEADER_SIZE = 8;
+	private static final int FIXED_SIZE = FRAME_HEADER_SIZE + 8 + 1 + 8 + 4 + 2 + 4 + 4;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int SCAN_BLOCK_SIZE = 65536;
+
+	private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+	private static final int CHECKPOINT_MAGIC = 0x5A534350;
+	private static final int CHECKPOINT_FORMAT_VERSION = 1;
+
+	private final File dir;
+	private final long maxSegmentBytes;
+
+	private final ConcurrentSkipListMap<Long, Segment> segments;
+
+	/**
+	 * Reads hold the read lock, so that a segment isn't closed while it is being
+	 * read. Deleting a segment takes the write lock.
+	 */
+	private final ReadWriteLock segmentsLock;
+
+	private Segment activeSegment;
+	private long nextSequence;
+	private boolean recovered;
+
+	/**
+	 * Constructor. {@link #recover(BiConsumer)} must be called before the log is
+	 * used.
+	 *
+	 * @param dir
+	 *            The directory to keep the segments in. Non-null.
+	 * @param maxSegmentBytes
+	 *            The size after which a new segment is started. Must be positive.
+	 */
+	public SaveLog(File dir, long maxSegmentBytes) {
+		this.dir = Preconditions.checkNotNull(dir, "dir must be non-null.");
+		Preconditions.checkArgument(maxSegmentBytes > 0, "maxSegmentBytes must be positive.");
+		this.maxSegmentBytes = maxSegmentBytes;
+
+		this.segments = new ConcurrentSkipListMap<>();
+		this.segmentsLock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Opens every segment and replays the records after the last checkpoint,
+	 * oldest first. The records listed in the checkpoint are replayed before
+	 * them. Without a usable checkpoint, every record is replayed.
+	 * <p>
+	 * Damaged records are skipped. Damage at the end of the last segment, such as
+	 * a record cut off by a crash, is truncated. Sealed segments are never
+	 * truncated, since good records may follow the damage.
+	 *
+	 * @param visitor
+	 *            Called with every record and its location. Non-null.
+	 * @return The number of records that were read from the segments, rather than
+	 *         from the checkpoint.
+	 * @throws UncheckedIOException
+	 *             If the segments could not be read.
+	 */
+	public synchronized long recover(BiConsumer<Record, Location> visitor) {
+		Preconditions.checkNotNull(visitor, "visitor must be non-null.");
+		Preconditions.checkState(!recovered, "The log has already been recovered.");
+
+		long replayed = 0;
+		try {
+			Files.createDirectories(dir.toPath());
+
+			File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+			for (File file : files) {
+				String id = file.getName().substring(SEGMENT_PREFIX.length(),
+						file.getName().length() - SEGMENT_SUFFIX.length());
+				long segmentId = Long.parseLong(id);
+				segments.put(segmentId, new Segment(segmentId, file));
+			}
+
+			this.nextSequence = 1;
+			Position start = new Position(Long.MIN_VALUE, 0, 1);
+
+			Checkpoint checkpoint = readCheckpoint();
+			if (checkpoint != null && !isUsable(checkpoint)) {
+				// New records will be written over its position, after which it would seem
+				// usable again.
+				Files.deleteIfExists(new File(dir, CHECKPOINT_FILE_NAME).toPath());
+				checkpoint = null;
+			}
+
+			if (checkpoint != null) {
+				start = checkpoint.getPosition();
+				this.nextSequence = start.getNextSequence();
+
+				for (Record record : checkpoint.getRecords()) {
+					Location location = record.getLocation();
+					Segment segment = segments.get(location.getSegmentId());
+					if (segment == null) {
+						// Compacted away since the checkpoint. Its copy is replayed with the rest.
+						continue;
+					}
+
+					segment.getLiveBytes().addAndGet(location.getLength());
+					visitor.accept(record, location);
+				}
+			}
+
+			long lastSegmentId = segments.isEmpty() ? Long.MIN_VALUE : segments.lastKey();
+			for (Segment segment : segments.tailMap(start.getSegmentId()).values()) {
+				long from = segment.getId() == start.getSegmentId() ? start.getOffset() : 0;
+				replayed += replay(segment, from, segment.getId() == lastSegmentId, visitor);
+			}
+
+			if (segments.isEmpty()) {
+				this.activeSegment = newSegment(0);
+			} else {
+				this.activeSegment = segments.lastEntry().getValue();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		this.recovered = true;
+		return replayed;
+	}
+
+	/**
+	 * Checks that the log still holds everything up to a checkpoint's position.
+	 * It doesn't if the segment was cut short since, such as by a crash.
+	 */
+	private boolean isUsable(Checkpoint checkpoint) {
+		Position position = checkpoint.getPosition();
+		Segment segment = segments.get(position.getSegmentId());
+		if (segment != null && segment.getSize() < position.getOffset()) {
+			LOG.warn("The save log checkpoint is past the end of segment {}. Replaying the whole log.",
+					segment.getId());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Replays the records of a segment from an offset.
+	 *
+	 * @return The number of records replayed.
+	 */
+	private long replay(Segment segment, long from, boolean last, BiConsumer<Record, Location> visitor)
+			throws IOException {
+		AtomicLong replayed = new AtomicLong(0);
+		long end = readRecords(segment, from, record -> {
+			Location location = record.getLocation();
+			nextSequence = Math.max(nextSequence, location.getSequence() + 1);
+			segment.getLiveBytes().addAndGet(location.getLength());
+			visitor.accept(record, location);
+			replayed.incrementAndGet();
+		});
+
+		if (end < segment.getSize()) {
+			if (last) {
+				// Appends continue from here, so the damage has to go.
+				LOG.warn("Segment {} ends with a damaged record at offset {}. Truncating {} bytes.", segment.getId(),
+						end, segment.getSize() - end);
+				segment.getChannel().truncate(end);
+				segment.getChannel().force(true);
+				segment.setSize(end);
+			} else {
+				LOG.warn("Segment {} ends with {} damaged bytes at offset {}. They are left in place.",
+						segment.getId(), segment.getSize() - end, end);
+			}
+		}
+
+		return replayed.get();
+	}
+
+	/**
+	 * Reads the records of a segment from an offset. Damaged records are skipped,
+	 * as long as a good record can be found after them.
+	 *
+	 * @return The offset just past the last good record.
+	 */
+	private static long readRecords(Segment segment, long from, Consumer<Record> consumer) throws IOException {
+		long size = segment.getSize();
+		long position = from;
+		long end = from;
+
+		while (position < size) {
+			Record record = readRecord(segment, position, size);
+			if (record == null) {
+				long next = findNextRecord(segment, position + 1, size);
+				if (next < 0) {
+					break;
+				}
+
+				LOG.warn("Segment {} has {} damaged bytes at offset {}. They were skipped.", segment.getId(),
+						next - position, position);
+				position = next;
+				continue;
+			}
+			consumer.accept(record);
+
+			position += record.getLocation().getLength();
+			end = position;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Reads the record at an offset.
+	 *
+	 * @return The {@link Record}, or null if there is no good record there.
+	 */
+	private static Record readRecord(Segment segment, long position, long size) throws IOException {
+		FileChannel channel = segment.getChannel();
+
+		ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		if (!readFully(channel, frameHeader, position)) {
+			return null;
+		}
+		frameHeader.flip();
+
+		int magic = frameHeader.getInt();
+		int length = frameHeader.getInt();
+		if (magic != MAGIC || length < FIXED_SIZE || position + length > size) {
+			return null;
+		}
+
+		ByteBuffer body = ByteBuffer.allocate(length - FRAME_HEADER_SIZE);
+		if (!readFully(channel, body, position + FRAME_HEADER_SIZE)) {
+			return null;
+		}
+		body.flip();
+
+		return decode(body, segment.getId(), position, length);
+	}
+
+	/**
+	 * Looks for the next good record after damage.
+	 *
+	 * @return The offset of the record, or -1 if there is none.
+	 */
+	private static long findNextRecord(Segment segment, long from, long size) throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+		long blockStart = from;
+
+		while (size - blockStart >= FIXED_SIZE) {
+			block.clear();
+			if (segment.getChannel().read(block, blockStart) < Integer.BYTES) {
+				return -1;
+			}
+			block.flip();
+
+			for (int i = 0; i + Integer.BYTES <= block.limit(); i++) {
+				if (block.getInt(i) == MAGIC && readRecord(segment, blockStart + i, size) != null) {
+					return blockStart + i;
+				}
+			}
+
+			// The next block overlaps this one, in case the magic number straddles them.
+			blockStart += block.limit() - (Integer.BYTES - 1);
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Reads every record in a segment. Used to find the live records of a segment
+	 * that is being compacted.
+	 *
+	 * @param segmentId
+	 *            The segment ID.
+	 * @return The records, in the order they were written. Empty if the segment
+	 *         no longer exists.
+	 * @throws UncheckedIOException
+	 *             If the segment could not be read.
+	 */
+	public List<Record> readSegment(long segmentId) {
+		segmentsLock.readLock().lock();
+		try {
+			Segment segment = segments.get(segmentId);
+			if (segment == null) {
+				return ImmutableList.of();
+			}
+
+			List<Record> records = new ArrayList<>();
+			readRecords(segment, 0, records::add);
+			return records;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Decodes the part of a record after its frame header.
+	 *
+	 * @return The {@link Record}, or null if it is damaged.
+	 */
+	private static Record decode(ByteBuffer body, long segmentId, long offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = body.duplicate();
+		checked.limit(body.limit() - 4);
+		crc.update(checked);
+		if ((int) crc.getValue() != body.getInt(body.limit() - 4)) {
+			return null;
+		}
+
+		long sequence = body.getLong();
+		int typeCode = body.get();
+		long channelId = body.getLong();
+		int slot = body.getInt();
+		int nameLength = body.getShort() & 0xFFFF;
+		if (nameLength > body.remaining() - 8) {
+			return null;
+		}
+		byte[] nameBytes = new byte[nameLength];
+		body.get(nameBytes);
+
+		int payloadLength = body.getInt();
+		if (payloadLength != body.remaining() - 4 || typeCode < 0 || typeCode >= RecordType.values().length) {
+			return null;
+		}
+		int payloadOffset = body.position() + FRAME_HEADER_SIZE;
+
+		RecordType type = RecordType.values()[typeCode];
+		byte[] payload = null;
+		if (type != RecordType.BLOB) {
+			// Save contents are read on demand. Everything else is small enough to keep.
+			payload = new byte[payloadLength];
+			body.get(payload);
+		}
+
+		Location location = new Location(segmentId, offset, length, payloadOffset, payloadLength, sequence);
+		return new Record(type, channelId, new String(nameBytes, StandardCharsets.UTF_8), slot, payload, location);
+	}
+
+	/**
+	 * Appends a record and syncs it to disk.
+	 *
+	 * @param type
+	 *            {@link RecordType}. Non-null.
+	 * @param channelId
+	 *            The channel ID.
+	 * @param storyName
+	 *            The story name. Non-null.
+	 * @param slot
+	 *            The slot.
+	 * @param payload
+	 *            The payload. Non-null.
+	 * @return The {@link Location} of the new record.
+	 * @throws UncheckedIOException
+	 *             If the record could not be written.
+	 */
+	public synchronized Location append(RecordType type, long channelId, String storyName, int slot,
+			byte[] payload) {
+		Preconditions.checkNotNull(type, "type must be non-null.");
+		Preconditions.checkNotNull(storyName, "storyName must be non-null.");
+		Preconditions.checkNotNull(payload, "payload must be non-null.");
+		Preconditions.checkState(recovered, "The log has not been recovered.");
+
+		byte[] nameBytes = storyName.getBytes(StandardCharsets.UTF_8);
+		int length = FIXED_SIZE + nameBytes.length + payload.length;
+		long sequence = nextSequence++;
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(MAGIC).putInt(length);
+		buffer.putLong(sequence).put((byte) type.ordinal()).putLong(channelId).putInt(slot);
+		buffer.putShort((short) nameBytes.length).put(nameBytes);
+		buffer.putInt(payload.length);
+		int payloadOffset = buffer.position();
+		buffer.put(payload);
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), FRAME_HEADER_SIZE, buffer.position() - FRAME_HEADER_SIZE);
+		buffer.putInt((int) crc.getValue());
+		buffer.flip();
+
+		return write(buffer, payloadOffset, payload.length, sequence);
+	}
+
+	/**
+	 * Copies a record to the end of the log, keeping its sequence number. Used to
+	 * move live records out of a segment that is being compacted.
+	 *
+	 * @param location
+	 *            The {@link Location} of the record. Non-null.
+	 * @return The {@link Location} of the copy.
+	 * @throws UncheckedIOException
+	 *             If the record could not be copied.
+	 */
+	public synchronized Location copy(Location location) {
+		Preconditions.checkNotNull(location, "location must be non-null.");
+
+		ByteBuffer buffer = ByteBuffer.allocate(location.getLength());
+		if (!read(location, buffer, 0)) {
+			throw new IllegalStateException("Segment " + location.getSegmentId() + " no longer exists.");
+		}
+		buffer.flip();
+
+		Location copy = write(buffer, location.getPayloadOffset(), location.getPayloadLength(),
+				location.getSequence());
+		release(location);
+		return copy;
+	}
+
+	private Location write(ByteBuffer buffer, int payloadOffset, int payloadLength, long sequence) {
+		int length = buffer.remaining();
+
+		try {
+			if (activeSegment.getSize() > 0 && activeSegment.getSize() + length > maxSegmentBytes) {
+				activeSegment = newSegment(activeSegment.getId() + 1);
+			}
+
+			long offset = activeSegment.getSize();
+			FileChannel channel = activeSegment.getChannel();
+			long position = offset;
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			channel.force(false);
+
+			activeSegment.setSize(offset + length);
+			activeSegment.getLiveBytes().addAndGet(length);
+
+			return new Location(activeSegment.getId(), offset, length, payloadOffset, payloadLength, sequence);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads a record's payload.
+	 *
+	 * @param location
+	 *            The {@link Location} of the record. Non-null.
+	 * @return The payload, or null if the record's segment has since been
+	 *         compacted away.
+	 * @throws UncheckedIOException
+	 *             If the payload could not be read.
+	 */
+	public byte[] readPayload(Location location) {
+		Preconditions.checkNotNull(location, "location must be non-null.");
+
+		ByteBuffer buffer = ByteBuffer.allocate(location.getPayloadLength());
+		if (!read(location, buffer, location.getPayloadOffset())) {
+			return null;
+		}
+		return buffer.array();
+	}
+
+	private boolean read(Location location, ByteBuffer buffer, int offsetInRecord) {
+		segmentsLock.readLock().lock();
+		try {
+			Segment segment = segments.get(location.getSegmentId());
+			if (segment == null) {
+				return false;
+			}
+
+			if (!readFully(segment.getChannel(), buffer, location.getOffset() + offsetInRecord)) {
+				throw new IOException("Record at " + location + " is cut short.");
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Marks a record as superseded, so that it no longer counts towards its
+	 * segment's live bytes.
+	 *
+	 * @param location
+	 *            The {@link Location} of the record. Nullable, in which case
+	 *            nothing happens.
+	 */
+	public void release(Location location) {
+		if (location == null) {
+			return;
+		}
+
+		Segment segment = segments.get(location.getSegmentId());
+		if (segment != null) {
+			segment.getLiveBytes().addAndGet(-location.getLength());
+		}
+	}
+
+	/**
+	 * Lists the segments that are worth compacting, oldest first. The segment
+	 * being appended to is never listed.
+	 *
+	 * @param maxLiveRatio
+	 *            Segments whose live bytes make up no more than this share of
+	 *            their size are listed.
+	 * @return The segment IDs.
+	 */
+	public synchronized List<Long> getCompactionCandidates(double maxLiveRatio) {
+		List<Long> candidates = new ArrayList<>();
+		for (Segment segment : segments.values()) {
+			if (segment != activeSegment && segment.getLiveBytes().get() <= segment.getSize() * maxLiveRatio) {
+				candidates.add(segment.getId());
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Checks whether a segment is the oldest one left.
+	 *
+	 * @param segmentId
+	 *            The segment ID.
+	 * @return True if no older segment exists.
+	 */
+	public boolean isOldest(long segmentId) {
+		Map.Entry<Long, Segment> first = segments.firstEntry();
+		return first != null && first.getKey() == segmentId;
+	}
+
+	/**
+	 * Deletes a segment. All of its live records must have been copied first.
+	 *
+	 * @param segmentId
+	 *            The segment ID. Must not be the segment being appended to.
+	 */
+	public synchronized void deleteSegment(long segmentId) {
+		Preconditions.checkArgument(activeSegment.getId() != segmentId, "The active segment can't be deleted.");
+
+		segmentsLock.writeLock().lock();
+		try {
+			Segment segment = segments.remove(segmentId);
+			if (segment != null) {
+				segment.getChannel().close();
+				Files.deleteIfExists(segment.getFile().toPath());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the position just past the last record.
+	 *
+	 * @return {@link Position}
+	 */
+	public synchronized Position getPosition() {
+		Preconditions.checkState(recovered, "The log has not been recovered.");
+		return new Position(activeSegment.getId(), activeSegment.getSize(), nextSequence);
+	}
+
+	/**
+	 * Replaces the checkpoint. Only the records that are live at the position
+	 * should be listed; recovery replays them as if they had been read from their
+	 * segments, followed by the records after the position.
+	 *
+	 * @param position
+	 *            The {@link Position} the records are live at, from
+	 *            {@link #getPosition()}. Non-null.
+	 * @param records
+	 *            The live records. Non-null. Only {@link RecordType#BLOB}
+	 *            records may have a null payload.
+	 * @throws UncheckedIOException
+	 *             If the checkpoint could not be written. The old one is left as
+	 *             it was.
+	 */
+	public void writeCheckpoint(Position position, List<Record> records) {
+		Preconditions.checkNotNull(position, "position must be non-null.");
+		Preconditions.checkNotNull(records, "records must be non-null.");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			DataOutputStream data = new DataOutputStream(bytes);
+			data.writeInt(CHECKPOINT_MAGIC);
+			data.writeByte(CHECKPOINT_FORMAT_VERSION);
+			data.writeLong(position.getSegmentId());
+			data.writeLong(position.getOffset());
+			data.writeLong(position.getNextSequence());
+
+			data.writeInt(records.size());
+			for (Record record : records) {
+				Location location = record.getLocation();
+				data.writeByte(record.getType().ordinal());
+				data.writeLong(record.getChannelId());
+				data.writeUTF(record.getStoryName());
+				data.writeInt(record.getSlot());
+				data.writeInt(record.getPayload() != null ? record.getPayload().length : -1);
+				if (record.getPayload() != null) {
+					data.write(record.getPayload());
+				}
+
+				data.writeLong(location.getSegmentId());
+				data.writeLong(location.getOffset());
+				data.writeInt(location.getLength());
+				data.writeInt(location.getPayloadOffset());
+				data.writeInt(location.getPayloadLength());
+				data.writeLong(location.getSequence());
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			data.writeInt((int) crc.getValue());
+			data.flush();
+
+			AtomicFileOutputStream out = new AtomicFileOutputStream(new File(dir, CHECKPOINT_FILE_NAME).toPath());
+			try {
+				bytes.writeTo(out);
+				out.close();
+			} finally {
+				// Does nothing if the checkpoint was written.
+				out.abort();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads the checkpoint.
+	 *
+	 * @return The {@link Checkpoint}, or null if there is none or it can't be
+	 *         read.
+	 */
+	private Checkpoint readCheckpoint() {
+		try {
+			return parseCheckpoint(Files.readAllBytes(new File(dir, CHECKPOINT_FILE_NAME).toPath()));
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			LOG.warn("The save log checkpoint could not be read. Replaying the whole log.", e);
+			return null;
+		}
+	}
+
+	private static Checkpoint parseCheckpoint(byte[] bytes) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, Math.max(bytes.length - 4, 0));
+		if (bytes.length < 4 || (int) crc.getValue() != ByteBuffer.wrap(bytes).getInt(bytes.length - 4)) {
+			LOG.warn("The save log checkpoint is damaged. Replaying the whole log.");
+			return null;
+		}
+
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+		if (data.readInt() != CHECKPOINT_MAGIC || data.readUnsignedByte() != CHECKPOINT_FORMAT_VERSION) {
+			LOG.warn("The save log checkpoint has an unknown format. Replaying the whole log.");
+			return null;
+		}
+
+		Position position = new Position(data.readLong(), data.readLong(), data.readLong());
+
+		int count = data.readInt();
+		List<Record> records = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			RecordType type = RecordType.values()[data.readUnsignedByte()];
+			long channelId = data.readLong();
+			String storyName = data.readUTF();
+			int slot = data.readInt();
+
+			int payloadLength = data.readInt();
+			byte[] payload = null;
+			if (payloadLength >= 0) {
+				payload = new byte[payloadLength];
+				data.readFully(payload);
+			}
+
+			Location location = new Location(data.readLong(), data.readLong(), data.readInt(), data.readInt(),
+					data.readInt(), data.readLong());
+			records.add(new Record(type, channelId, storyName, slot, payload, location));
+		}
+
+		return new Checkpoint(position, records);
+	}
+
+	/**
+	 * Gets the total size of the log on disk.
+	 *
+	 * @return The size in bytes.
+	 */
+	public long getDiskBytes() {
+		return segments.values().stream().mapToLong(Segment::getSize).sum();
+	}
+
+	/**
+	 * Gets the size of the records that are still live.
+	 *
+	 * @return The size in bytes.
+	 */
+	public long getLiveBytes() {
+		return segments.values().stream().mapToLong(segment -> segment.getLiveBytes().get()).sum();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		segmentsLock.writeLock().lock();
+		try {
+			for (Segment segment : segments.values()) {
+				segment.getChannel().close();
+			}
+			segments.clear();
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	private Segment newSegment(long segmentId) throws IOException {
+		if (activeSegment != null) {
+			activeSegment.getChannel().force(true);
+		}
+
+		File file = new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+		Segment segment = new Segment(segmentId, file);
+		segments.put(segmentId, segment);
+		return segment;
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				return false;
+			}
+			position += read;
+		}
+		return true;
+	}
+
+	enum RecordType {
+
+		/**
+		 * A slot was created, empty. Anything older for the slot no longer applies.
+		 */
+		CREATE,
+
+		/**
+		 * The contents of a save.
+		 */
+		BLOB,
+
+		/**
+		 * A save's {@link SaveFileMetadata}, as JSON.
+		 */
+		METADATA,
+
+		/**
+		 * A slot was deleted. Anything older for the slot no longer applies.
+		 */
+		DELETE;
+	}
+
+	@Data
+	static class Record {
+
+		private final RecordType type;
+		private final long channelId;
+		private final String storyName;
+		private final int slot;
+
+		/**
+		 * Null for {@link RecordType#BLOB} records, whose payload is read on demand.
+		 */
+		private final byte[] payload;
+
+		private final Location location;
+	}
+
+	/**
+	 * A position in the log: the end of a segment, and the sequence number the
+	 * next record there gets.
+	 */
+	@Data
+	static class Position {
+
+		private final long segmentId;
+		private final long offset;
+		private final long nextSequence;
+	}
+
+	@Data
+	private static class Checkpoint {
+
+		private final Position position;
+		private final List<Record> records;
+	}
+
+	@Data
+	static class Location {
+
+		private final long segmentId;
+		private final long offset;
+		private final int length;
+		private final int payloadOffset;
+		private final int payloadLength;
+		private final long sequence;
+	}
+
+	@Data
+	private static class Segment {
+
+		private final long id;
+		private final File file;
+		private final FileChannel channel;
+		private final AtomicLong liveBytes;
+		private volatile long size;
+
+		Segment(long id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.liveBytes = new AtomicLong(0);
+			this.size = channel.size();
+		}
+	}
+}
@@ -38,6 +38,19 @@ interface SaveManager {
 	 */
 	SaveFile getSaveFile(long channelId, Story story, int slot);
 
+	/**
+	 * Gets the autosave of a story. It is kept apart from the numbered slots, so
+	 * it is never listed and can't be overwritten by saving to a slot.
+	 * 
+	 * @param channelId
+	 *            The channel ID.
+	 * @param story
+	 *            The {@link Story}. Non-null.
+	 * @return A {@link SaveFile} for the autosave. It is empty if the story has
+	 *         never been autosaved.
+	 */
+	SaveFile getAutosaveFile(long channelId, Story story);
+
 	/**
 	 * The onSaved callback function. This function is to be called whenever a file
 	 * is saved, so that the SaveManager can update its metadata with the provided
@@ -65,4 +78,36 @@ interface SaveManager {
 	 *            The slot number to delete.
 	 */
 	void deleteSaveFile(long channelId, Story story, int slot);
+
+	/**
+	 * Lists the versions of a save slot that are kept.
+	 * 
+	 * @param channelId
+	 *            The channel ID.
+	 * @param story
+	 *            {@link Story}. Non-null.
+	 * @param slot
+	 *            The slot number.
+	 * @return The {@link SaveVersion}s, oldest first. Empty if the slot doesn't
+	 *         exist or no history is kept for it.
+	 */
+	List<SaveVersion> getSaveVersions(long channelId, Story story, int slot);
+
+	/**
+	 * Makes an older version of a save slot its newest, so that it is the one
+	 * restored. The version that was the newest is kept in the history.
+	 * 
+	 * @param channelId
+	 *            The channel ID.
+	 * @param story
+	 *            {@link Story}. Non-null.
+	 * @param slot
+	 *            The slot number.
+	 * @param versionNumber
+	 *            The number of the version to go back to.
+	 * @return The {@link SaveFile} of the slot.
+	 * @throws IllegalArgumentException
+	 *             If the slot has no such version.
+	 */
+	SaveFile revertSaveFile(long channelId, Story story, int slot, int versionNumber);
 }
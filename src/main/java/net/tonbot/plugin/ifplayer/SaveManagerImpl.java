@@ -1,33 +1,142 @@
 package net.tonbot.plugin.ifplayer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Inject;
 
+import lombok.Data;
+
+/**
+ * Stores save slots as files in the save directory, laid out as described by
+ * {@link SaveLayout}. The slots of each story in each channel are listed in one
+ * {@link SaveIndex} file, which is kept in a write-through cache so that listing
+ * slots rarely touches the disk.
+ * <p>
+ * Until {@link #migrateFlatLayout()} has moved every save out of the old flat
+ * layout, files of the stories that are left there are looked up in both
+ * layouts.
+ * <p>
+ * When save history is on, each save is split into chunks that are kept in a
+ * {@link SaveChunkStore} and shared between all slots, and the slot's index
+ * entry lists its last few versions instead of pointing at a save file.
+ */
 class SaveManagerImpl implements SaveManager {
 
+	private static final Logger LOG = LoggerFactory.getLogger(SaveManagerImpl.class);
+
+	private static final int MAX_CACHED_INDEXES = 10_000;
+	private static final int GROUP_LOCK_STRIPES = 64;
+
 	private final File saveDir;
+	private final SaveLayout layout;
 	private final int maxSlots;
+
+	/**
+	 * The number of versions to keep of each slot. Zero if saves are kept in plain
+	 * files.
+	 */
+	private final int historyVersions;
+
+	private final SaveChunkStore chunkStore;
 	private final ObjectMapper objectMapper;
+	private final Cache<IndexKey, SaveIndex> indexes;
+
+	/**
+	 * Guards the files of each story in each channel while they are located or
+	 * migrated.
+	 */
+	private final Striped<Lock> groupLocks;
+
+	/**
+	 * The stories whose save files have been handed out since startup. A session
+	 * may hold on to their paths, so they are not migrated until the next start.
+	 */
+	private final Set<IndexKey> activeGroups;
+
+	private volatile boolean flatLayoutMigrated;
+
+	/**
+	 * The stories that still have files in the flat layout. Null until the flat
+	 * layout has been scanned, and until then any story may.
+	 */
+	private volatile Set<IndexKey> flatGroups;
+
+	private volatile SaveHistoryStats historyStats;
 
 	@Inject
-	public SaveManagerImpl(@SaveDir File saveDir, @MaxSaveSlots int maxSlots) {
+	public SaveManagerImpl(@SaveDir File saveDir, @MaxSaveSlots int maxSlots, Config config) {
+		this(saveDir, maxSlots, config.getSaveHistoryVersions());
+	}
+
+	public SaveManagerImpl(File saveDir, int maxSlots) {
+		this(saveDir, maxSlots, 0);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param saveDir
+	 *            The save directory. Non-null.
+	 * @param maxSlots
+	 *            The maximum number of slots. Must be positive.
+	 * @param historyVersions
+	 *            The number of versions to keep of each slot, or zero to keep saves
+	 *            in plain files. Must be non-negative.
+	 */
+	public SaveManagerImpl(File saveDir, int maxSlots, int historyVersions) {
 		this.saveDir = Preconditions.checkNotNull(saveDir, "saveDir must be non-null.");
+		this.layout = new SaveLayout(saveDir);
 
 		Preconditions.checkArgument(maxSlots > 0, "maxSlots must be a positive number.");
 		this.maxSlots = maxSlots;
 
+		Preconditions.checkArgument(historyVersions >= 0, "historyVersions must be non-negative.");
+		this.historyVersions = historyVersions;
+		this.chunkStore = new SaveChunkStore(layout);
+
 		this.objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
 		this.objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+		this.indexes = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_INDEXES).build();
+		this.groupLocks = Striped.lock(GROUP_LOCK_STRIPES);
+		this.activeGroups = ConcurrentHashMap.newKeySet();
+		this.flatLayoutMigrated = false;
+		this.flatGroups = null;
+		this.historyStats = SaveHistoryStats.builder().build();
 	}
 
 	@Override
@@ -39,13 +148,20 @@ class SaveManagerImpl implements SaveManager {
 	public List<SaveFile> getSaveFiles(long channelId, Story story) {
 		Preconditions.checkNotNull(story, "story must be non-null.");
 
-		ImmutableList.Builder<SaveFile> saveFilesListBuilder = ImmutableList.builder();
+		IndexKey indexKey = new IndexKey(channelId, story.getName());
+		return withGroupLock(indexKey, () -> {
+			activeGroups.add(indexKey);
+			SaveIndex index = getIndex(indexKey);
 
-		for (int i = 0; i < maxSlots; i++) {
-			getSaveFile(channelId, story, i, false).ifPresent(saveFile -> saveFilesListBuilder.add(saveFile));
-		}
+			ImmutableList.Builder<SaveFile> saveFilesListBuilder = ImmutableList.builder();
+			for (Map.Entry<Integer, SaveIndex.Entry> slot : index.getSlots().entrySet()) {
+				if (slot.getKey() < maxSlots) {
+					saveFilesListBuilder.add(toSaveFile(indexKey, slot.getKey(), slot.getValue()));
+				}
+			}
 
-		return saveFilesListBuilder.build();
+			return saveFilesListBuilder.build();
+		});
 	}
 
 	@Override
@@ -53,89 +169,542 @@ class SaveManagerImpl implements SaveManager {
 		Preconditions.checkArgument(slot >= 0, "slot must be non-negative.");
 		Preconditions.checkArgument(slot < maxSlots, "slot must be less than the max slots.");
 
-		SaveFile saveFile = getSaveFile(channelId, story, slot, true).get();
+		IndexKey indexKey = new IndexKey(channelId, story.getName());
+		return withGroupLock(indexKey, () -> {
+			activeGroups.add(indexKey);
+			SaveIndex.Entry entry = getIndex(indexKey).getSlots().get(slot);
 
-		return saveFile;
-	}
-
-	private Optional<SaveFile> getSaveFile(long channelId, Story story, int slot, boolean create) {
-		String expectedSaveFileName = getSaveFileName(channelId, story.getName(), slot);
-
-		File file = new File(saveDir.getAbsolutePath() + "/" + expectedSaveFileName);
-
-		if (!file.exists()) {
-			if (create) {
+			if (entry == null) {
+				File file = locateSaveFile(indexKey, slot);
 				try {
+					Files.createDirectories(file.getParentFile().toPath());
 					file.createNewFile();
 				} catch (IOException e) {
 					throw new UncheckedIOException(e);
 				}
-			} else {
-				return Optional.empty();
+
+				SaveIndex.Entry newEntry = new SaveIndex.Entry(null, file.length());
+				entry = updateIndex(indexKey,
+						index -> index.getSlots().containsKey(slot) ? index : index.withSlot(slot, newEntry))
+								.getSlots().get(slot);
 			}
+
+			return toSaveFile(indexKey, slot, entry);
+		});
+	}
+
+	@Override
+	public SaveFile getAutosaveFile(long channelId, Story story) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+
+		// The autosave takes the slot just past the last one. It has no index entry
+		// and no history, since it's replaced every few turns.
+		File file = layout.getSaveFile(channelId, story.getName(), maxSlots);
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 
-		SaveFileMetadata metadata = null;
+		return SaveFile.builder().slot(maxSlots).storyName(story.getName()).file(file).build();
+	}
+
+	@Override
+	public SaveFile saveNewMetadata(long channelId, SaveFile saveFile, SaveFileMetadata newSaveFileMetadata) {
+		Preconditions.checkNotNull(saveFile, "saveFile must be non-null.");
+		Preconditions.checkNotNull(newSaveFileMetadata, "newSaveFileMetadata must be non-null.");
+
+		IndexKey indexKey = new IndexKey(channelId, saveFile.getStoryName());
+		int slot = saveFile.getSlot();
+		return withGroupLock(indexKey, () -> {
+			SaveIndex index = updateIndex(indexKey, current -> {
+				SaveIndex.Entry entry = current.getSlots().get(slot);
+				if (entry != null && !entry.getVersions().isEmpty()) {
+					return current.withSlot(slot, entry.withMetadata(newSaveFileMetadata));
+				}
+
+				return current.withSlot(slot,
+						new SaveIndex.Entry(newSaveFileMetadata, locateSaveFile(indexKey, slot).length()));
+			});
 
-		String expectedMetadataFileName = getMetadataFileName(channelId, story.getName(), slot);
-		File metadataFile = new File(saveDir.getAbsolutePath() + "/" + expectedMetadataFileName);
-		if (metadataFile.exists()) {
+			return toSaveFile(indexKey, slot, index.getSlots().get(slot));
+		});
+	}
+
+	@Override
+	public void deleteSaveFile(long channelId, Story story, int slot) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+		Preconditions.checkArgument(slot >= 0, "slot must be non-negative.");
+		Preconditions.checkArgument(slot < maxSlots, "slot must be less that the maximum number of slots.");
+
+		IndexKey indexKey = new IndexKey(channelId, story.getName());
+		withGroupLock(indexKey, () -> {
+			updateIndex(indexKey, index -> index.withoutSlot(slot));
+
+			layout.getSaveFile(channelId, story.getName(), slot).delete();
+			layout.getFlatSaveFile(channelId, story.getName(), slot).delete();
+			layout.getFlatMetadataFile(channelId, story.getName(), slot).delete();
+			return null;
+		});
+	}
+
+	@Override
+	public List<SaveVersion> getSaveVersions(long channelId, Story story, int slot) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+
+		IndexKey indexKey = new IndexKey(channelId, story.getName());
+		SaveIndex.Entry entry = withGroupLock(indexKey, () -> getIndex(indexKey).getSlots().get(slot));
+
+		return entry != null ? entry.getVersions() : ImmutableList.of();
+	}
+
+	@Override
+	public SaveFile revertSaveFile(long channelId, Story story, int slot, int versionNumber) {
+		Preconditions.checkNotNull(story, "story must be non-null.");
+
+		IndexKey indexKey = new IndexKey(channelId, story.getName());
+		return withGroupLock(indexKey, () -> {
+			SaveIndex index = updateIndex(indexKey, current -> {
+				SaveIndex.Entry entry = current.getSlots().get(slot);
+				SaveVersion version = entry == null ? null
+						: entry.getVersions().stream().filter(v -> v.getNumber() == versionNumber).findFirst()
+								.orElse(null);
+				Preconditions.checkArgument(version != null, "Slot %s has no version %s.", slot, versionNumber);
+
+				// The version's chunks are already in use by the slot, so they don't need
+				// to be stored again.
+				SaveVersion reverted = new SaveVersion(entry.getNextVersionNumber(), version.getMetadata(),
+						version.getSize(), version.getChunks());
+				return current.withSlot(slot, entry.withVersion(reverted, Math.max(1, historyVersions)));
+			});
+
+			return toSaveFile(indexKey, slot, index.getSlots().get(slot));
+		});
+	}
+
+	/**
+	 * Deletes the chunks that no version of any slot uses any more, and works out
+	 * how much space the chunks save.
+	 *
+	 * @return {@link SaveHistoryStats}
+	 */
+	SaveHistoryStats sweepChunks() {
+		if (historyVersions == 0 && !layout.getChunksDir().exists()) {
+			return historyStats;
+		}
+
+		// Taken before any index is read, so that chunks stored by saves made during
+		// the sweep are never deleted.
+		long startMillis = System.currentTimeMillis();
+
+		Set<String> liveHashes = new HashSet<>();
+		long versions = 0;
+		long logicalBytes = 0;
+		for (File indexFile : layout.findIndexFiles()) {
+			File storyDir = indexFile.getParentFile();
+			IndexKey indexKey;
 			try {
-				metadata = objectMapper.readValue(metadataFile, SaveFileMetadata.class);
-			} catch (IOException e) {
-				throw new UncheckedIOException(e);
+				indexKey = new IndexKey(Long.parseLong(storyDir.getParentFile().getName()), storyDir.getName());
+			} catch (NumberFormatException e) {
+				continue;
+			}
+
+			SaveIndex index = withGroupLock(indexKey, () -> getIndex(indexKey));
+			for (SaveIndex.Entry entry : index.getSlots().values()) {
+				for (SaveVersion version : entry.getVersions()) {
+					versions++;
+					logicalBytes += version.getSize();
+					liveHashes.addAll(version.getChunks());
+				}
 			}
 		}
 
-		SaveFile saveFile = SaveFile.builder().file(file).slot(slot).storyName(story.getName()).metadata(metadata)
+		SaveChunkStore.SweepResult result = chunkStore.sweep(liveHashes, startMillis);
+
+		this.historyStats = SaveHistoryStats.builder()
+				.versions(versions)
+				.chunks(liveHashes.size())
+				.logicalBytes(logicalBytes)
+				.storedBytes(result.getStoredBytes())
+				.sweptChunks(result.getDeletedChunks())
 				.build();
+		return historyStats;
+	}
 
-		return Optional.of(saveFile);
+	/**
+	 * Gets how much disk the versioned saves took as of the last chunk sweep.
+	 *
+	 * @return {@link SaveHistoryStats}
+	 */
+	SaveHistoryStats getHistoryStats() {
+		return historyStats;
 	}
 
-	@Override
-	public SaveFile saveNewMetadata(long channelId, SaveFile saveFile, SaveFileMetadata newSaveFileMetadata) {
-		Preconditions.checkNotNull(saveFile, "saveFile must be non-null.");
-		Preconditions.checkNotNull(newSaveFileMetadata, "newSaveFileMetadata must be non-null.");
+	/**
+	 * Moves every save out of the flat layout, except for those of stories that
+	 * have been used since startup. Once nothing is left in the flat layout, it is
+	 * no longer checked.
+	 *
+	 * @return The number of stories that were migrated.
+	 */
+	int migrateFlatLayout() {
+		// Group the files first, since the directory changes as they are moved.
+		Set<IndexKey> groups = new LinkedHashSet<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(saveDir.toPath())) {
+			for (Path file : files) {
+				layout.parseFlatFileName(file.getFileName().toString()).ifPresent(
+						flatFile -> groups.add(new IndexKey(flatFile.getChannelId(), flatFile.getStoryName())));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 
-		// Persist the new save file metadata
-		String metadataFileName = getMetadataFileName(channelId, saveFile.getStoryName(), saveFile.getSlot());
+		// From now on, only these stories are looked up in the flat layout.
+		Set<IndexKey> remaining = ConcurrentHashMap.newKeySet();
+		remaining.addAll(groups);
+		flatGroups = remaining;
+
+		int migrated = 0;
+		boolean skipped = false;
+		for (IndexKey indexKey : groups) {
+			if (activeGroups.contains(indexKey)) {
+				skipped = true;
+				continue;
+			}
 
-		File metadataFile = new File(saveDir.getAbsolutePath() + "/" + metadataFileName);
+			boolean moved = withGroupLock(indexKey, () -> {
+				// Checked again, now that nothing else can touch this story's files.
+				if (activeGroups.contains(indexKey)) {
+					return false;
+				}
+
+				migrateGroup(indexKey);
+				remaining.remove(indexKey);
+				return true;
+			});
+
+			if (moved) {
+				migrated++;
+			} else {
+				skipped = true;
+			}
+		}
+
+		if (!skipped) {
+			flatLayoutMigrated = true;
+		}
+
+		return migrated;
+	}
+
+	/**
+	 * Whether every save has been moved out of the flat layout.
+	 *
+	 * @return True if the flat layout is no longer used.
+	 */
+	boolean isFlatLayoutMigrated() {
+		return flatLayoutMigrated;
+	}
 
+	private void migrateGroup(IndexKey indexKey) {
+		long channelId = indexKey.getChannelId();
+		String storyName = indexKey.getStoryName();
+
+		// Rewriting the index puts it in the new layout. If there was no index, it is
+		// built from the per-slot metadata files first.
+		SaveIndex index = updateIndex(indexKey, UnaryOperator.identity());
+
+		for (int slot : index.getSlots().keySet()) {
+			File flatFile = layout.getFlatSaveFile(channelId, storyName, slot);
+			if (flatFile.exists()) {
+				move(flatFile, layout.getSaveFile(channelId, storyName, slot));
+			}
+		}
+
+		for (int slot = 0; slot < maxSlots; slot++) {
+			layout.getFlatMetadataFile(channelId, storyName, slot).delete();
+		}
+
+		LOG.debug("Migrated the saves of story {} in channel {}.", storyName, channelId);
+	}
+
+	private void move(File source, File target) {
 		try {
-			objectMapper.writeValue(metadataFile, newSaveFileMetadata);
+			Files.createDirectories(target.getParentFile().toPath());
+			try {
+				Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
+	}
 
-		return SaveFile.builder().file(saveFile.getFile()).slot(saveFile.getSlot()).storyName(saveFile.getStoryName())
-				.metadata(newSaveFileMetadata).build();
+	private <T> T withGroupLock(IndexKey indexKey, Supplier<T> action) {
+		Lock lock = groupLocks.get(indexKey);
+		lock.lock();
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	private String getSaveFileName(long channelId, String storyName, int slot) {
-		String fileName = String.format("%s_%s_slot%s.save", channelId, storyName, slot);
-		return fileName;
+	private SaveFile toSaveFile(IndexKey indexKey, int slot, SaveIndex.Entry entry) {
+		SaveFile.SaveFileBuilder builder = SaveFile.builder().slot(slot).storyName(indexKey.getStoryName())
+				.metadata(entry.getMetadata());
+
+		// A versioned slot stays versioned even if history has since been turned off.
+		if (historyVersions > 0 || !entry.getVersions().isEmpty()) {
+			return builder.storage(new VersionedSlotStorage(indexKey, slot)).build();
+		}
+
+		return builder.file(locateSaveFile(indexKey, slot)).build();
 	}
 
-	private String getMetadataFileName(long channelId, String storyName, int slot) {
-		String fileName = String.format("%s_%s_slot%s.meta", channelId, storyName, slot);
-		return fileName;
+	/**
+	 * Stores a save as a new version of a slot, and drops the oldest versions past
+	 * the limit.
+	 */
+	private void writeVersion(IndexKey indexKey, int slot, byte[] save) {
+		withGroupLock(indexKey, () -> {
+			// The chunks are stored under the group lock, so that a sweep can't list
+			// this index between the chunks being stored and the index referring to
+			// them.
+			List<String> chunks = SaveChunker.split(save).stream().map(chunkStore::put)
+					.collect(Collectors.toList());
+
+			updateIndex(indexKey, index -> {
+				SaveIndex.Entry entry = index.getSlots().getOrDefault(slot, new SaveIndex.Entry(null, 0));
+				SaveVersion version = new SaveVersion(entry.getNextVersionNumber(), null, save.length, chunks);
+				return index.withSlot(slot, entry.withVersion(version, Math.max(1, historyVersions)));
+			});
+
+			// The slot's plain save file, if it had one, is no longer read.
+			layout.getSaveFile(indexKey.getChannelId(), indexKey.getStoryName(), slot).delete();
+			if (mayBeFlat(indexKey)) {
+				layout.getFlatSaveFile(indexKey.getChannelId(), indexKey.getStoryName(), slot).delete();
+			}
+			return null;
+		});
 	}
 
-	@Override
-	public void deleteSaveFile(long channelId, Story story, int slot) {
-		Preconditions.checkNotNull(story, "story must be non-null.");
-		Preconditions.checkArgument(slot >= 0, "slot must be non-negative.");
-		Preconditions.checkArgument(slot < maxSlots, "slot must be less that the maximum number of slots.");
+	private byte[] readVersion(SaveVersion version) {
+		ByteArrayOutputStream save = new ByteArrayOutputStream((int) version.getSize());
+		for (String hash : version.getChunks()) {
+			byte[] chunk = chunkStore.get(hash);
+			save.write(chunk, 0, chunk.length);
+		}
+		return save.toByteArray();
+	}
+
+	/**
+	 * Finds a slot's save file. Unmigrated saves stay in the flat layout, and
+	 * everything else goes in the sharded one.
+	 */
+	private File locateSaveFile(IndexKey indexKey, int slot) {
+		if (mayBeFlat(indexKey)) {
+			File flatFile = layout.getFlatSaveFile(indexKey.getChannelId(), indexKey.getStoryName(), slot);
+			if (flatFile.exists()) {
+				return flatFile;
+			}
+		}
+
+		return layout.getSaveFile(indexKey.getChannelId(), indexKey.getStoryName(), slot);
+	}
+
+	/**
+	 * Whether a story may still have files in the flat layout. Once the flat
+	 * layout has been scanned, only the stories that haven't been migrated are.
+	 */
+	private boolean mayBeFlat(IndexKey indexKey) {
+		if (flatLayoutMigrated) {
+			return false;
+		}
+
+		Set<IndexKey> groups = flatGroups;
+		return groups == null || groups.contains(indexKey);
+	}
+
+	private SaveIndex getIndex(IndexKey indexKey) {
+		try {
+			return indexes.get(indexKey, () -> readIndex(indexKey));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw (UncheckedIOException) e.getCause();
+			}
+			throw new IllegalStateException("Could not read the save index.", e.getCause());
+		}
+	}
+
+	/**
+	 * Changes an index and writes it through to disk. Changes to the same index
+	 * are serialized.
+	 *
+	 * @return The updated index.
+	 */
+	private SaveIndex updateIndex(IndexKey indexKey, UnaryOperator<SaveIndex> change) {
+		return indexes.asMap().compute(indexKey, (key, current) -> {
+			SaveIndex updated = change.apply(current != null ? current : readIndex(key));
+			writeIndex(key, updated);
+			return updated;
+		});
+	}
+
+	private SaveIndex readIndex(IndexKey indexKey) {
+		File indexFile = layout.getIndexFile(indexKey.getChannelId(), indexKey.getStoryName());
+		if (!indexFile.exists() && mayBeFlat(indexKey)) {
+			indexFile = layout.getFlatIndexFile(indexKey.getChannelId(), indexKey.getStoryName());
+		}
+
+		if (indexFile.exists()) {
+			try {
+				return objectMapper.readValue(indexFile, SaveIndex.class);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		// There is no index yet, so build one from the slot files that the index
+		// replaced.
+		return mayBeFlat(indexKey) ? readLegacyIndex(indexKey) : SaveIndex.empty();
+	}
+
+	private SaveIndex readLegacyIndex(IndexKey indexKey) {
+		SaveIndex index = SaveIndex.empty();
+
+		for (int slot = 0; slot < maxSlots; slot++) {
+			File file = layout.getFlatSaveFile(indexKey.getChannelId(), indexKey.getStoryName(), slot);
+			if (!file.exists()) {
+				continue;
+			}
+
+			SaveFileMetadata metadata = null;
+			File metadataFile = layout.getFlatMetadataFile(indexKey.getChannelId(), indexKey.getStoryName(), slot);
+			if (metadataFile.exists()) {
+				try {
+					metadata = objectMapper.readValue(metadataFile, SaveFileMetadata.class);
+				} catch (IOException e) {
+					// The save itself is still good, so keep it without its metadata rather
+					// than failing the whole story.
+					LOG.warn("Metadata file {} could not be read. Slot {} is kept without metadata.", metadataFile,
+							slot, e);
+				}
+			}
 
-		String saveFileName = getSaveFileName(channelId, story.getName(), slot);
-		String metadataFileName = getMetadataFileName(channelId, story.getName(), slot);
+			index = index.withSlot(slot, new SaveIndex.Entry(metadata, file.length()));
+		}
+
+		return index;
+	}
+
+	/**
+	 * Writes an index to the sharded layout. Any copy in the flat layout is
+	 * removed, so that it is never read in place of this one.
+	 */
+	private void writeIndex(IndexKey indexKey, SaveIndex index) {
+		File indexFile = layout.getIndexFile(indexKey.getChannelId(), indexKey.getStoryName());
+
+		if (index.getSlots().isEmpty()) {
+			indexFile.delete();
+		} else {
+			AtomicFileOutputStream out = null;
+			try {
+				Files.createDirectories(indexFile.getParentFile().toPath());
+				out = new AtomicFileOutputStream(indexFile.toPath());
+				objectMapper.writeValue(out, index);
+				out.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				if (out != null) {
+					out.abort();
+				}
+			}
+		}
+
+		if (mayBeFlat(indexKey)) {
+			layout.getFlatIndexFile(indexKey.getChannelId(), indexKey.getStoryName()).delete();
+		}
+	}
+
+	/**
+	 * A slot whose saves are kept as versions. Until it is first saved to, it is
+	 * read from its plain save file, if any.
+	 */
+	private class VersionedSlotStorage implements SaveSlotStorage {
+
+		private final IndexKey indexKey;
+		private final int slot;
+
+		VersionedSlotStorage(IndexKey indexKey, int slot) {
+			this.indexKey = indexKey;
+			this.slot = slot;
+		}
+
+		@Override
+		public SaveOutputStream openOutputStream() {
+			return new SaveOutputStream() {
+
+				private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				private boolean closed;
+
+				@Override
+				public void write(int b) {
+					buffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					buffer.write(b, off, len);
+				}
+
+				@Override
+				public void close() {
+					if (closed) {
+						return;
+					}
+					closed = true;
+
+					writeVersion(indexKey, slot, buffer.toByteArray());
+				}
+
+				@Override
+				public void abort() {
+					closed = true;
+				}
+			};
+		}
+
+		@Override
+		public InputStream openInputStream() throws IOException {
+			// Read under the group lock, so that the version can't be dropped and swept
+			// while its chunks are read.
+			byte[] save = withGroupLock(indexKey, () -> {
+				SaveIndex.Entry entry = getIndex(indexKey).getSlots().get(slot);
+				return entry != null ? entry.getLatestVersion().map(SaveManagerImpl.this::readVersion).orElse(null)
+						: null;
+			});
+
+			if (save == null) {
+				return new FileSlotStorage(locateSaveFile(indexKey, slot)).openInputStream();
+			}
+			return new ByteArrayInputStream(save);
+		}
+
+		@Override
+		public URI getURI() {
+			return URI.create(layout.getIndexFile(indexKey.getChannelId(), indexKey.getStoryName()).toURI()
+					+ "#slot" + slot);
+		}
+	}
 
-		File saveFile = new File(saveDir.getAbsolutePath() + "/" + saveFileName);
-		File metadataFile = new File(saveDir.getAbsolutePath() + "/" + metadataFileName);
+	@Data
+	private static class IndexKey {
 
-		saveFile.delete();
-		metadataFile.delete();
+		private final long channelId;
+		private final String storyName;
 	}
 }
@@ -0,0 +1,15 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.OutputStream;
+
+/**
+ * A stream that writes a save. Nothing is saved until the stream is closed.
+ */
+abstract class SaveOutputStream extends OutputStream {
+
+	/**
+	 * Closes the stream and discards everything written to it. The slot is left
+	 * as it was. Does nothing if the stream is already closed.
+	 */
+	public abstract void abort();
+}
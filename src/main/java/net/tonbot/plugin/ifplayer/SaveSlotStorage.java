@@ -0,0 +1,37 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * Where the contents of a save slot are kept.
+ */
+interface SaveSlotStorage {
+
+	/**
+	 * Opens a stream that replaces the slot's contents when it is closed. The
+	 * caller must either close or abort the stream.
+	 * 
+	 * @return {@link SaveOutputStream}
+	 * @throws IOException
+	 *             If the stream could not be opened.
+	 */
+	SaveOutputStream openOutputStream() throws IOException;
+
+	/**
+	 * Opens a stream of the slot's contents. The caller must close the stream.
+	 * 
+	 * @return {@link InputStream}
+	 * @throws IOException
+	 *             If the stream could not be opened.
+	 */
+	InputStream openInputStream() throws IOException;
+
+	/**
+	 * Gets a URI that identifies the slot, for logging.
+	 * 
+	 * @return A {@link URI}.
+	 */
+	URI getURI();
+}
@@ -0,0 +1,20 @@
+package net.tonbot.plugin.ifplayer;
+
+/**
+ * Where save slots are kept.
+ */
+enum SaveStoreType {
+
+	/**
+	 * Each slot is kept in its own file, with an index file per story per
+	 * channel. See {@link SaveManagerImpl}.
+	 */
+	FILES,
+
+	/**
+	 * Every slot is kept in a few large, append-only log segments, with an index
+	 * in memory. This uses far fewer files and syncs when there are many slots.
+	 * See {@link LogSaveManager}.
+	 */
+	LOG;
+}
@@ -0,0 +1,65 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import lombok.Data;
+
+/**
+ * One version of a save slot, stored as a list of chunks in a
+ * {@link SaveChunkStore}. Immutable.
+ */
+@Data
+class SaveVersion {
+
+	/**
+	 * Numbers versions within a slot, from 1. They are never reused, so a
+	 * version keeps its number as older ones are dropped.
+	 */
+	@JsonProperty("number")
+	private final int number;
+
+	/**
+	 * Null until the save's metadata has been recorded.
+	 */
+	@JsonProperty("metadata")
+	private final SaveFileMetadata metadata;
+
+	/**
+	 * The size of the save in bytes.
+	 */
+	@JsonProperty("size")
+	private final long size;
+
+	/**
+	 * The hashes of the save's chunks, in order.
+	 */
+	@JsonProperty("chunks")
+	private final List<String> chunks;
+
+	@JsonCreator
+	public SaveVersion(@JsonProperty("number") int number, @JsonProperty("metadata") SaveFileMetadata metadata,
+			@JsonProperty("size") long size, @JsonProperty("chunks") List<String> chunks) {
+		Preconditions.checkArgument(number > 0, "number must be positive.");
+		this.number = number;
+		this.metadata = metadata;
+		this.size = size;
+		this.chunks = ImmutableList.copyOf(Preconditions.checkNotNull(chunks, "chunks must be non-null."));
+	}
+
+	/**
+	 * Returns this version with the given metadata.
+	 * 
+	 * @param metadata
+	 *            {@link SaveFileMetadata}. Non-null.
+	 * @return A new {@link SaveVersion}.
+	 */
+	public SaveVersion withMetadata(SaveFileMetadata metadata) {
+		Preconditions.checkNotNull(metadata, "metadata must be non-null.");
+		return new SaveVersion(number, metadata, size, chunks);
+	}
+}
@@ -14,9 +14,25 @@ class ScreenState {
 	private final String statusLineObjectName;
 	private final String statusLineScoreOrTime;
 
+	/**
+	 * The contents of each window, from top to bottom. The last window is the
+	 * scrolling one. The others persist between turns.
+	 */
 	@NonNull
 	private final List<String> windowContents;
 
+	/**
+	 * Whether each window's contents differ from the previous turn. Nullable, in
+	 * which case every window is considered changed.
+	 */
+	private final List<Boolean> windowChanges;
+
+	/**
+	 * The number of lines that were cut from the start of the scrolling window
+	 * because the turn printed too much.
+	 */
+	private final int truncatedLineCount;
+
 	public Optional<String> getStatusLineObjectName() {
 		return Optional.ofNullable(statusLineObjectName);
 	}
@@ -24,4 +40,15 @@ class ScreenState {
 	public Optional<String> getStatusLineScoreOrTime() {
 		return Optional.ofNullable(statusLineScoreOrTime);
 	}
+
+	/**
+	 * Checks whether a window's contents differ from the previous turn.
+	 * 
+	 * @param index
+	 *            The index of the window in {@link #getWindowContents()}.
+	 * @return True if the window changed, or if it isn't known.
+	 */
+	public boolean isWindowChanged(int index) {
+		return windowChanges == null || windowChanges.get(index);
+	}
 }
@@ -11,17 +11,14 @@ import com.google.inject.Inject;
 
 import lombok.Builder;
 import lombok.Data;
-import sx.blah.discord.api.IDiscordClient;
 import sx.blah.discord.handle.obj.IChannel;
-import sx.blah.discord.util.DiscordException;
-import sx.blah.discord.util.MissingPermissionsException;
-import sx.blah.discord.util.RequestBuffer;
-import sx.blah.discord.util.RequestBuilder;
 
 /**
  * This class will:
  * <ul>
  * <li>render the game's screen as messages</li>
+ * <li>optionally, render the persistent windows in one pinned message that is
+ * edited in place</li>
  * <li>render the status lines in the channel's topic</li>
  * <li>render the IF player's save slot selection in the channel's topic</li>
  * </ul>
@@ -35,14 +32,28 @@ class ScreenStateRenderer {
 	private static final Logger LOG = LoggerFactory.getLogger(ScreenStateRenderer.class);
 	private static final int SEPARATION = 15;
 
-	private final IDiscordClient discordClient;
+	private final OutboundMessageQueue outboundMessageQueue;
+	private final ChannelTopicUpdater channelTopicUpdater;
 
 	private Topic lastTopic;
 
+	/**
+	 * The pinned message showing the persistent windows. Null unless the status
+	 * message is edited in place, and once it has been released. Only changed from
+	 * the session's mailbox, but read once per use all the same.
+	 */
+	private volatile StatusMessage statusMessage;
+
 	@Inject
-	public ScreenStateRenderer(IDiscordClient discordClient) {
-		this.discordClient = Preconditions.checkNotNull(discordClient, "discordClient must be non-null.");
+	public ScreenStateRenderer(OutboundMessageQueue outboundMessageQueue, ChannelTopicUpdater channelTopicUpdater,
+			Config config) {
+		this.outboundMessageQueue = Preconditions.checkNotNull(outboundMessageQueue,
+				"outboundMessageQueue must be non-null.");
+		this.channelTopicUpdater = Preconditions.checkNotNull(channelTopicUpdater,
+				"channelTopicUpdater must be non-null.");
+		Preconditions.checkNotNull(config, "config must be non-null.");
 		this.lastTopic = Topic.builder().build();
+		this.statusMessage = config.isStatusMessageInPlace() ? new StatusMessage() : null;
 	}
 
 	/**
@@ -64,7 +75,9 @@ class ScreenStateRenderer {
 
 		// Render the screen
 		if (!gm.isStopped() && screenState != null) {
-			sendScreen(screenState.getWindowContents(), channel);
+			sendScreen(screenState, channel);
+		} else if (gm.isStopped()) {
+			releaseStatus(channel);
 		}
 
 		// Render the topic
@@ -93,33 +106,85 @@ class ScreenStateRenderer {
 		this.lastTopic = newTopic;
 	}
 
-	private void sendScreen(List<String> windowContents, IChannel channel) {
-		// TODO: Split the message if it exceeds Discord's maximum characters per
-		// message (2000).
+	/**
+	 * Unpins the status message, if there is one, and leaves the topic alone. Used
+	 * once the session has stopped, so that a stale status isn't left pinned.
+	 * 
+	 * @param channel
+	 *            {@link IChannel} Non-null.
+	 */
+	public void releaseStatus(IChannel channel) {
+		Preconditions.checkNotNull(channel, "channel must be non-null.");
+
+		StatusMessage released = statusMessage;
+		if (released != null) {
+			statusMessage = null;
+			outboundMessageQueue.releaseStatus(channel, released);
+		}
+	}
+
+	private void sendScreen(ScreenState screenState, IChannel channel) {
 		StringBuffer discordMessageBuffer = new StringBuffer();
+		StringBuffer statusBuffer = new StringBuffer();
+		boolean statusChanged = false;
+
+		// Read once, so the status is either fully rendered or not at all.
+		StatusMessage statusMessage = this.statusMessage;
+
+		List<String> windowContents = screenState.getWindowContents();
+		for (int i = 0; i < windowContents.size(); i++) {
+			String windowContent = windowContents.get(i);
+			boolean isScrollingWindow = i == windowContents.size() - 1;
+
+			if (!isScrollingWindow && statusMessage != null) {
+				// The status message is replaced as a whole, so it needs every persistent
+				// window, not just the ones that changed.
+				statusChanged |= screenState.isWindowChanged(i);
+				appendCodeBlock(statusBuffer, windowContent);
+				continue;
+			}
 
-		for (String windowContent : windowContents) {
+			// Persistent windows, such as a status bar, are only sent again when they change.
+			if (!isScrollingWindow && !screenState.isWindowChanged(i)) {
+				continue;
+			}
 
 			if (windowContent.length() != 0) {
 
-				discordMessageBuffer.append("```");
-				discordMessageBuffer.append(windowContent);
-				discordMessageBuffer.append("```");
+				if (isScrollingWindow && screenState.getTruncatedLineCount() > 0) {
+					discordMessageBuffer.append("*(").append(screenState.getTruncatedLineCount())
+							.append(" earlier lines were cut off.)*\n");
+				}
+
+				appendCodeBlock(discordMessageBuffer, windowContent);
 			}
 		}
 
+		String status = statusBuffer.toString();
+		boolean sendStatus = statusChanged && !StringUtils.isBlank(status);
+		if (sendStatus) {
+			outboundMessageQueue.updateStatus(channel, statusMessage, status);
+		}
+
 		String output = discordMessageBuffer.toString();
 
 		if (!StringUtils.isBlank(output)) {
-			new RequestBuilder(discordClient).shouldBufferRequests(true).setAsync(true).doAction(() -> {
-				channel.sendMessage(output);
-				return true;
-			}).execute();
-		} else {
+			// Long output is split into several messages by the queue, which sends them in
+			// order after anything already queued for the channel.
+			outboundMessageQueue.send(channel, output);
+		} else if (!sendStatus) {
 			LOG.warn("Screens are blank.");
 		}
 	}
 
+	private static void appendCodeBlock(StringBuffer sb, String windowContent) {
+		if (windowContent.length() != 0) {
+			sb.append("```");
+			sb.append(windowContent);
+			sb.append("```");
+		}
+	}
+
 	private void updateChannelTopic(Topic topic, IChannel channel) {
 		StringBuffer sb = new StringBuffer();
 
@@ -153,16 +218,9 @@ class ScreenStateRenderer {
 			sb.append("Not playing anything.");
 		}
 
-		RequestBuffer.request(() -> {
-			try {
-				channel.changeTopic(sb.toString());
-			} catch (MissingPermissionsException e) {
-				// This is fine. Just ignore it.
-				LOG.debug("Could not set channel topic, and therefore could not set status line.", e);
-			} catch (DiscordException e) {
-				LOG.error("Topic could not be set.", e);
-			}
-		});
+		// Unchanged topics are dropped and rapid changes are debounced, since Discord
+		// only allows a few topic changes every ten minutes.
+		channelTopicUpdater.update(channel, sb.toString());
 	}
 
 	@Data
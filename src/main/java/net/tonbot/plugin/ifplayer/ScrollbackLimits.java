@@ -0,0 +1,22 @@
+package net.tonbot.plugin.ifplayer;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Limits on how much of a turn's output the scrolling lower window keeps.
+ */
+@Data
+@Builder
+class ScrollbackLimits {
+
+	/**
+	 * The number of lines to keep. Older lines are dropped.
+	 */
+	private final int maxLines;
+
+	/**
+	 * The length after which a line is wrapped.
+	 */
+	private final int maxLineLength;
+}
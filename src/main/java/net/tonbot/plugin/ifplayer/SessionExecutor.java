@@ -0,0 +1,37 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * The worker pool that runs turns for every session. Each session gets a
+ * {@link SessionMailbox} on this pool, so game machines never run on Discord's
+ * event dispatch thread.
+ */
+class SessionExecutor {
+
+	private final ExecutorService workers;
+	private final int mailboxCapacity;
+
+	@Inject
+	public SessionExecutor(Config config) {
+		Preconditions.checkNotNull(config, "config must be non-null.");
+
+		this.workers = Executors.newFixedThreadPool(config.getSessionWorkerThreads(),
+				new ThreadFactoryBuilder().setNameFormat("ifplayer-session-%d").setDaemon(true).build());
+		this.mailboxCapacity = config.getSessionMailboxCapacity();
+	}
+
+	/**
+	 * Creates a mailbox for a new session.
+	 *
+	 * @return A new {@link SessionMailbox}.
+	 */
+	public SessionMailbox newMailbox() {
+		return new SessionMailbox(workers, mailboxCapacity);
+	}
+}
@@ -0,0 +1,145 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded queue of work for one {@link Session}. Work runs on a shared
+ * {@link Executor}, strictly in submission order and never on more than one
+ * thread at a time. Mailboxes of different sessions run in parallel.
+ */
+class SessionMailbox {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SessionMailbox.class);
+
+	private final Executor executor;
+	private final int capacity;
+
+	private final Queue<Runnable> queue;
+	private final AtomicInteger depth;
+	private final AtomicBoolean scheduled;
+
+	/**
+	 * Work that must run before anything else in the queue. Only set by the
+	 * thread that is running this mailbox.
+	 */
+	private volatile Runnable continuation;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param executor
+	 *            The shared {@link Executor} to run work on. Non-null.
+	 * @param capacity
+	 *            The maximum number of pending tasks. Must be positive.
+	 */
+	public SessionMailbox(Executor executor, int capacity) {
+		this.executor = Preconditions.checkNotNull(executor, "executor must be non-null.");
+		Preconditions.checkArgument(capacity > 0, "capacity must be positive.");
+		this.capacity = capacity;
+
+		this.queue = new ConcurrentLinkedQueue<>();
+		this.depth = new AtomicInteger(0);
+		this.scheduled = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Enqueues a task.
+	 *
+	 * @param task
+	 *            The task. Non-null.
+	 * @return True if the task was accepted. False if the mailbox is full.
+	 */
+	public boolean offer(Runnable task) {
+		Preconditions.checkNotNull(task, "task must be non-null.");
+
+		if (depth.incrementAndGet() > capacity) {
+			depth.decrementAndGet();
+			return false;
+		}
+
+		queue.add(task);
+		scheduleIfIdle();
+		return true;
+	}
+
+	/**
+	 * Enqueues the last task of a session. Unlike {@link #offer(Runnable)}, it is
+	 * accepted even if the mailbox is full, so that a session is always cleaned
+	 * up.
+	 *
+	 * @param task
+	 *            The task. Non-null.
+	 */
+	public void offerFinal(Runnable task) {
+		Preconditions.checkNotNull(task, "task must be non-null.");
+
+		depth.incrementAndGet();
+		queue.add(task);
+		scheduleIfIdle();
+	}
+
+	/**
+	 * Gives up the worker and schedules the rest of the current task to run
+	 * before any other queued task. May only be called from a running task.
+	 * 
+	 * @param continuation
+	 *            The rest of the current task. Non-null.
+	 */
+	public void yieldTo(Runnable continuation) {
+		Preconditions.checkNotNull(continuation, "continuation must be non-null.");
+		Preconditions.checkState(scheduled.get(), "yieldTo may only be called from a running task.");
+
+		this.continuation = continuation;
+	}
+
+	/**
+	 * Gets the number of tasks that have been accepted but not yet finished.
+	 *
+	 * @return The queue depth.
+	 */
+	public int getDepth() {
+		return depth.get();
+	}
+
+	private void scheduleIfIdle() {
+		if ((continuation != null || !queue.isEmpty()) && scheduled.compareAndSet(false, true)) {
+			executor.execute(this::runNext);
+		}
+	}
+
+	private void runNext() {
+		Runnable task = continuation;
+		if (task != null) {
+			continuation = null;
+		} else {
+			task = queue.poll();
+		}
+
+		try {
+			if (task != null) {
+				task.run();
+			}
+		} catch (RuntimeException e) {
+			LOG.error("Session task failed.", e);
+		} finally {
+			// A task only leaves the mailbox once its last continuation has finished.
+			if (task != null && continuation == null) {
+				depth.decrementAndGet();
+			}
+
+			// Run one task at a time, then yield the worker so that other sessions get a
+			// turn.
+			scheduled.set(false);
+			scheduleIfIdle();
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package net.tonbot.plugin.ifplayer;
 
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import net.tonbot.common.TonbotBusinessException;
 import sx.blah.discord.handle.obj.IChannel;
@@ -8,8 +9,8 @@ import sx.blah.discord.handle.obj.IChannel;
 interface SessionManager {
 
 	/**
-	 * Creates a {@link Session} with the name of a story. Overwrites any existing
-	 * session.
+	 * Creates a {@link Session} with the name of a story. Atomically replaces any
+	 * existing session for the same key.
 	 * 
 	 * @param sessionKey
 	 *            {@link SessionKey}. Non-null.
@@ -17,14 +18,17 @@ interface SessionManager {
 	 *            {@link IChannel}. Non-null.
 	 * @param story
 	 *            The story. Non-null.
+	 * @param onReplaced
+	 *            Called with the session that is no longer current because of this
+	 *            call, if any. The caller is responsible for stopping it. Non-null.
 	 * @return {@link Session}. Non-null.
 	 * @throws TonbotBusinessException
 	 *             if this method couldn't pick a story from the name.
 	 */
-	Session createSession(SessionKey sessionKey, IChannel channel, Story story);
+	Session createSession(SessionKey sessionKey, IChannel channel, Story story, Consumer<Session> onReplaced);
 
 	/**
-	 * Gets a {@link Session} by its {@link SessionKey}.
+	 * Gets a {@link Session} by its {@link SessionKey}. Never blocks.
 	 * 
 	 * @param sessionKey
 	 *            {@link SessionKey}. Non-null.
@@ -33,10 +37,22 @@ interface SessionManager {
 	Optional<Session> getSession(SessionKey sessionKey);
 
 	/**
-	 * Removes a {@link Session}.
+	 * Removes whichever {@link Session} is current for a key.
 	 * 
 	 * @param sessionKey
 	 *            The {@link SessionKey} of the session to remove. Non-null.
+	 * @return The removed {@link Session}, if there was one.
 	 */
-	void removeSession(SessionKey sessionKey);
+	Optional<Session> removeSession(SessionKey sessionKey);
+
+	/**
+	 * Removes a {@link Session}, but only if it is still the current session for
+	 * its key. A newer session for the same key is left alone.
+	 * 
+	 * @param session
+	 *            The session to remove. Non-null.
+	 * @return True if the session was removed. False if it had already been
+	 *         removed or replaced.
+	 */
+	boolean removeSession(Session session);
 }
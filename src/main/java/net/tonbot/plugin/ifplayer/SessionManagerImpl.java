@@ -2,31 +2,73 @@ package net.tonbot.plugin.ifplayer;
 
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 
-import sx.blah.discord.api.IDiscordClient;
 import sx.blah.discord.handle.obj.IChannel;
 
+/**
+ * Keeps the current {@link Session} of each channel. Lookups never lock. Every
+ * change is a single atomic operation on the session map, so racing creates and
+ * removes can neither lose a session nor leave two running for one channel.
+ */
 class SessionManagerImpl implements SessionManager {
 
 	private final ConcurrentHashMap<SessionKey, Session> sessions;
 
-	private final IDiscordClient discordClient;
+	/**
+	 * Generations are shared by every channel, so nothing is kept for a channel
+	 * once its last session is removed, and a channel's generations still only
+	 * ever go up.
+	 */
+	private final AtomicLong lastGeneration;
+
+	private final OutboundMessageQueue outboundMessageQueue;
+	private final ChannelTopicUpdater channelTopicUpdater;
 	private final SaveManager saveManager;
 	private final OnSavedCallback onSavedCallback;
+	private final OnAutosaveCallback onAutosaveCallback;
+	private final SessionExecutor sessionExecutor;
+	private final TurnBudget turnBudget;
+	private final ScrollbackLimits scrollbackLimits;
+	private final AutosavePolicy autosavePolicy;
+	private final Config config;
 
 	/**
 	 * Constructor.
 	 * 
+	 * @param outboundMessageQueue
+	 *            {@link OutboundMessageQueue}. Non-null.
+	 * @param channelTopicUpdater
+	 *            {@link ChannelTopicUpdater}. Non-null.
 	 * @param saveManager
 	 *            {@link SaveManager}. Non-null.
+	 * @param sessionExecutor
+	 *            {@link SessionExecutor}. Non-null.
+	 * @param autosaveWriter
+	 *            {@link AutosaveWriter}. Non-null.
+	 * @param config
+	 *            {@link Config}. Non-null.
 	 */
 	@Inject
-	public SessionManagerImpl(IDiscordClient discordClient, SaveManager saveManager) {
-		this.discordClient = Preconditions.checkNotNull(discordClient, "discordClient must be non-null.");
+	public SessionManagerImpl(OutboundMessageQueue outboundMessageQueue, ChannelTopicUpdater channelTopicUpdater,
+			SaveManager saveManager, SessionExecutor sessionExecutor, AutosaveWriter autosaveWriter, Config config) {
+		this.outboundMessageQueue = Preconditions.checkNotNull(outboundMessageQueue,
+				"outboundMessageQueue must be non-null.");
+		this.channelTopicUpdater = Preconditions.checkNotNull(channelTopicUpdater,
+				"channelTopicUpdater must be non-null.");
 		this.saveManager = Preconditions.checkNotNull(saveManager, "saveManager must be non-null.");
+		this.sessionExecutor = Preconditions.checkNotNull(sessionExecutor, "sessionExecutor must be non-null.");
+		Preconditions.checkNotNull(autosaveWriter, "autosaveWriter must be non-null.");
+		this.config = Preconditions.checkNotNull(config, "config must be non-null.");
+		this.turnBudget = config.getTurnBudget();
+		this.scrollbackLimits = config.getScrollbackLimits();
+		this.autosavePolicy = config.getAutosavePolicy();
 		this.onSavedCallback = new OnSavedCallback() {
 
 			@Override
@@ -36,8 +78,10 @@ class SessionManagerImpl implements SessionManager {
 			}
 
 		};
+		this.onAutosaveCallback = autosaveWriter::submit;
 
 		this.sessions = new ConcurrentHashMap<>();
+		this.lastGeneration = new AtomicLong();
 	}
 
 	@Override
@@ -49,31 +93,74 @@ class SessionManagerImpl implements SessionManager {
 	}
 
 	@Override
-	public Session createSession(SessionKey sessionKey, IChannel channel, Story story) {
+	public Session createSession(SessionKey sessionKey, IChannel channel, Story story,
+			Consumer<Session> onReplaced) {
 		Preconditions.checkNotNull(sessionKey, "sessionKey must be non-null.");
 		Preconditions.checkNotNull(channel, "channel must be non-null.");
 		Preconditions.checkNotNull(story, "story must be non-null.");
+		Preconditions.checkNotNull(onReplaced, "onReplaced must be non-null.");
 
 		SaveFile saveFile = saveManager.getSaveFile(channel.getLongID(), story, 0);
 
-		String sessionName = story.getName();
+		long generation = lastGeneration.incrementAndGet();
+		Session session = newSession(sessionKey, generation, channel, story, saveFile);
+
+		// The session is built outside of compute so that the map is only locked for
+		// the swap itself. When two creates race, the later generation wins and the
+		// loser is retired as if it had been replaced.
+		AtomicReference<Session> replaced = new AtomicReference<>();
+		sessions.compute(sessionKey, (key, current) -> {
+			if (current != null && current.getGeneration() > generation) {
+				replaced.set(session);
+				return current;
+			}
 
-		Session session = new Session(sessionKey, sessionName, story, saveFile, channel, onSavedCallback,
-				new ScreenStateRenderer(discordClient));
+			replaced.set(current);
+			return session;
+		});
 
-		sessions.put(sessionKey, session);
+		if (replaced.get() != null) {
+			onReplaced.accept(replaced.get());
+		}
 
 		return session;
 	}
 
+	/**
+	 * Builds a new {@link Session}. Does not register it.
+	 */
+	Session newSession(SessionKey sessionKey, long generation, IChannel channel, Story story, SaveFile saveFile) {
+		GameMachine gameMachine = new GameMachine(story, channel.getLongID(), onSavedCallback, turnBudget,
+				scrollbackLimits, autosavePolicy, onAutosaveCallback);
+		gameMachine.setSaveFile(saveFile);
+
+		ScreenStateRenderer screenStateRenderer = new ScreenStateRenderer(outboundMessageQueue, channelTopicUpdater,
+				config);
+		return new Session(sessionKey, generation, story.getName(), gameMachine, screenStateRenderer,
+				sessionExecutor.newMailbox());
+	}
+
 	@Override
-	public void removeSession(SessionKey sessionKey) {
+	public Optional<Session> removeSession(SessionKey sessionKey) {
 		Preconditions.checkNotNull(sessionKey, "sessionKey must be non-null.");
 
-		Session session = sessions.get(sessionKey);
+		return Optional.ofNullable(sessions.remove(sessionKey));
+	}
 
-		if (session != null) {
-			sessions.remove(sessionKey, session);
-		}
+	@Override
+	public boolean removeSession(Session session) {
+		Preconditions.checkNotNull(session, "session must be non-null.");
+
+		AtomicBoolean removed = new AtomicBoolean(false);
+		sessions.computeIfPresent(session.getSessionKey(), (key, current) -> {
+			if (current.getGeneration() != session.getGeneration()) {
+				return current;
+			}
+
+			removed.set(true);
+			return null;
+		});
+
+		return removed.get();
 	}
 }
@@ -25,7 +25,10 @@ interface SessionOrchestrator {
 	void create(IChannel channel, String storyName, String username);
 
 	/**
-	 * Advances the session. No-op if the given channel has no session.
+	 * Advances the session. No-op if the given channel has no session. The turn is
+	 * queued on the session's {@link SessionMailbox} and runs asynchronously. If
+	 * too much input is already queued, the input is dropped and the channel is
+	 * told so.
 	 * 
 	 * @param input
 	 *            The input to to provide to the game session. Nullable.
@@ -73,4 +76,20 @@ interface SessionOrchestrator {
 	 *            The slot number.
 	 */
 	void deleteSaveSlot(IChannel channel, int slotNumber);
+
+	/**
+	 * Brings back an older version of a save slot for the current story, so that
+	 * restoring the slot loads it.
+	 * 
+	 * @param channel
+	 *            {@link IChannel}. Non-null.
+	 * @param slotNumber
+	 *            The slot number.
+	 * @param versionNumber
+	 *            The version number, as listed by
+	 *            {@link SaveManager#getSaveVersions(long, Story, int)}.
+	 * @throws TonbotBusinessException
+	 *             if there is no session, or the slot has no such version.
+	 */
+	void revertSaveSlot(IChannel channel, int slotNumber, int versionNumber);
 }
@@ -2,7 +2,7 @@ package net.tonbot.plugin.ifplayer;
 
 import java.io.File;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,23 +11,22 @@ import com.google.common.base.Preconditions;
 import com.google.inject.Inject;
 
 import net.tonbot.common.TonbotBusinessException;
-import sx.blah.discord.api.IDiscordClient;
 import sx.blah.discord.handle.obj.IChannel;
-import sx.blah.discord.util.RequestBuilder;
 
 class SessionOrchestratorImpl implements SessionOrchestrator {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SessionOrchestratorImpl.class);
 
-	private final IDiscordClient discordClient;
+	private final OutboundMessageQueue outboundMessageQueue;
 	private final SessionManager sessionManager;
 	private final StoryLibrary storyLibrary;
 	private final SaveManager saveManager;
 
 	@Inject
-	public SessionOrchestratorImpl(IDiscordClient discordClient, SessionManager sessionManager,
+	public SessionOrchestratorImpl(OutboundMessageQueue outboundMessageQueue, SessionManager sessionManager,
 			StoryLibrary storyLibrary, SaveManager saveManager) {
-		this.discordClient = Preconditions.checkNotNull(discordClient, "discordClient must be non-null.");
+		this.outboundMessageQueue = Preconditions.checkNotNull(outboundMessageQueue,
+				"outboundMessageQueue must be non-null.");
 		this.sessionManager = Preconditions.checkNotNull(sessionManager, "sessionManager must be non-null.");
 		this.storyLibrary = Preconditions.checkNotNull(storyLibrary, "storyLibrary must be non-null.");
 		this.saveManager = Preconditions.checkNotNull(saveManager, "saveManager must be non-null.");
@@ -47,17 +46,18 @@ class SessionOrchestratorImpl implements SessionOrchestrator {
 		}
 
 		File storyFile = foundFiles.get(0);
-		Story story = Story.loadFrom(storyFile);
+		Story story = storyLibrary.loadStory(storyFile);
 
-		// End the current session, if any.
-		this.endInternal(channel);
-
-		// Create a new session.
+		// Create a new session. The current session, if any, is ended.
 		SessionKey sessionKey = new SessionKey(channel.getLongID());
-		sessionManager.createSession(sessionKey, channel, story);
-
-		// Advance it one step
-		this.advance(null, channel, username);
+		Session session = sessionManager.createSession(sessionKey, channel, story,
+				replaced -> this.retire(replaced, channel));
+
+		// Advance it one step. The first turn goes to the session that was just
+		// created, rather than to whichever one is current, so a racing create can't
+		// have it taken twice. If that create has already won, this session is
+		// stopped and the turn does nothing.
+		session.getMailbox().offer(() -> advanceInternal(session, null, channel, username));
 	}
 
 	@Override
@@ -76,28 +76,69 @@ class SessionOrchestratorImpl implements SessionOrchestrator {
 			return;
 		}
 
-		GameMachine gameMachine = session.getGameMachine();
-		ScreenStateRenderer screenStateRenderer = session.getScreenStateRenderer();
+		boolean accepted = session.getMailbox().offer(() -> advanceInternal(session, input, channel, username));
+		if (!accepted) {
+			this.sendMessage(channel, "I'm busy with earlier input, so your input was dropped.");
+		}
+	}
+
+	/**
+	 * Takes a turn. Must only be run from the session's mailbox.
+	 */
+	private void advanceInternal(Session session, String input, IChannel channel, String username) {
+		if (session.getGameMachine().isStopped()) {
+			// The session ended while this input was waiting.
+			return;
+		}
 
-		Optional<ScreenState> screenState;
+		runTurn(session, channel, () -> session.getGameMachine().takeTurn(input, username));
+	}
+
+	/**
+	 * Resumes a turn that has used up its time slice. Must only be run from the
+	 * session's mailbox.
+	 */
+	private void continueInternal(Session session, IChannel channel) {
+		if (session.getGameMachine().isStopped()) {
+			return;
+		}
+
+		runTurn(session, channel, () -> session.getGameMachine().continueTurn());
+	}
+
+	private void runTurn(Session session, IChannel channel, Callable<TurnResult> turn) {
+		TurnResult turnResult;
 		try {
-			screenState = gameMachine.takeTurn(input, username);
+			turnResult = turn.call();
 		} catch (GameMachineException e) {
 			// Handle a non-fatal exception.
-			throw new TonbotBusinessException("Error: " + e.getMessage());
+			this.sendMessage(channel, "Error: " + e.getMessage());
+			return;
 		} catch (Exception e) {
 			LOG.error("GameMachine has thrown an unexpected exception.", e);
 			this.sendMessage(channel, "The player has crashed! :(");
-			this.endInternal(channel);
-			screenStateRenderer.render(session, null, channel);
-			throw e;
+			this.endInternal(session, channel);
+			return;
 		}
 
-		screenStateRenderer.render(session, screenState.orElse(null), channel);
-
-		if (!screenState.isPresent()) {
-			sessionManager.removeSession(session.getSessionKey());
-			this.sendMessage(channel, "Story '" + gameMachine.getStory().getName() + "' has stopped.");
+		switch (turnResult.getStatus()) {
+		case YIELDED:
+			// Let other sessions on this worker run before picking the turn back up.
+			session.getMailbox().yieldTo(() -> continueInternal(session, channel));
+			break;
+		case AWAITING_INPUT:
+			session.getScreenStateRenderer().render(session, turnResult.getScreenState().orElse(null), channel);
+			break;
+		case HALTED:
+			if (!sessionManager.removeSession(session)) {
+				// A newer session has already taken over the channel.
+				break;
+			}
+
+			session.getScreenStateRenderer().render(session, null, channel);
+			this.sendMessage(channel, turnResult.getHaltReason().orElse(
+					"Story '" + session.getGameMachine().getStory().getName() + "' has stopped."));
+			break;
 		}
 	}
 
@@ -114,22 +155,30 @@ class SessionOrchestratorImpl implements SessionOrchestrator {
 
 		ScreenStateRenderer screenStateRenderer = session.getScreenStateRenderer();
 
-		SaveFile saveFile = saveManager.getSaveFile(channel.getLongID(), session.getGameMachine().getStory(),
-				slotNumber);
-		session.getGameMachine().setSaveFile(saveFile);
+		// Switch slots between turns, so that a save in progress is never redirected.
+		boolean accepted = session.getMailbox().offer(() -> {
+			SaveFile saveFile = saveManager.getSaveFile(channel.getLongID(), session.getGameMachine().getStory(),
+					slotNumber);
+			session.getGameMachine().setSaveFile(saveFile);
+
+			screenStateRenderer.render(session, null, channel);
+			this.sendMessage(channel, "Switched to save slot " + slotNumber);
+		});
 
-		screenStateRenderer.render(session, null, channel);
-		this.sendMessage(channel, "Switched to save slot " + slotNumber);
+		if (!accepted) {
+			throw new TonbotBusinessException("I'm busy with earlier input. Try again in a moment.");
+		}
 	}
 
 	@Override
 	public boolean end(IChannel channel) {
 		Preconditions.checkNotNull(channel, "channel must be non-null.");
 
-		Session session = getSession(channel);
+		SessionKey sessionKey = new SessionKey(channel.getLongID());
+		Session session = sessionManager.removeSession(sessionKey).orElse(null);
 
 		if (session != null) {
-			this.endInternal(channel);
+			this.retire(session, channel);
 			this.sendMessage(channel, "Story '" + session.getGameMachine().getStory().getName() + "' has stopped.");
 			return true;
 		}
@@ -138,25 +187,42 @@ class SessionOrchestratorImpl implements SessionOrchestrator {
 	}
 
 	/**
-	 * Ends a session by channel.
+	 * Ends a session, unless it has already been replaced by a newer one.
 	 * 
+	 * @param session
+	 *            {@link Session}. Non-null.
 	 * @param channel
 	 *            {@link IChannel}. Non-null.
-	 * @return True if a session was ended. False otherwise.
 	 */
-	private boolean endInternal(IChannel channel) {
-		Session session = getSession(channel);
-		if (session == null) {
-			return false;
+	private void endInternal(Session session, IChannel channel) {
+		if (sessionManager.removeSession(session)) {
+			this.retire(session, channel);
 		}
+	}
 
+	/**
+	 * Stops a session that is no longer registered and clears its display. The
+	 * display is cleared from the session's mailbox, after anything already queued
+	 * for it, so that it is only ever rendered from one thread.
+	 * 
+	 * @param session
+	 *            {@link Session}. Non-null.
+	 * @param channel
+	 *            {@link IChannel}. Non-null.
+	 */
+	private void retire(Session session, IChannel channel) {
+		// Anything still queued for the session does nothing once it is stopped.
 		session.getGameMachine().stop();
 
 		ScreenStateRenderer screenStateRenderer = session.getScreenStateRenderer();
-		screenStateRenderer.render(session, null, channel);
-		sessionManager.removeSession(session.getSessionKey());
-
-		return true;
+		session.getMailbox().offerFinal(() -> {
+			if (getSession(channel) != null) {
+				// A newer session has taken over the channel, and its topic with it.
+				screenStateRenderer.releaseStatus(channel);
+			} else {
+				screenStateRenderer.render(session, null, channel);
+			}
+		});
 	}
 
 	private Session getSession(IChannel channel) {
@@ -182,10 +248,32 @@ class SessionOrchestratorImpl implements SessionOrchestrator {
 		this.sendMessage(channel, "Successfully deleted slot " + slotNumber);
 	}
 
+	@Override
+	public void revertSaveSlot(IChannel channel, int slotNumber, int versionNumber) {
+		if (slotNumber < 0 || slotNumber >= saveManager.getMaxSlots()) {
+			throw new TonbotBusinessException("Invalid slot number. Must be from 0-" + (saveManager.getMaxSlots() - 1));
+		}
+
+		Session session = getSession(channel);
+
+		if (session == null) {
+			throw new TonbotBusinessException("You need to play a story first.");
+		}
+
+		Story story = session.getGameMachine().getStory();
+		boolean hasVersion = saveManager.getSaveVersions(channel.getLongID(), story, slotNumber).stream()
+				.anyMatch(version -> version.getNumber() == versionNumber);
+		if (!hasVersion) {
+			throw new TonbotBusinessException("Slot " + slotNumber + " has no version " + versionNumber + ".");
+		}
+
+		saveManager.revertSaveFile(channel.getLongID(), story, slotNumber, versionNumber);
+
+		this.sendMessage(channel,
+				"Slot " + slotNumber + " is back at version " + versionNumber + ". Restore the game to load it.");
+	}
+
 	private void sendMessage(IChannel channel, String message) {
-		new RequestBuilder(discordClient).shouldBufferRequests(true).setAsync(true).doAction(() -> {
-			channel.sendMessage(message);
-			return true;
-		}).execute();
+		outboundMessageQueue.send(channel, message);
 	}
 }
@@ -0,0 +1,62 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import sx.blah.discord.handle.obj.IMessage;
+
+/**
+ * A pinned message that a session edits in place to show its upper window.
+ * Updates are sent by {@link OutboundMessageQueue}. If several are waiting,
+ * only the latest one is applied.
+ */
+class StatusMessage {
+
+	private final AtomicReference<String> pendingText;
+
+	/**
+	 * The message, once it has been sent. Only used by the channel's sender.
+	 */
+	private IMessage message;
+
+	private volatile boolean released;
+
+	public StatusMessage() {
+		this.pendingText = new AtomicReference<>();
+	}
+
+	/**
+	 * Marks the message as no longer in use, so it is unpinned and never edited
+	 * again.
+	 */
+	void release() {
+		released = true;
+		pendingText.set(null);
+	}
+
+	boolean isReleased() {
+		return released;
+	}
+
+	void setPendingText(String text) {
+		if (!released) {
+			pendingText.set(text);
+		}
+	}
+
+	/**
+	 * Takes the latest text that has not been applied yet.
+	 * 
+	 * @return The text, or null if there is none.
+	 */
+	String takePendingText() {
+		return pendingText.getAndSet(null);
+	}
+
+	IMessage getMessage() {
+		return message;
+	}
+
+	void setMessage(IMessage message) {
+		this.message = message;
+	}
+}
@@ -1,25 +1,32 @@
 package net.tonbot.plugin.ifplayer;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.zmpp.base.DefaultMemory0;
 import org.zmpp.base.Memory;
-import org.zmpp.iff.BlorbData;
-import org.zmpp.iff.DefaultFormChunk;
 
 import com.google.common.base.Preconditions;
 
-import lombok.Data;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
 import net.tonbot.common.TonbotTechnicalFault;
+import net.tonbot.plugin.ifplayer.BlorbIndex.ChunkLocation;
 
 /**
- * A Z-code story.
+ * A Z-code story. Stories are immutable parsed images of a story file and may
+ * be shared between any number of sessions. Each {@link GameMachine} must get
+ * its own writable {@link Memory} through {@link #newMemory()}.
  */
-@Data
+@Getter
+@ToString(of = { "name", "version", "release", "serial" })
 class Story {
 
 	private static final Logger LOG = LoggerFactory.getLogger(Story.class);
@@ -27,26 +34,85 @@ class Story {
 	private static final byte MIN_VERSION = 1;
 	private static final byte MAX_VERISON = 8;
 
+	private static final int HEADER_SIZE = 64;
+	private static final int BLORB_HEADER_SIZE = 12;
+	private static final int RELEASE_ADDRESS = 0x02;
+	private static final int STATIC_MEMORY_BASE_ADDRESS = 0x0E;
+	private static final int SERIAL_ADDRESS = 0x12;
+	private static final int SERIAL_LENGTH = 6;
+	private static final int CHECKSUM_ADDRESS = 0x1C;
+
+	/**
+	 * A rough size of a {@link Story} and its buffer, not counting the Z-code.
+	 */
+	private static final int OBJECT_OVERHEAD = 256;
+
 	private final String name;
-	private final Memory memory;
+	private final int version;
+	private final int release;
+	private final String serial;
+	private final int checksum;
+	private final int staticMemoryBase;
 
-	private Story(String name, Memory memory) {
+	/**
+	 * The Z-code. Read-only, and only ever accessed through absolute reads or
+	 * duplicates, so it can be shared between threads.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final ByteBuffer zcode;
+
+	private Story(String name, ByteBuffer zcode) {
 		this.name = Preconditions.checkNotNull(name, "name must be non-null.");
-		this.memory = Preconditions.checkNotNull(memory, "memory must be non-null.");
+		Preconditions.checkNotNull(zcode, "zcode must be non-null.");
+		Preconditions.checkArgument(zcode.capacity() >= HEADER_SIZE, "zcode is too small to contain a header.");
+		this.zcode = zcode.asReadOnlyBuffer();
+
+		this.version = zcode.get(0) & 0xFF;
+		this.release = zcode.getShort(RELEASE_ADDRESS) & 0xFFFF;
+		byte[] serialBytes = new byte[SERIAL_LENGTH];
+		for (int i = 0; i < SERIAL_LENGTH; i++) {
+			serialBytes[i] = zcode.get(SERIAL_ADDRESS + i);
+		}
+		this.serial = new String(serialBytes, StandardCharsets.US_ASCII);
+		this.checksum = zcode.getShort(CHECKSUM_ADDRESS) & 0xFFFF;
+		this.staticMemoryBase = zcode.getShort(STATIC_MEMORY_BASE_ADDRESS) & 0xFFFF;
+	}
+
+	/**
+	 * Gets the size of the Z-code, in bytes.
+	 *
+	 * @return The size of the Z-code.
+	 */
+	public int getSize() {
+		return zcode.capacity();
 	}
 
 	/**
-	 * Gets the Z-Machine version.
-	 * 
-	 * @return The Z-Machine version.
+	 * Gets roughly how much of the heap this story takes up. Memory-mapped Z-code
+	 * lives in the OS page cache rather than on the heap, so it is not counted.
+	 *
+	 * @return The story's approximate heap footprint, in bytes.
 	 */
-	public int getVersion() {
-		return memory.byteAt(0);
+	public int getHeapSize() {
+		return zcode.isDirect() ? OBJECT_OVERHEAD : OBJECT_OVERHEAD + zcode.capacity();
 	}
 
 	/**
-	 * Loads a story from a file.
-	 * 
+	 * Creates a new writable {@link Memory} containing this story's Z-code. Writes
+	 * to the returned memory are not visible to any other caller. The Z-code
+	 * itself is shared, so the returned memory only grows by the pages that are
+	 * written to.
+	 *
+	 * @return A new {@link Memory}.
+	 */
+	public Memory newMemory() {
+		return new CopyOnWriteMemory(zcode);
+	}
+
+	/**
+	 * Loads a story from a file onto the heap. Callers should prefer
+	 * {@link StoryLibrary#loadStory(File)}, which caches parsed stories.
+	 *
 	 * @param file
 	 *            The {@link File} to be loaded. Non-null.
 	 * @return A {@link Story}
@@ -56,42 +122,75 @@ class Story {
 	 *             if the file is not deemed to be a story file.
 	 */
 	public static Story loadFrom(File file) {
+		return loadFrom(file, StoryLoadMode.HEAP);
+	}
+
+	/**
+	 * Loads a story from a file. Callers should prefer
+	 * {@link StoryLibrary#loadStory(File)}, which caches parsed stories.
+	 *
+	 * @param file
+	 *            The {@link File} to be loaded. Non-null.
+	 * @param loadMode
+	 *            How the file should be brought into memory. Non-null.
+	 * @return A {@link Story}
+	 * @throws TonbotTechnicalFault
+	 *             if the file could not be loaded.
+	 * @throws IllegalArgumentException
+	 *             if the file is not deemed to be a story file.
+	 */
+	public static Story loadFrom(File file, StoryLoadMode loadMode) {
 		Preconditions.checkNotNull(file, "file must be non-null.");
+		Preconditions.checkNotNull(loadMode, "loadMode must be non-null.");
 		Preconditions.checkArgument(!file.isDirectory(), "file must be a file, not a directory.");
 
-		byte[] fileBytes = new byte[(int) file.length()];
-		try (FileInputStream is = new FileInputStream(file)) {
-			int numBytesRead = is.read(fileBytes);
-
-			if (numBytesRead != file.length()) {
-				throw new TonbotTechnicalFault("Couldn't fully read the file.");
+		ByteBuffer zcode;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = read(channel, 0, (int) Math.min(BLORB_HEADER_SIZE, channel.size()));
+			byte[] headerBytes = new byte[header.remaining()];
+			header.get(headerBytes);
+
+			if (BlorbIndex.isBlorb(headerBytes)) {
+				// It's a blorb file. Only the Z-code chunk is loaded.
+				BlorbIndex blorbIndex = BlorbIndex.read(channel);
+				ChunkLocation zcodeChunk = blorbIndex.getZcode();
+				zcode = load(channel, zcodeChunk.getDataOffset(), zcodeChunk.getLength(), loadMode);
+			} else if (headerBytes.length > 0 && headerBytes[0] >= MIN_VERSION && headerBytes[0] <= MAX_VERISON) {
+				// It's a regular Z-code file.
+				zcode = load(channel, 0, channel.size(), loadMode);
+			} else {
+				throw new IllegalArgumentException("File is not supported.");
 			}
 		} catch (IOException e) {
 			throw new TonbotTechnicalFault("Couldn't read file.", e);
 		}
 
-		LOG.debug("Successfully read {} bytes of story file.", fileBytes.length);
+		LOG.debug("Successfully loaded {} bytes of Z-code in {} mode.", zcode.capacity(), loadMode);
 
-		byte version = fileBytes[0];
-		Story story = null;
+		return new Story(file.getName(), zcode);
+	}
 
-		if (version >= MIN_VERSION && version <= MAX_VERISON) {
-			// It's a regular Z-code file.
-			story = new Story(file.getName(), new DefaultMemory0(fileBytes));
+	private static ByteBuffer load(FileChannel channel, long position, long length, StoryLoadMode loadMode)
+			throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("File is too large to be a story.");
 		}
 
-		if (BlorbData.isBlorbFile(fileBytes)) {
-			// It's a blorb file.
-			BlorbData blorbData = new BlorbData(new DefaultFormChunk(new DefaultMemory0(fileBytes)));
-			if (blorbData.hasZcodeChunk()) {
-				story = new Story(file.getName(), blorbData.zcodeData());
-			}
+		if (loadMode == StoryLoadMode.MAPPED) {
+			return channel.map(MapMode.READ_ONLY, position, length);
+		} else {
+			return read(channel, position, (int) length);
 		}
+	}
 
-		if (story == null) {
-			throw new IllegalArgumentException("File is not supported.");
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new TonbotTechnicalFault("Couldn't fully read the file.");
+			}
 		}
-
-		return story;
+		buffer.flip();
+		return buffer;
 	}
 }
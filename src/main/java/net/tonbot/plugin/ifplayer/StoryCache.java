@@ -0,0 +1,109 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Inject;
+
+import lombok.Data;
+import net.tonbot.common.TonbotTechnicalFault;
+
+/**
+ * A bounded cache of parsed {@link Story}s. Entries are keyed by the story
+ * file's canonical path, size and last modified time, so a story file that is
+ * replaced on disk will be reloaded on its next use.
+ * <p>
+ * The cache is bounded by the heap that the cached stories take up and evicts
+ * the least recently used stories first. Memory-mapped stories only count their
+ * small on-heap footprint, since their Z-code lives in the OS page cache.
+ * Values are softly referenced, so the garbage collector may also evict stories
+ * under heap pressure.
+ */
+class StoryCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StoryCache.class);
+
+	private final Cache<StoryCacheKey, Story> cache;
+	private final StoryLoadMode loadMode;
+
+	@Inject
+	public StoryCache(Config config) {
+		Preconditions.checkNotNull(config, "config must be non-null.");
+
+		this.loadMode = config.getStoryLoadMode();
+
+		// A single segment, so that the whole budget is shared by all stories and the
+		// least recently used story is evicted first. Otherwise each segment gets an
+		// equal share, and a story bigger than a share is never cached at all.
+		this.cache = CacheBuilder.newBuilder()
+				.concurrencyLevel(1)
+				.maximumWeight(config.getStoryCacheMaxBytes())
+				.weigher((StoryCacheKey key, Story story) -> story.getHeapSize())
+				.softValues()
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Gets a {@link Story} for the given file, loading it if it isn't already
+	 * cached.
+	 *
+	 * @param file
+	 *            The story file. Non-null.
+	 * @return A {@link Story}.
+	 * @throws TonbotTechnicalFault
+	 *             if the file could not be loaded.
+	 * @throws IllegalArgumentException
+	 *             if the file is not deemed to be a story file.
+	 */
+	public Story get(File file) {
+		Preconditions.checkNotNull(file, "file must be non-null.");
+
+		StoryCacheKey key;
+		try {
+			key = new StoryCacheKey(file.getCanonicalPath(), file.length(), file.lastModified());
+		} catch (IOException e) {
+			throw new TonbotTechnicalFault("Couldn't resolve story file path.", e);
+		}
+
+		try {
+			return cache.get(key, () -> {
+				LOG.debug("Story cache miss for {}", key);
+				return Story.loadFrom(file, loadMode);
+			});
+		} catch (UncheckedExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		} catch (ExecutionException e) {
+			throw new TonbotTechnicalFault("Couldn't load story.", e);
+		}
+	}
+
+	/**
+	 * Gets the hit, miss and eviction counters of this cache.
+	 *
+	 * @return {@link CacheStats}
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Data
+	private static class StoryCacheKey {
+
+		private final String canonicalPath;
+		private final long size;
+		private final long lastModified;
+	}
+}
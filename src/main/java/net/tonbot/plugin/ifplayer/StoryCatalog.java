@@ -0,0 +1,342 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+import net.tonbot.plugin.ifplayer.BlorbIndex.ChunkLocation;
+
+/**
+ * A catalog of {@link StoryMetadata}, persisted as JSON lines in the story
+ * directory. Entries are checked against each story file's size and last
+ * modified time, so only new or changed files are ever opened. Those are
+ * processed in parallel on the catalog's own workers.
+ * <p>
+ * The catalog is loaded and updated in the background, one change at a time
+ * and in the order they were requested. Until then, {@link #get(File)} simply
+ * has nothing for a story.
+ */
+class StoryCatalog {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StoryCatalog.class);
+
+	static final String CATALOG_FILE_NAME = ".ifplayer-catalog.jsonl";
+
+	private static final int HEADER_SIZE = 64;
+	private static final int BLORB_HEADER_SIZE = 12;
+
+	private static final Pattern UUID_PATTERN = Pattern
+			.compile("UUID://([0-9A-Fa-f]{8}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{12})//");
+	private static final Pattern IFID_ELEMENT_PATTERN = Pattern.compile("<ifid>\\s*(.*?)\\s*</ifid>",
+			Pattern.DOTALL);
+	private static final Pattern TITLE_ELEMENT_PATTERN = Pattern.compile("<title>\\s*(.*?)\\s*</title>",
+			Pattern.DOTALL);
+
+	private final Path catalogFile;
+	private final ObjectMapper objectMapper;
+	private final Map<String, StoryMetadata> entries;
+	private final Executor updater;
+	private final Executor workers;
+
+	@Inject
+	public StoryCatalog(@StoryDir File storyDir) {
+		this(storyDir,
+				Executors.newSingleThreadExecutor(
+						new ThreadFactoryBuilder().setNameFormat("ifplayer-story-catalog-%d").setDaemon(true).build()),
+				Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+						new ThreadFactoryBuilder().setNameFormat("ifplayer-story-indexer-%d").setDaemon(true).build()));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param storyDir
+	 *            The story directory. Non-null.
+	 * @param updater
+	 *            Loads and updates the catalog. Must run tasks one at a time, in
+	 *            order. Non-null.
+	 * @param workers
+	 *            Computes the metadata of stale stories. Non-null.
+	 */
+	StoryCatalog(File storyDir, Executor updater, Executor workers) {
+		Preconditions.checkNotNull(storyDir, "storyDir must be non-null.");
+
+		this.catalogFile = storyDir.toPath().resolve(CATALOG_FILE_NAME);
+		this.objectMapper = new ObjectMapper();
+		this.objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		this.entries = new ConcurrentHashMap<>();
+		this.updater = Preconditions.checkNotNull(updater, "updater must be non-null.");
+		this.workers = Preconditions.checkNotNull(workers, "workers must be non-null.");
+
+		updater.execute(this::load);
+	}
+
+	/**
+	 * Gets the metadata of a story file.
+	 *
+	 * @param storyFile
+	 *            The story file. Non-null.
+	 * @return The {@link StoryMetadata}, if it has been computed.
+	 */
+	public Optional<StoryMetadata> get(File storyFile) {
+		Preconditions.checkNotNull(storyFile, "storyFile must be non-null.");
+
+		return Optional.ofNullable(entries.get(storyFile.getName()));
+	}
+
+	/**
+	 * Brings the catalog in line with the given story files in the background.
+	 * Entries for files that are no longer present are dropped.
+	 *
+	 * @param storyFiles
+	 *            All story files. Non-null.
+	 */
+	public void sync(Collection<File> storyFiles) {
+		Preconditions.checkNotNull(storyFiles, "storyFiles must be non-null.");
+
+		List<File> storyFilesCopy = ImmutableList.copyOf(storyFiles);
+		updater.execute(() -> {
+			boolean changed = entries.keySet()
+					.retainAll(storyFilesCopy.stream().map(File::getName).collect(Collectors.toSet()));
+			changed |= computeStale(storyFilesCopy);
+
+			if (changed) {
+				save();
+			}
+		});
+	}
+
+	/**
+	 * Updates the catalog for some changed story files in the background.
+	 *
+	 * @param changedStoryFiles
+	 *            Story files that were created or modified. Non-null.
+	 * @param removedFileNames
+	 *            Names of files that are no longer stories. Non-null.
+	 */
+	public void update(Collection<File> changedStoryFiles, Collection<String> removedFileNames) {
+		Preconditions.checkNotNull(changedStoryFiles, "changedStoryFiles must be non-null.");
+		Preconditions.checkNotNull(removedFileNames, "removedFileNames must be non-null.");
+
+		List<File> changedStoryFilesCopy = ImmutableList.copyOf(changedStoryFiles);
+		List<String> removedFileNamesCopy = ImmutableList.copyOf(removedFileNames);
+		updater.execute(() -> {
+			boolean changed = entries.keySet().removeAll(removedFileNamesCopy);
+			changed |= computeStale(changedStoryFilesCopy);
+
+			if (changed) {
+				save();
+			}
+		});
+	}
+
+	private boolean computeStale(Collection<File> storyFiles) {
+		List<File> staleFiles = storyFiles.stream().filter(file -> {
+			StoryMetadata metadata = entries.get(file.getName());
+			return metadata == null || metadata.getFileSize() != file.length()
+					|| metadata.getLastModified() != file.lastModified();
+		}).collect(Collectors.toList());
+
+		if (staleFiles.isEmpty()) {
+			return false;
+		}
+
+		LOG.info("Computing metadata for {} stories.", staleFiles.size());
+
+		CompletableFuture<?>[] computations = staleFiles.stream()
+				.map(file -> CompletableFuture.runAsync(() -> {
+					try {
+						entries.put(file.getName(), compute(file));
+					} catch (IOException | RuntimeException e) {
+						LOG.warn("Unable to compute metadata for story {}.", file, e);
+						entries.remove(file.getName());
+					}
+				}, workers))
+				.toArray(CompletableFuture[]::new);
+		CompletableFuture.allOf(computations).join();
+
+		return true;
+	}
+
+	private StoryMetadata compute(File file) throws IOException {
+		long fileSize = file.length();
+		long lastModified = file.lastModified();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			Preconditions.checkArgument(channel.size() <= Integer.MAX_VALUE, "File is too large to be a story.");
+
+			// The whole file is mapped once. The checksum and the Z-code are both taken
+			// from the mapping, so the file is only read from disk once.
+			ByteBuffer contents = channel.map(MapMode.READ_ONLY, 0, channel.size());
+
+			CRC32 crc = new CRC32();
+			crc.update(contents.duplicate());
+
+			byte[] zcode;
+			String ifid = null;
+			String title = null;
+
+			byte[] blorbHeader = read(contents, 0, Math.min(BLORB_HEADER_SIZE, contents.capacity()));
+			if (BlorbIndex.isBlorb(blorbHeader)) {
+				BlorbIndex blorbIndex = BlorbIndex.read(channel);
+				zcode = read(contents, blorbIndex.getZcode());
+
+				Optional<ChunkLocation> ifmd = blorbIndex.getIfmd();
+				if (ifmd.isPresent()) {
+					String iFiction = new String(read(contents, ifmd.get()), StandardCharsets.UTF_8);
+					ifid = findElement(IFID_ELEMENT_PATTERN, iFiction);
+					title = findElement(TITLE_ELEMENT_PATTERN, iFiction);
+				}
+			} else {
+				zcode = read(contents, 0, contents.capacity());
+			}
+
+			Preconditions.checkArgument(zcode.length >= HEADER_SIZE, "Story is too small to contain a header.");
+
+			int release = unsignedShortAt(zcode, 0x02);
+			String serial = new String(zcode, 0x12, 6, StandardCharsets.US_ASCII);
+			int checksum = unsignedShortAt(zcode, 0x1C);
+
+			if (ifid == null) {
+				ifid = findEmbeddedUuid(zcode).orElseGet(() -> legacyIfid(release, serial, checksum));
+			}
+
+			return StoryMetadata.builder()
+					.fileName(file.getName())
+					.fileSize(fileSize)
+					.lastModified(lastModified)
+					.fileChecksum(crc.getValue())
+					.version(zcode[0] & 0xFF)
+					.release(release)
+					.serial(serial)
+					.checksum(checksum)
+					.ifid(ifid)
+					.title(title)
+					.build();
+		}
+	}
+
+	private static Optional<String> findEmbeddedUuid(byte[] zcode) {
+		// ISO-8859-1 maps every byte to exactly one char, so match offsets line up.
+		Matcher matcher = UUID_PATTERN.matcher(new String(zcode, StandardCharsets.ISO_8859_1));
+		if (matcher.find()) {
+			return Optional.of(matcher.group(1).toUpperCase());
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * Forms the IFID of a story without an embedded UUID, as described in section
+	 * 2.2.2 of the Treaty of Babel.
+	 */
+	private static String legacyIfid(int release, String serial, int checksum) {
+		StringBuilder sb = new StringBuilder("ZCODE-").append(release).append("-").append(serial);
+
+		boolean serialIsDate = serial.chars().allMatch(Character::isDigit);
+		if (!serialIsDate || (serial.charAt(0) != '8' && serial.charAt(0) != '9' && !serial.equals("000000"))) {
+			sb.append("-").append(String.format("%04X", checksum));
+		}
+
+		return sb.toString();
+	}
+
+	private static String findElement(Pattern pattern, String xml) {
+		Matcher matcher = pattern.matcher(xml);
+		if (!matcher.find()) {
+			return null;
+		}
+
+		return matcher.group(1).replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+				.replace("&apos;", "'").replace("&amp;", "&");
+	}
+
+	private static byte[] read(ByteBuffer contents, ChunkLocation chunk) {
+		Preconditions.checkArgument(chunk.getDataOffset() + chunk.getLength() <= contents.capacity(),
+				"Chunk is truncated.");
+		return read(contents, (int) chunk.getDataOffset(), (int) chunk.getLength());
+	}
+
+	private static byte[] read(ByteBuffer contents, int position, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer duplicate = contents.duplicate();
+		duplicate.position(position);
+		duplicate.get(bytes);
+		return bytes;
+	}
+
+	private static int unsignedShortAt(byte[] bytes, int address) {
+		return ((bytes[address] & 0xFF) << 8) | (bytes[address + 1] & 0xFF);
+	}
+
+	private void load() {
+		if (!Files.exists(catalogFile)) {
+			return;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(catalogFile, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+
+				StoryMetadata metadata = objectMapper.readValue(line, StoryMetadata.class);
+				entries.put(metadata.getFileName(), metadata);
+			}
+
+			LOG.debug("Loaded {} story catalog entries.", entries.size());
+		} catch (IOException | RuntimeException e) {
+			// The catalog is only a cache. It will be rebuilt.
+			LOG.warn("Story catalog at {} is unreadable and will be rebuilt.", catalogFile, e);
+			entries.clear();
+		}
+	}
+
+	private void save() {
+		Path tempFile = catalogFile.resolveSibling(CATALOG_FILE_NAME + ".tmp");
+
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+				for (StoryMetadata metadata : entries.values()) {
+					writer.write(objectMapper.writeValueAsString(metadata));
+					writer.newLine();
+				}
+			}
+
+			Files.move(tempFile, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOG.warn("Unable to write story catalog to {}.", catalogFile, e);
+		}
+	}
+}
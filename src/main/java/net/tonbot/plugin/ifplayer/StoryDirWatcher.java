@@ -0,0 +1,142 @@
+package net.tonbot.plugin.ifplayer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Watches the story directory on a background thread and reports which file
+ * names have changed. Events are debounced, so a file that is being copied into
+ * the directory is only reported once it has been quiet for a while.
+ */
+class StoryDirWatcher implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StoryDirWatcher.class);
+
+	private static final long DEBOUNCE_MILLIS = 500;
+
+	private final Path storyDir;
+	private final Listener listener;
+	private final WatchService watchService;
+	private final Thread thread;
+
+	/**
+	 * Constructor. The watcher does not start until {@link #start()} is called.
+	 *
+	 * @param storyDir
+	 *            The story directory. Non-null.
+	 * @param listener
+	 *            The {@link Listener} to notify. Non-null.
+	 * @throws IOException
+	 *             if the directory could not be watched.
+	 */
+	public StoryDirWatcher(Path storyDir, Listener listener) throws IOException {
+		this.storyDir = Preconditions.checkNotNull(storyDir, "storyDir must be non-null.");
+		this.listener = Preconditions.checkNotNull(listener, "listener must be non-null.");
+
+		this.watchService = storyDir.getFileSystem().newWatchService();
+		storyDir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+		this.thread = new Thread(this::run, "ifplayer-story-dir-watcher");
+		this.thread.setDaemon(true);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops watching and waits for the background thread to finish, including any
+	 * change that it is reporting to the listener.
+	 *
+	 * @throws IOException
+	 *             if the watch service could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				Set<String> changedFileNames = new HashSet<>();
+				boolean overflowed = false;
+
+				// Block for the first event, then keep collecting until things go quiet.
+				WatchKey key = watchService.take();
+				while (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							overflowed = true;
+						} else {
+							changedFileNames.add(((Path) event.context()).getFileName().toString());
+						}
+					}
+
+					if (!key.reset()) {
+						LOG.warn("Story directory {} can no longer be watched.", storyDir);
+						return;
+					}
+
+					key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+
+				try {
+					if (overflowed) {
+						listener.onOverflow();
+					} else {
+						listener.onChanged(changedFileNames);
+					}
+				} catch (RuntimeException e) {
+					LOG.error("Failed to apply story directory changes.", e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// The watcher was closed.
+		}
+	}
+
+	interface Listener {
+
+		/**
+		 * Called when files in the story directory have been created, deleted or
+		 * modified.
+		 *
+		 * @param fileNames
+		 *            The names of the files that changed. Non-null.
+		 */
+		void onChanged(Set<String> fileNames);
+
+		/**
+		 * Called when events may have been lost and the directory must be rescanned.
+		 */
+		void onOverflow();
+	}
+}
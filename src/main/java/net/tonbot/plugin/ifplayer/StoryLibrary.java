@@ -1,67 +1,216 @@
 package net.tonbot.plugin.ifplayer;
 
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
 
-import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 
-class StoryLibrary {
+/**
+ * The stories in the story directory. The directory is scanned once on
+ * construction. Once {@link #start()} is called, it is kept up to date by a
+ * {@link StoryDirWatcher} until {@link #close()} is called. Lookups never touch
+ * the file system.
+ */
+class StoryLibrary implements StoryDirWatcher.Listener, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StoryLibrary.class);
 
 	private final List<String> SUPPORTED_EXTENSIONS = ImmutableList.of("z1", "z2", "z3", "z4", "z5", "z7", "z8",
 			"zblorb");
 
 	private final File storyDir;
+	private final StoryCache storyCache;
+	private final StoryCatalog storyCatalog;
+
+	/**
+	 * Story files by file name. Replaced on every change so that readers never
+	 * need to lock.
+	 */
+	private volatile StoryNameIndex index;
+
+	/**
+	 * The watcher, while the library is started. Guarded by this.
+	 */
+	private StoryDirWatcher watcher;
 
 	@Inject
-	public StoryLibrary(@StoryDir File storyDir) {
+	public StoryLibrary(@StoryDir File storyDir, StoryCache storyCache, StoryCatalog storyCatalog) {
 		this.storyDir = Preconditions.checkNotNull(storyDir, "storyDir must be non-null.");
+		this.storyCache = Preconditions.checkNotNull(storyCache, "storyCache must be non-null.");
+		this.storyCatalog = Preconditions.checkNotNull(storyCatalog, "storyCatalog must be non-null.");
+
+		rescan();
+	}
+
+	/**
+	 * Starts keeping the library up to date with the story directory. Does
+	 * nothing if the library has already been started.
+	 */
+	public synchronized void start() {
+		if (watcher != null) {
+			return;
+		}
+
+		try {
+			watcher = new StoryDirWatcher(storyDir.toPath(), this);
+		} catch (IOException e) {
+			LOG.error("Unable to watch story directory {}. New stories will not be picked up.", storyDir, e);
+			return;
+		}
+
+		// The directory is already being watched, so nothing that changed since
+		// construction is missed.
+		rescan();
+		watcher.start();
+	}
+
+	/**
+	 * Stops keeping the library up to date with the story directory. Waits for a
+	 * change that is being applied to finish.
+	 */
+	@Override
+	public void close() {
+		StoryDirWatcher watcher;
+		synchronized (this) {
+			watcher = this.watcher;
+			this.watcher = null;
+		}
+
+		// The watcher is closed outside of the lock, since its thread may be waiting
+		// for it in onChanged or onOverflow.
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to stop watching the story directory.", e);
+			}
+		}
 	}
 
 	/**
 	 * Lists the names of supported stories in the story directory.
-	 * 
+	 *
 	 * @return A list of story files. Does not include directories.
 	 */
 	public List<File> listAllStories() {
-		List<File> allFiles = Arrays.asList(storyDir.listFiles());
-
-		return allFiles.stream().filter(file -> !file.isDirectory()).filter(file -> {
-			for (String supportedExtension : SUPPORTED_EXTENSIONS) {
-				if (file.getName().endsWith("." + supportedExtension)) {
-					return true;
-				}
-			}
-			return false;
-		}).collect(Collectors.toList());
+		return index.all();
 	}
 
 	/**
 	 * Gets the best match given the story name on a best effort basis.
-	 * 
+	 *
 	 * @param storyName
 	 *            The story name. Non-null.
-	 * @return The search results.
+	 * @return The search results. This is a view of the library, so its size can
+	 *         be checked for ambiguity without copying the matches.
 	 */
 	public List<File> findStories(String storyName) {
-		List<File> allStories = listAllStories();
+		StoryNameIndex index = this.index;
 
-		File exactMatch = allStories.stream().filter(file -> StringUtils.equals(file.getName(), storyName)).findAny()
-				.orElse(null);
+		File exactMatch = index.get(storyName).orElse(null);
 
 		if (exactMatch != null) {
 			return ImmutableList.of(exactMatch);
 		}
 
-		List<File> prefixMatchedFiles = allStories.stream()
-				.filter(file -> StringUtils.startsWithIgnoreCase(file.getName(), storyName))
-				.collect(Collectors.toList());
+		return index.startingWith(storyName);
+	}
 
-		return prefixMatchedFiles;
+	/**
+	 * Loads a story file. Stories which have been loaded before are served from
+	 * the {@link StoryCache} unless the file has since changed.
+	 *
+	 * @param storyFile
+	 *            The story file. Non-null.
+	 * @return A {@link Story}.
+	 */
+	public Story loadStory(File storyFile) {
+		Preconditions.checkNotNull(storyFile, "storyFile must be non-null.");
+
+		return storyCache.get(storyFile);
+	}
+
+	/**
+	 * Gets the precomputed metadata of a story file without opening it.
+	 * 
+	 * @param storyFile
+	 *            The story file. Non-null.
+	 * @return The {@link StoryMetadata}, if the story has been cataloged.
+	 */
+	public Optional<StoryMetadata> getMetadata(File storyFile) {
+		Preconditions.checkNotNull(storyFile, "storyFile must be non-null.");
+
+		return storyCatalog.get(storyFile);
+	}
+
+	@Override
+	public synchronized void onChanged(Set<String> fileNames) {
+		StoryNameIndex newIndex = index;
+		List<File> changedStoryFiles = new ArrayList<>();
+		List<String> removedFileNames = new ArrayList<>();
+
+		for (String fileName : fileNames) {
+			File file = new File(storyDir, fileName);
+			if (isStory(file)) {
+				newIndex = newIndex.with(file);
+				changedStoryFiles.add(file);
+			} else {
+				newIndex = newIndex.without(fileName);
+				removedFileNames.add(fileName);
+			}
+		}
+
+		this.index = newIndex;
+		LOG.debug("Story library updated for {}. {} stories available.", fileNames, newIndex.size());
+
+		storyCatalog.update(changedStoryFiles, removedFileNames);
+	}
+
+	@Override
+	public synchronized void onOverflow() {
+		rescan();
+	}
+
+	private synchronized void rescan() {
+		File[] allFiles = storyDir.listFiles();
+		if (allFiles == null) {
+			LOG.error("Unable to list story directory {}.", storyDir);
+			allFiles = new File[0];
+		}
+
+		List<File> storyFiles = new ArrayList<>();
+		for (File file : allFiles) {
+			if (isStory(file)) {
+				storyFiles.add(file);
+			}
+		}
+
+		this.index = StoryNameIndex.of(storyFiles);
+		LOG.info("Story library indexed {} stories.", index.size());
+
+		storyCatalog.sync(storyFiles);
+	}
+
+	private boolean isStory(File file) {
+		if (!file.isFile()) {
+			return false;
+		}
+
+		for (String supportedExtension : SUPPORTED_EXTENSIONS) {
+			if (file.getName().endsWith("." + supportedExtension)) {
+				return true;
+			}
+		}
+		return false;
 	}
 }
@@ -0,0 +1,19 @@
+package net.tonbot.plugin.ifplayer;
+
+/**
+ * How story files are brought into memory.
+ */
+enum StoryLoadMode {
+
+	/**
+	 * The story is read into a heap byte array.
+	 */
+	HEAP,
+
+	/**
+	 * The story file is memory-mapped read-only. The story's bytes live in the
+	 * OS page cache, which is shared between sessions and processes, rather than
+	 * on the heap.
+	 */
+	MAPPED;
+}
@@ -0,0 +1,75 @@
+package net.tonbot.plugin.ifplayer;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Precomputed facts about a story file. Valid for as long as the file's size
+ * and last modified time are unchanged.
+ */
+@Data
+@Builder
+class StoryMetadata {
+
+	@JsonProperty("fileName")
+	private final String fileName;
+
+	@JsonProperty("fileSize")
+	private final long fileSize;
+
+	@JsonProperty("lastModified")
+	private final long lastModified;
+
+	/**
+	 * The CRC-32 of the whole story file.
+	 */
+	@JsonProperty("fileChecksum")
+	private final long fileChecksum;
+
+	@JsonProperty("version")
+	private final int version;
+
+	@JsonProperty("release")
+	private final int release;
+
+	@JsonProperty("serial")
+	private final String serial;
+
+	/**
+	 * The checksum in the story's header.
+	 */
+	@JsonProperty("checksum")
+	private final int checksum;
+
+	/**
+	 * The Treaty of Babel IFID.
+	 */
+	@JsonProperty("ifid")
+	private final String ifid;
+
+	/**
+	 * The title from the story's iFiction record. Nullable.
+	 */
+	@JsonProperty("title")
+	private final String title;
+
+	public StoryMetadata(@JsonProperty("fileName") String fileName, @JsonProperty("fileSize") long fileSize,
+			@JsonProperty("lastModified") long lastModified, @JsonProperty("fileChecksum") long fileChecksum,
+			@JsonProperty("version") int version, @JsonProperty("release") int release,
+			@JsonProperty("serial") String serial, @JsonProperty("checksum") int checksum,
+			@JsonProperty("ifid") String ifid, @JsonProperty("title") String title) {
+		this.fileName = Preconditions.checkNotNull(fileName, "fileName must be non-null.");
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.fileChecksum = fileChecksum;
+		this.version = version;
+		this.release = release;
+		this.serial = Preconditions.checkNotNull(serial, "serial must be non-null.");
+		this.checksum = checksum;
+		this.ifid = Preconditions.checkNotNull(ifid, "ifid must be non-null.");
+		this.title = title;
+	}
+}
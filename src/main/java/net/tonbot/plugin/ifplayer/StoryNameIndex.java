@@ -0,0 +1,242 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable index of story files by name. Names are kept sorted in
+ * case-folded order, so the stories starting with a given prefix form one
+ * contiguous range that can be found with two binary searches.
+ * <p>
+ * Changes produce a new index by inserting or removing a single entry, rather
+ * than by rebuilding it from scratch.
+ */
+class StoryNameIndex {
+
+	private static final Comparator<File> ORDER = Comparator.comparing((File file) -> fold(file.getName()))
+			.thenComparing(File::getName);
+
+	private static final StoryNameIndex EMPTY = new StoryNameIndex(new String[0], new File[0]);
+
+	private final String[] foldedNames;
+	private final File[] files;
+
+	private StoryNameIndex(String[] foldedNames, File[] files) {
+		this.foldedNames = foldedNames;
+		this.files = files;
+	}
+
+	/**
+	 * Creates an index of the given files.
+	 *
+	 * @param storyFiles
+	 *            The story files. Non-null.
+	 * @return A {@link StoryNameIndex}.
+	 */
+	public static StoryNameIndex of(Collection<File> storyFiles) {
+		Preconditions.checkNotNull(storyFiles, "storyFiles must be non-null.");
+
+		if (storyFiles.isEmpty()) {
+			return EMPTY;
+		}
+
+		File[] files = storyFiles.toArray(new File[storyFiles.size()]);
+		Arrays.sort(files, ORDER);
+
+		String[] foldedNames = new String[files.length];
+		for (int i = 0; i < files.length; i++) {
+			foldedNames[i] = fold(files[i].getName());
+		}
+
+		return new StoryNameIndex(foldedNames, files);
+	}
+
+	/**
+	 * Gets the number of stories in this index.
+	 *
+	 * @return The number of stories.
+	 */
+	public int size() {
+		return files.length;
+	}
+
+	/**
+	 * Gets all stories, in case-insensitive name order.
+	 *
+	 * @return An unmodifiable view of all stories.
+	 */
+	public List<File> all() {
+		return Collections.unmodifiableList(Arrays.asList(files));
+	}
+
+	/**
+	 * Gets the story with exactly the given name.
+	 *
+	 * @param name
+	 *            The name. Non-null.
+	 * @return The story file, if any.
+	 */
+	public Optional<File> get(String name) {
+		Preconditions.checkNotNull(name, "name must be non-null.");
+
+		int index = indexOf(name);
+		return index >= 0 ? Optional.of(files[index]) : Optional.empty();
+	}
+
+	/**
+	 * Gets the stories whose names start with the given prefix, ignoring case. The
+	 * returned list is a view of this index, so its size can be used to detect
+	 * ambiguity without copying any matches.
+	 *
+	 * @param prefix
+	 *            The prefix. Non-null.
+	 * @return An unmodifiable view of the matching stories.
+	 */
+	public List<File> startingWith(String prefix) {
+		Preconditions.checkNotNull(prefix, "prefix must be non-null.");
+
+		String foldedPrefix = fold(prefix);
+
+		// The first name that is not less than the prefix.
+		int from = lowerBound(foldedPrefix);
+
+		// The first name, from there on, that does not start with the prefix.
+		int low = from;
+		int high = foldedNames.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (foldedNames[mid].startsWith(foldedPrefix)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return Collections.unmodifiableList(Arrays.asList(files).subList(from, low));
+	}
+
+	/**
+	 * Creates a new index with the given story added, or replaced if a story with
+	 * the same name already exists.
+	 *
+	 * @param file
+	 *            The story file. Non-null.
+	 * @return A new {@link StoryNameIndex}.
+	 */
+	public StoryNameIndex with(File file) {
+		Preconditions.checkNotNull(file, "file must be non-null.");
+
+		int index = indexOf(file.getName());
+		if (index >= 0) {
+			File[] newFiles = files.clone();
+			newFiles[index] = file;
+			return new StoryNameIndex(foldedNames, newFiles);
+		}
+
+		int insertionPoint = -(index + 1);
+
+		String[] newFoldedNames = new String[foldedNames.length + 1];
+		File[] newFiles = new File[files.length + 1];
+
+		System.arraycopy(foldedNames, 0, newFoldedNames, 0, insertionPoint);
+		System.arraycopy(files, 0, newFiles, 0, insertionPoint);
+
+		newFoldedNames[insertionPoint] = fold(file.getName());
+		newFiles[insertionPoint] = file;
+
+		System.arraycopy(foldedNames, insertionPoint, newFoldedNames, insertionPoint + 1,
+				foldedNames.length - insertionPoint);
+		System.arraycopy(files, insertionPoint, newFiles, insertionPoint + 1, files.length - insertionPoint);
+
+		return new StoryNameIndex(newFoldedNames, newFiles);
+	}
+
+	/**
+	 * Creates a new index without the story of the given name.
+	 *
+	 * @param name
+	 *            The name of the story. Non-null.
+	 * @return A new {@link StoryNameIndex}, or this index if there was no such
+	 *         story.
+	 */
+	public StoryNameIndex without(String name) {
+		Preconditions.checkNotNull(name, "name must be non-null.");
+
+		int index = indexOf(name);
+		if (index < 0) {
+			return this;
+		}
+
+		String[] newFoldedNames = new String[foldedNames.length - 1];
+		File[] newFiles = new File[files.length - 1];
+
+		System.arraycopy(foldedNames, 0, newFoldedNames, 0, index);
+		System.arraycopy(files, 0, newFiles, 0, index);
+		System.arraycopy(foldedNames, index + 1, newFoldedNames, index, foldedNames.length - index - 1);
+		System.arraycopy(files, index + 1, newFiles, index, files.length - index - 1);
+
+		return new StoryNameIndex(newFoldedNames, newFiles);
+	}
+
+	/**
+	 * Finds a name in the same way as {@link Arrays#binarySearch(Object[], Object)}.
+	 */
+	private int indexOf(String name) {
+		String foldedName = fold(name);
+
+		int low = 0;
+		int high = files.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = foldedNames[mid].compareTo(foldedName);
+			if (comparison == 0) {
+				comparison = files[mid].getName().compareTo(name);
+			}
+
+			if (comparison < 0) {
+				low = mid + 1;
+			} else if (comparison > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	private int lowerBound(String foldedKey) {
+		int low = 0;
+		int high = foldedNames.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (foldedNames[mid].compareTo(foldedKey) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Folds the case of a string the same way that
+	 * {@link String#regionMatches(boolean, int, String, int, int)} compares
+	 * characters, so that prefix matches agree with
+	 * {@code StringUtils.startsWithIgnoreCase}.
+	 */
+	private static String fold(String value) {
+		char[] chars = new char[value.length()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+		}
+		return new String(chars);
+	}
+}
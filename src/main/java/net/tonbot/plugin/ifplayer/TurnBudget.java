@@ -0,0 +1,29 @@
+package net.tonbot.plugin.ifplayer;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Limits on how long a {@link GameMachine} may run before it must wait for
+ * input.
+ */
+@Data
+@Builder
+class TurnBudget {
+
+	/**
+	 * The number of instructions after which a turn yields its worker.
+	 */
+	private final long sliceInstructions;
+
+	/**
+	 * The time, in milliseconds, after which a turn yields its worker.
+	 */
+	private final long sliceMillis;
+
+	/**
+	 * The number of instructions after which a turn is considered runaway and the
+	 * machine is halted.
+	 */
+	private final long maxInstructions;
+}
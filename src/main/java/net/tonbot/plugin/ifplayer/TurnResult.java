@@ -0,0 +1,52 @@
+package net.tonbot.plugin.ifplayer;
+
+import java.util.Optional;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+
+/**
+ * The outcome of running a {@link GameMachine} for a while.
+ */
+@Data
+@Builder
+class TurnResult {
+
+	enum Status {
+		/**
+		 * The story is waiting for input. The screen state is present.
+		 */
+		AWAITING_INPUT,
+
+		/**
+		 * The turn used up its time slice. It must be resumed with
+		 * {@link GameMachine#continueTurn()} before any more input is given.
+		 */
+		YIELDED,
+
+		/**
+		 * The machine has stopped.
+		 */
+		HALTED;
+	}
+
+	@NonNull
+	private final Status status;
+
+	private final ScreenState screenState;
+	private final String haltReason;
+
+	public Optional<ScreenState> getScreenState() {
+		return Optional.ofNullable(screenState);
+	}
+
+	/**
+	 * Gets why the machine was halted.
+	 * 
+	 * @return The reason. Empty if the story halted by itself.
+	 */
+	public Optional<String> getHaltReason() {
+		return Optional.ofNullable(haltReason);
+	}
+}
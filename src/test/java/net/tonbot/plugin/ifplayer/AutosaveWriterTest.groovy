@@ -0,0 +1,128 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.time.ZonedDateTime
+
+import spock.lang.Specification
+
+class AutosaveWriterTest extends Specification {
+
+	File saveDir
+	Story story
+	List<Runnable> queuedWrites
+	AutosaveWriter autosaveWriter
+
+	def setup() {
+		this.saveDir = Files.createTempDirectory("autosavewritertest").toFile()
+
+		byte[] image = new byte[4096]
+		new Random(1).nextBytes(image)
+		this.story = Mock(Story) {
+			getName() >> "zork"
+			getRelease() >> 88
+			getSerial() >> "840726"
+			getChecksum() >> 0x1234
+			newMemory() >> { new CopyOnWriteMemory(ByteBuffer.wrap(image)) }
+		}
+
+		SaveManager saveManager = Mock(SaveManager) {
+			getAutosaveFile(_, _) >> { long channelId, Story story ->
+				SaveFile.builder().slot(5).storyName("zork").file(new File(saveDir, "autosave-" + channelId)).build()
+			}
+		}
+
+		this.queuedWrites = []
+		this.autosaveWriter = new AutosaveWriter(saveManager, { queuedWrites.add(it) })
+	}
+
+	def cleanup() {
+		saveDir.deleteDir()
+	}
+
+	def "snapshots replaced before they are written are skipped"() {
+		when:
+		autosaveWriter.submit(1L, snapshot(1))
+		autosaveWriter.submit(1L, snapshot(2))
+		autosaveWriter.submit(2L, snapshot(1))
+		autosaveWriter.submit(1L, snapshot(3))
+
+		then:
+		queuedWrites.size() == 2
+		autosaveWriter.snapshotsSuperseded == 2
+
+		when:
+		queuedWrites.each { it.run() }
+
+		then:
+		autosaveWriter.snapshotsWritten == 2
+		read(1L).turn == 3
+		read(2L).turn == 1
+
+		when: "a snapshot comes in after the last one was written"
+		autosaveWriter.submit(1L, snapshot(4))
+
+		then:
+		queuedWrites.size() == 3
+	}
+
+	def "a snapshot reads back the same as it was taken"() {
+		given:
+		AutosaveSnapshot snapshot = snapshot(7)
+
+		when:
+		autosaveWriter.submit(1L, snapshot)
+		queuedWrites.each { it.run() }
+		AutosaveSnapshot read = read(1L)
+
+		then:
+		read.dynamicMemory == snapshot.dynamicMemory
+		read.stack == snapshot.stack
+		read.pc == snapshot.pc
+		read.fp == snapshot.fp
+		read.createdBy == "bob"
+		read.turn == 7
+	}
+
+	def "a story with a short serial can be snapshotted"() {
+		given:
+		Story shortSerialStory = Mock(Story) {
+			getName() >> "zork"
+			getRelease() >> 88
+			getSerial() >> "8407"
+			getChecksum() >> 0x1234
+			newMemory() >> { story.newMemory() }
+		}
+		AutosaveSnapshot snapshot = AutosaveSnapshot.builder().story(shortSerialStory).createdBy("bob")
+				.creationDate(ZonedDateTime.now()).turn(1).pc(0x4F2A).fp(0).stack([] as int[])
+				.dynamicMemory(new byte[2048]).build()
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+
+		when:
+		snapshot.writeTo(out)
+		AutosaveSnapshot read = AutosaveSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray()), shortSerialStory)
+
+		then:
+		read.dynamicMemory == snapshot.dynamicMemory
+
+		when: "it is read back as a snapshot of a story that only differs in its serial"
+		AutosaveSnapshot.readFrom(new ByteArrayInputStream(out.toByteArray()), story)
+
+		then:
+		thrown(IOException)
+	}
+
+	private AutosaveSnapshot snapshot(long turn) {
+		byte[] dynamicMemory = new byte[2048]
+		story.newMemory().copyBytesTo(dynamicMemory, 0, dynamicMemory.length)
+		dynamicMemory[10] = (byte) turn
+		dynamicMemory[1500] ^= (byte) 0xFF
+
+		return AutosaveSnapshot.builder().story(story).createdBy("bob").creationDate(ZonedDateTime.now()).turn(turn)
+				.pc(0x4F2A).fp(3).stack([1, 2, 0xFFFF, 3] as int[]).dynamicMemory(dynamicMemory).build()
+	}
+
+	private AutosaveSnapshot read(long channelId) {
+		return new File(saveDir, "autosave-" + channelId).withInputStream { AutosaveSnapshot.readFrom(it, story) }
+	}
+}
@@ -0,0 +1,127 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+
+import net.tonbot.plugin.ifplayer.BlorbIndex.ChunkLocation
+import spock.lang.Specification
+
+class BlorbIndexTest extends Specification {
+
+	File file
+
+	def setup() {
+		this.file = Files.createTempFile("blorbindextest", ".zblorb").toFile()
+	}
+
+	def cleanup() {
+		file.delete()
+	}
+
+	def "the Z-code is found through the resource index"() {
+		given:
+		file.bytes = blorb([["PICT", new byte[1001]], ["ZCOD", new byte[128]], ["IFhd", new byte[13]],
+			["IFmd", new byte[20]]], "ZCOD")
+
+		when:
+		BlorbIndex index = read()
+
+		then: "chunks are padded to an even length"
+		index.zcode == new ChunkLocation("ZCOD", 12 + 24 + 8 + 1002 + 8, 128)
+		index.ifhd.get() == new ChunkLocation("IFhd", 12 + 24 + 8 + 1002 + 8 + 128 + 8, 13)
+		index.ifmd.get() == new ChunkLocation("IFmd", 12 + 24 + 8 + 1002 + 8 + 128 + 8 + 14 + 8, 20)
+	}
+
+	def "a container without a resource index falls back to its ZCOD chunk"() {
+		given:
+		file.bytes = blorb([["PICT", new byte[10]], ["ZCOD", new byte[128]]], null)
+
+		when:
+		BlorbIndex index = read()
+
+		then:
+		index.zcode == new ChunkLocation("ZCOD", 12 + 8 + 10 + 8, 128)
+		!index.ifhd.isPresent()
+		!index.ifmd.isPresent()
+	}
+
+	def "malformed containers are rejected"() {
+		given:
+		file.bytes = bytes
+
+		when:
+		read()
+
+		then:
+		IllegalArgumentException e = thrown()
+		e.message == message
+
+		where:
+		problem                                   | bytes                                                                          | message
+		"it is not a Blorb container"             | new byte[128]                                                                  | "File is not a Blorb container."
+		"it has no Z-code"                        | blorb([["PICT", new byte[10]]], null)                                          | "Blorb container has no Z-code."
+		"its executable is not Z-code"            | blorb([["GLUL", new byte[10]]], "GLUL")                                        | "Blorb container has no Z-code."
+		"its Z-code is cut off"                   | truncate(blorb([["ZCOD", new byte[128]]], "ZCOD"), 64)                         | "Blorb container is truncated."
+		"its resource index points past its end"  | truncate(blorb([["PICT", new byte[10]], ["ZCOD", new byte[128]]], "ZCOD"), 50) | "Blorb container is truncated."
+		"its resource index has too many entries" | resourceIndexClaiming(1000)                                                    | "Blorb resource index is malformed."
+	}
+
+	def "only a Blorb header is recognized as one"() {
+		expect:
+		BlorbIndex.isBlorb(Arrays.copyOf(blorb([], null), 12))
+		!BlorbIndex.isBlorb(Arrays.copyOf(blorb([], null), 11))
+		!BlorbIndex.isBlorb(new byte[12])
+	}
+
+	private BlorbIndex read() {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)
+		try {
+			return BlorbIndex.read(channel)
+		} finally {
+			channel.close()
+		}
+	}
+
+	/**
+	 * Builds a Blorb container out of chunks, each given as a type and its data.
+	 * If execType is non-null, the container starts with a resource index whose
+	 * Exec entry points at the first chunk of that type.
+	 */
+	static byte[] blorb(List<List> chunks, String execType) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream()
+
+		if (execType != null) {
+			int start = 12 + 8 + 16
+			for (List chunk : chunks) {
+				if (chunk[0] == execType) {
+					break
+				}
+				start += 8 + chunk[1].length + (chunk[1].length & 1)
+			}
+			body.write(chunk("RIdx", ByteBuffer.allocate(16).putInt(1).put("Exec".bytes).putInt(0).putInt(start).array()))
+		}
+
+		chunks.each { body.write(chunk(it[0], it[1])) }
+
+		byte[] bodyBytes = body.toByteArray()
+		return ByteBuffer.allocate(12 + bodyBytes.length).put("FORM".bytes).putInt(4 + bodyBytes.length)
+				.put("IFRS".bytes).put(bodyBytes).array()
+	}
+
+	private static byte[] chunk(String type, byte[] data) {
+		return ByteBuffer.allocate(8 + data.length + (data.length & 1)).put(type.bytes).putInt(data.length).put(data)
+				.array()
+	}
+
+	private static byte[] truncate(byte[] bytes, int length) {
+		return Arrays.copyOf(bytes, length)
+	}
+
+	private static byte[] resourceIndexClaiming(int count) {
+		byte[] bytes = blorb([["ZCOD", new byte[128]]], "ZCOD")
+		ByteBuffer.wrap(bytes).putInt(12 + 8, count)
+		return bytes
+	}
+}
@@ -0,0 +1,171 @@
+package net.tonbot.plugin.ifplayer
+
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+import sx.blah.discord.handle.obj.IChannel
+import sx.blah.discord.util.DiscordException
+import sx.blah.discord.util.RateLimitException
+
+class ChannelTopicUpdaterTest extends Specification {
+
+	private static final long DEBOUNCE_MILLIS = 3_600_000L
+
+	IChannel channel
+	List<String> topicsAttempted
+	Closure onChangeTopic
+
+	Queue<Runnable> scheduled
+	ChannelTopicUpdater topicUpdater
+
+	PollingConditions conditions = new PollingConditions(timeout: 5)
+
+	def setup() {
+		this.topicsAttempted = []
+		this.onChangeTopic = {}
+		this.channel = Mock(IChannel) {
+			getLongID() >> 1L
+			getTopic() >> "Now playing: zork"
+			changeTopic(_) >> { String topic ->
+				topicsAttempted.add(topic)
+				onChangeTopic.call(topic)
+			}
+		}
+
+		this.scheduled = new LinkedList<>()
+		ScheduledExecutorService scheduler = [
+			schedule: { Runnable task, long delay, TimeUnit unit ->
+				assert delay == DEBOUNCE_MILLIS
+				scheduled.add(task)
+				return null
+			}
+		] as ScheduledExecutorService
+
+		this.topicUpdater = new ChannelTopicUpdater(scheduler, DEBOUNCE_MILLIS)
+	}
+
+	def "an unchanged topic is not sent"() {
+		when:
+		topicUpdater.update(channel, "Now playing: zork")
+
+		then:
+		scheduled.isEmpty()
+		topicUpdater.updatesSuppressed == 1
+		topicUpdater.updatesSent == 0
+	}
+
+	def "changes within the debounce window replace each other"() {
+		when:
+		topicUpdater.update(channel, "Now playing: zork    Save slot 1")
+		topicUpdater.update(channel, "Now playing: zork    Save slot 2")
+		topicUpdater.update(channel, "Now playing: zork")
+		runScheduled()
+
+		then:
+		topicsAttempted.isEmpty()
+		topicUpdater.updatesSuppressed == 3
+		topicUpdater.updatesSent == 0
+	}
+
+	def "a topic that keeps changing is applied once the first change's window ends"() {
+		when:
+		topicUpdater.update(channel, "Now playing: zork    Save slot 1")
+		topicUpdater.update(channel, "Now playing: zork    Save slot 2")
+
+		then: "later changes don't push the flush back"
+		scheduled.size() == 1
+
+		when:
+		runScheduled()
+
+		then:
+		conditions.eventually {
+			assert topicUpdater.updatesSent == 1
+		}
+		topicsAttempted == ["Now playing: zork    Save slot 2"]
+		topicUpdater.updatesSuppressed == 1
+
+		when: "the next change starts a new window"
+		topicUpdater.update(channel, "Now playing: zork    Save slot 3")
+		topicUpdater.update(channel, "Now playing: zork    Save slot 4")
+
+		then:
+		scheduled.size() == 1
+
+		when:
+		runScheduled()
+
+		then:
+		conditions.eventually {
+			assert topicUpdater.updatesSent == 2
+		}
+		topicsAttempted == ["Now playing: zork    Save slot 2", "Now playing: zork    Save slot 4"]
+		topicUpdater.updatesSuppressed == 2
+	}
+
+	def "a topic that could not be set is tried again when it is asked for again"() {
+		given:
+		onChangeTopic = { String topic ->
+			if (topicsAttempted.size() == 1) {
+				throw new DiscordException("Nope.")
+			}
+		}
+
+		when:
+		topicUpdater.update(channel, "Now playing: zork    Save slot 1")
+		runScheduled()
+
+		then:
+		conditions.eventually {
+			assert topicUpdater.updatesFailed == 1
+		}
+		topicUpdater.updatesSent == 0
+
+		when:
+		topicUpdater.update(channel, "Now playing: zork    Save slot 1")
+		runScheduled()
+
+		then:
+		conditions.eventually {
+			assert topicUpdater.updatesSent == 1
+		}
+		topicsAttempted == ["Now playing: zork    Save slot 1", "Now playing: zork    Save slot 1"]
+		topicUpdater.updatesSuppressed == 0
+		topicUpdater.updatesFailed == 1
+
+		when: "the topic has been applied"
+		topicUpdater.update(channel, "Now playing: zork    Save slot 1")
+
+		then:
+		scheduled.isEmpty()
+		topicUpdater.updatesSuppressed == 1
+	}
+
+	def "a rate limited topic is retried until it is set"() {
+		given:
+		onChangeTopic = { String topic ->
+			if (topicsAttempted.size() == 1) {
+				throw new RateLimitException("Slow down.", 0, "PATCH", false)
+			}
+		}
+
+		when:
+		topicUpdater.update(channel, "Now playing: zork    Save slot 1")
+		runScheduled()
+
+		then:
+		conditions.eventually {
+			assert topicUpdater.updatesSent == 1
+		}
+		topicsAttempted == ["Now playing: zork    Save slot 1", "Now playing: zork    Save slot 1"]
+		topicUpdater.updatesFailed == 0
+	}
+
+	private void runScheduled() {
+		while (!scheduled.isEmpty()) {
+			scheduled.poll().run()
+		}
+	}
+}
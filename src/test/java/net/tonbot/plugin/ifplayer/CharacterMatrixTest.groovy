@@ -0,0 +1,90 @@
+package net.tonbot.plugin.ifplayer
+
+import spock.lang.Specification
+
+class CharacterMatrixTest extends Specification {
+
+	private static final char[] ALPHABET = ['a', 'b', ' ', '\n'] as char[]
+
+	def "only the last rows of the scrollback are kept"() {
+		given:
+		CharacterMatrix matrix = new CharacterMatrix()
+		matrix.setScrollback(3, 100)
+
+		when:
+		"1\n2\n3\n4\n5".each { matrix.write(it as char) }
+
+		then:
+		matrix.render() == "3\n4\n5"
+		matrix.truncatedRowCount == 2
+
+		when:
+		matrix.reset()
+
+		then:
+		matrix.render() == ""
+		matrix.truncatedRowCount == 0
+	}
+
+	def "long rows wrap at the max row length"(int maxRetainedRows, String text, String expected, int truncatedRowCount) {
+		given:
+		CharacterMatrix matrix = new CharacterMatrix()
+		matrix.setScrollback(maxRetainedRows, 4)
+
+		when:
+		text.each { matrix.write(it as char) }
+
+		then:
+		matrix.render() == expected
+		matrix.truncatedRowCount == truncatedRowCount
+
+		where:
+		maxRetainedRows | text         | expected         | truncatedRowCount
+		10              | "abcdefghij" | "abcd\nefgh\nij" | 0
+		10              | "abcd\nef"   | "abcd\nef"       | 0
+		10              | "abcdefgh"   | "abcd\nefgh"     | 0
+		2               | "abcdefghij" | "efgh\nij"       | 1
+	}
+
+	def "only unconstrained matrices can have scrollback"() {
+		when:
+		new CharacterMatrix(80, 2).setScrollback(3, 100)
+
+		then:
+		thrown(IllegalStateException)
+	}
+
+	def "writing runs of characters matches writing one character at a time"() {
+		given:
+		Random random = new Random(42)
+
+		expect:
+		10000.times {
+			int maxRetainedRows = 1 + random.nextInt(4)
+			int maxRowLength = 1 + random.nextInt(6)
+
+			CharacterMatrix perChar = new CharacterMatrix()
+			perChar.setScrollback(maxRetainedRows, maxRowLength)
+			CharacterMatrix bulk = new CharacterMatrix()
+			bulk.setScrollback(maxRetainedRows, maxRowLength)
+
+			StringBuilder text = new StringBuilder()
+			random.nextInt(60).times { text.append(ALPHABET[random.nextInt(ALPHABET.length)]) }
+
+			for (char c : text.toString().toCharArray()) {
+				perChar.write(c)
+			}
+
+			int start = 0
+			while (start < text.length()) {
+				int end = start + 1 + random.nextInt(text.length() - start)
+				bulk.write(text, start, end)
+				start = end
+			}
+
+			assert bulk.render() == perChar.render()
+			assert bulk.truncatedRowCount == perChar.truncatedRowCount
+			assert bulk.cursorPosition == perChar.cursorPosition
+		}
+	}
+}
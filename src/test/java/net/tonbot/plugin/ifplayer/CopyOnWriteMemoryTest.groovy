@@ -0,0 +1,88 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.ByteBuffer
+
+import spock.lang.Specification
+
+class CopyOnWriteMemoryTest extends Specification {
+
+	private static final int IMAGE_SIZE = CopyOnWriteMemory.PAGE_SIZE * 3 + 17
+
+	byte[] image
+
+	def setup() {
+		this.image = new byte[IMAGE_SIZE]
+		for (int i = 0; i < IMAGE_SIZE; i++) {
+			image[i] = (byte) i
+		}
+	}
+
+	def "reads come from the shared image until written"() {
+		given:
+		CopyOnWriteMemory memory = new CopyOnWriteMemory(ByteBuffer.wrap(image))
+
+		expect:
+		memory.size() == IMAGE_SIZE
+		memory.byteAt(1) == 1
+		memory.byteAt(255) == 255
+		memory.shortAt(2) == 0x0203
+		memory.intAt(4) == 0x04050607
+		memory.getDirtyPageCount() == 0
+	}
+
+	def "writes are private to each memory and never touch the image"() {
+		given:
+		byte[] original = image.clone()
+		CopyOnWriteMemory memoryA = new CopyOnWriteMemory(ByteBuffer.wrap(image))
+		CopyOnWriteMemory memoryB = new CopyOnWriteMemory(ByteBuffer.wrap(image))
+
+		when:
+		memoryA.setByteAt(10, 0xAB)
+		memoryA.setShortAt(CopyOnWriteMemory.PAGE_SIZE - 1, 0xBEEF)
+
+		then:
+		memoryA.byteAt(10) == 0xAB
+		memoryA.shortAt(CopyOnWriteMemory.PAGE_SIZE - 1) == 0xBEEF
+		memoryA.getDirtyPageCount() == 2
+
+		memoryB.byteAt(10) == 10
+		memoryB.getDirtyPageCount() == 0
+
+		image == original
+	}
+
+	def "bulk copies span pages"() {
+		given:
+		CopyOnWriteMemory memory = new CopyOnWriteMemory(ByteBuffer.wrap(image))
+		byte[] src = new byte[CopyOnWriteMemory.PAGE_SIZE + 10]
+		Arrays.fill(src, (byte) 7)
+
+		when:
+		memory.copyBytesFrom(src, 0, IMAGE_SIZE - src.length, src.length)
+		byte[] dest = new byte[IMAGE_SIZE]
+		memory.copyBytesTo(dest, 0, IMAGE_SIZE)
+
+		then:
+		dest[IMAGE_SIZE - src.length - 1] == (byte) (IMAGE_SIZE - src.length - 1)
+		dest[IMAGE_SIZE - src.length] == 7
+		dest[IMAGE_SIZE - 1] == 7
+	}
+
+	def "buffer detaches from the image but keeps earlier writes"() {
+		given:
+		byte[] original = image.clone()
+		CopyOnWriteMemory memory = new CopyOnWriteMemory(ByteBuffer.wrap(image))
+		memory.setByteAt(3, 99)
+
+		when:
+		byte[] buffer = memory.buffer()
+		buffer[4] = 42
+		memory.setByteAt(5, 43)
+
+		then:
+		memory.byteAt(3) == 99
+		memory.byteAt(4) == 42
+		buffer[5] == 43
+		image == original
+	}
+}
@@ -0,0 +1,89 @@
+package net.tonbot.plugin.ifplayer
+
+import spock.lang.Specification
+
+class DiscordAwareCharacterMatrixTest extends Specification {
+
+	private static final char[] ALPHABET = [
+		' ', ' ', ' ', '\t', 'a', 'b', '\r', '\f', '\u000B', '\u0085', '\u2028', '\u2029', '\n', '\n'
+	] as char[]
+
+	def "render trims and tabifies"(List<String> lines, String expected) {
+		given:
+		DiscordAwareCharacterMatrix matrix = new DiscordAwareCharacterMatrix()
+		lines.join("\n").each { matrix.write(it as char) }
+
+		expect:
+		matrix.render() == expected
+
+		where:
+		lines                            | expected
+		[]                               | ""
+		["look   "]                      | "look"
+		["    >", "", "  "]              | "\t>"
+		["a      b", "", "c"]            | "a\t  b\n\nc"
+		["  \t  x"]                      | "\t x"
+		["a", "", "", ""]                | "a"
+	}
+
+	def "redrawing the same status bar is not a change"() {
+		given:
+		DiscordAwareCharacterMatrix matrix = new DiscordAwareCharacterMatrix(100, 2)
+		String statusBar = " West of House          Score: 0\n Moves: 1"
+
+		when:
+		matrix.write(statusBar, 0, statusBar.length())
+		String first = matrix.render()
+
+		then:
+		matrix.isFrameChanged()
+
+		when:
+		matrix.reset()
+		matrix.write(statusBar, 0, statusBar.length())
+		String second = matrix.render()
+
+		then:
+		!matrix.isFrameChanged()
+		second.is(first)
+
+		when:
+		matrix.reset()
+		matrix.write(statusBar.replace("1", "2"), 0, statusBar.length())
+		matrix.render()
+
+		then:
+		matrix.isFrameChanged()
+	}
+
+	def "render matches the regex based implementation"() {
+		given:
+		Random random = new Random(42)
+
+		expect:
+		10000.times {
+			CharacterMatrix raw = new CharacterMatrix()
+			DiscordAwareCharacterMatrix matrix = new DiscordAwareCharacterMatrix()
+
+			random.nextInt(40).times {
+				if (random.nextInt(10) == 0) {
+					int y = random.nextInt(5)
+					int x = random.nextInt(12)
+					raw.setCursor(y, x)
+					matrix.setCursor(y, x)
+				} else {
+					char c = ALPHABET[random.nextInt(ALPHABET.length)]
+					raw.write(c)
+					matrix.write(c)
+				}
+			}
+
+			// Rows never contain newlines, so the raw render splits back into rows.
+			String expected = raw.render().split("\n", -1).collect {
+				it.replaceAll('\\s+$', "").replaceAll('\\s{4}', "\t")
+			}.join("\n").replaceAll('\\s+$', "")
+
+			assert matrix.render() == expected
+		}
+	}
+}
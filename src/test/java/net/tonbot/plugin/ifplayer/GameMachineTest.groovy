@@ -0,0 +1,224 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+import spock.lang.Specification
+
+class GameMachineTest extends Specification {
+
+	/**
+	 * Where the code of the test stories starts. Everything before it is dynamic
+	 * memory.
+	 */
+	private static final int CODE_ADDRESS = 0x300
+
+	private static final int DICTIONARY_ADDRESS = 0x40
+	private static final int TEXT_BUFFER_ADDRESS = 0x44
+	private static final int PARSE_BUFFER_ADDRESS = 0x5A
+	private static final int GLOBALS_ADDRESS = 0x6C
+
+	/**
+	 * save -> sp; then forever: aread text parse -> sp
+	 */
+	private static final List<Integer> SAVE_THEN_READ = [
+		0xBE, 0x00, 0xFF, 0x00,
+		0xE4, 0x0F, 0x00, TEXT_BUFFER_ADDRESS, 0x00, PARSE_BUFFER_ADDRESS, 0x00,
+		0x8C, 0xFF, 0xF8
+	]
+
+	/**
+	 * do: inc g0 while g0 < 200; then forever: aread text parse -> sp
+	 */
+	private static final List<Integer> COUNT_TO_200_THEN_READ = [
+		0x95, 0x10,
+		0x42, 0x10, 0xC8, 0xBF, 0xFB,
+		0xE4, 0x0F, 0x00, TEXT_BUFFER_ADDRESS, 0x00, PARSE_BUFFER_ADDRESS, 0x00,
+		0x8C, 0xFF, 0xF8
+	]
+
+	/**
+	 * forever: jump to itself
+	 */
+	private static final List<Integer> LOOP_FOREVER = [
+		0x8C, 0xFF, 0xFF
+	]
+
+	File storyDir
+	OnSavedCallback onSavedCallback
+	List<AutosaveSnapshot> snapshots
+
+	def setup() {
+		this.storyDir = Files.createTempDirectory("gamemachinetest").toFile()
+		this.onSavedCallback = Mock(OnSavedCallback)
+		this.snapshots = []
+	}
+
+	def cleanup() {
+		storyDir.deleteDir()
+	}
+
+	def "a save that fails does not hold up the next turn"() {
+		given:
+		ByteArrayOutputStream savedBytes = new ByteArrayOutputStream()
+		SaveFile saveFile = Mock(SaveFile) {
+			getURI() >> URI.create("file:///saves/zork-0")
+		}
+		saveFile.getOutputStream() >> { throw new UncheckedIOException(new IOException("Disk full.")) } >>
+				saveOutputStream(savedBytes)
+
+		GameMachine gameMachine = newGameMachine(SAVE_THEN_READ, turnBudget(1_000_000, 1_000_000))
+		gameMachine.setSaveFile(saveFile)
+
+		when:
+		gameMachine.takeTurn(null, "bob")
+
+		then:
+		GameMachineException e = thrown()
+		e.message == "Failed to save the game."
+		!gameMachine.isStopped()
+
+		when: "the next input comes in"
+		TurnResult result = gameMachine.takeTurn("look", "bob")
+
+		then: "the save is tried again and the turn finishes"
+		result.status == TurnResult.Status.AWAITING_INPUT
+		savedBytes.size() > 0
+		1 * onSavedCallback.getOnSavedCallback(1L, saveFile, { it.createdBy == "bob" }) >> saveFile
+
+		when:
+		result = gameMachine.takeTurn("look", "bob")
+
+		then:
+		result.status == TurnResult.Status.AWAITING_INPUT
+		0 * onSavedCallback._
+	}
+
+	def "a save whose callback fails does not hold up the next turn"() {
+		given:
+		SaveFile saveFile = Mock(SaveFile) {
+			getURI() >> URI.create("file:///saves/zork-0")
+			getOutputStream() >> saveOutputStream(new ByteArrayOutputStream())
+		}
+
+		GameMachine gameMachine = newGameMachine(SAVE_THEN_READ, turnBudget(1_000_000, 1_000_000))
+		gameMachine.setSaveFile(saveFile)
+
+		when:
+		gameMachine.takeTurn(null, "bob")
+
+		then:
+		1 * onSavedCallback.getOnSavedCallback(*_) >> { throw new UncheckedIOException(new IOException("Disk full.")) }
+		thrown(UncheckedIOException)
+
+		when:
+		TurnResult result = gameMachine.takeTurn("look", "bob")
+
+		then:
+		1 * onSavedCallback.getOnSavedCallback(*_) >> saveFile
+		result.status == TurnResult.Status.AWAITING_INPUT
+	}
+
+	def "a turn that runs past its slice yields and then picks up where it left off"() {
+		given: "a story that takes 401 instructions to reach its first input"
+		GameMachine gameMachine = newGameMachine(COUNT_TO_200_THEN_READ, turnBudget(50, 1_000_000))
+
+		when:
+		List<TurnResult.Status> statuses = [gameMachine.takeTurn(null, "bob").status]
+		while (statuses.last() == TurnResult.Status.YIELDED) {
+			statuses.add(gameMachine.continueTurn().status)
+		}
+
+		then:
+		statuses == [TurnResult.Status.YIELDED] * 8 + [TurnResult.Status.AWAITING_INPUT]
+
+		and: "the count carried on across the slices"
+		snapshots.size() == 1
+		ByteBuffer.wrap(snapshots[0].dynamicMemory).getShort(GLOBALS_ADDRESS) == 200
+	}
+
+	def "a turn that runs past its instruction limit halts the story"() {
+		given:
+		GameMachine gameMachine = newGameMachine(LOOP_FOREVER, turnBudget(100, 1000))
+
+		when:
+		List<TurnResult> results = [gameMachine.takeTurn(null, "bob")]
+		while (results.last().status == TurnResult.Status.YIELDED) {
+			results.add(gameMachine.continueTurn())
+		}
+
+		then:
+		results*.status == [TurnResult.Status.YIELDED] * 9 + [TurnResult.Status.HALTED]
+		results.last().haltReason.get() == "The story ran for too long without waiting for input, so it has been stopped."
+		gameMachine.isStopped()
+		snapshots.isEmpty()
+
+		when:
+		gameMachine.takeTurn("look", "bob")
+
+		then:
+		GameMachineException e = thrown()
+		e.message == "This GameMachine has been stopped."
+	}
+
+	private GameMachine newGameMachine(List<Integer> code, TurnBudget turnBudget) {
+		File storyFile = new File(storyDir, "test.z5")
+		storyFile.bytes = story(code)
+
+		return new GameMachine(Story.loadFrom(storyFile), 1L, onSavedCallback, turnBudget,
+				ScrollbackLimits.builder().maxLines(100).maxLineLength(100).build(),
+				AutosavePolicy.builder().everyTurns(1).build(), { long channelId, AutosaveSnapshot snapshot ->
+					snapshots.add(snapshot)
+				} as OnAutosaveCallback)
+	}
+
+	private static SaveOutputStream saveOutputStream(ByteArrayOutputStream out) {
+		return new SaveOutputStream() {
+			@Override
+			void write(int b) {
+				out.write(b)
+			}
+
+			@Override
+			void abort() {
+			}
+		}
+	}
+
+	private static TurnBudget turnBudget(long sliceInstructions, long maxInstructions) {
+		return TurnBudget.builder().sliceInstructions(sliceInstructions).sliceMillis(60_000)
+				.maxInstructions(maxInstructions).build()
+	}
+
+	/**
+	 * Builds a version 5 story with the given code. It has an empty dictionary, a
+	 * text and a parse buffer for aread, and zeroed globals.
+	 */
+	private static byte[] story(List<Integer> code) {
+		int length = CODE_ADDRESS + ((code.size() + 3) & ~3)
+		ByteBuffer buffer = ByteBuffer.allocate(length)
+
+		buffer.put(0x00, (byte) 5)
+		buffer.putShort(0x04, (short) CODE_ADDRESS) // High memory
+		buffer.putShort(0x06, (short) CODE_ADDRESS) // Initial PC
+		buffer.putShort(0x08, (short) DICTIONARY_ADDRESS)
+		buffer.putShort(0x0A, (short) GLOBALS_ADDRESS) // Object table, unused
+		buffer.putShort(0x0C, (short) GLOBALS_ADDRESS)
+		buffer.putShort(0x0E, (short) CODE_ADDRESS) // Static memory
+		buffer.putShort(0x18, (short) GLOBALS_ADDRESS) // Abbreviations, unused
+		buffer.putShort(0x1A, (short) length.intdiv(4))
+
+		// No word separators, 9 byte entries, no entries.
+		buffer.put(DICTIONARY_ADDRESS, (byte) 0)
+		buffer.put(DICTIONARY_ADDRESS + 1, (byte) 9)
+		buffer.putShort(DICTIONARY_ADDRESS + 2, (short) 0)
+
+		buffer.put(TEXT_BUFFER_ADDRESS, (byte) 20)
+		buffer.put(PARSE_BUFFER_ADDRESS, (byte) 4)
+
+		buffer.position(CODE_ADDRESS)
+		code.each { buffer.put((byte) it) }
+
+		return buffer.array()
+	}
+}
@@ -0,0 +1,223 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.file.Files
+import java.time.ZonedDateTime
+
+import spock.lang.Specification
+
+class LogSaveManagerTest extends Specification {
+
+	private static final int MAX_SLOTS = 5
+	private static final long SEGMENT_BYTES = 1024
+
+	File saveDir
+	Story story
+	LogSaveManager saveManager
+
+	def setup() {
+		this.saveDir = Files.createTempDirectory("logsavemanagertest").toFile()
+		this.story = Mock(Story) {
+			getName() >> "zork"
+		}
+		this.saveManager = new LogSaveManager(saveDir, MAX_SLOTS, SEGMENT_BYTES)
+	}
+
+	def cleanup() {
+		saveManager.close()
+		saveDir.deleteDir()
+	}
+
+	def "saves, metadata and deletes survive a restart"() {
+		given:
+		write(saveManager.getSaveFile(1L, story, 2), "two")
+		saveManager.saveNewMetadata(1L, saveManager.getSaveFile(1L, story, 2),
+				new SaveFileMetadata("bob", ZonedDateTime.now()))
+		write(saveManager.getSaveFile(1L, story, 3), "three")
+		saveManager.deleteSaveFile(1L, story, 3)
+		saveManager.getSaveFile(1L, story, 0)
+
+		when:
+		List<SaveFile> saveFiles = restart().getSaveFiles(1L, story)
+
+		then:
+		saveFiles*.slot == [0, 2]
+		saveFiles[0].inputStream.text == ""
+		saveFiles[1].inputStream.text == "two"
+		saveFiles[1].metadata.get().createdBy == "bob"
+		saveManager.getSaveFiles(2L, story).isEmpty()
+	}
+
+	def "an aborted save leaves the slot as it was"() {
+		given:
+		SaveFile saveFile = saveManager.getSaveFile(1L, story, 1)
+		write(saveFile, "old")
+
+		when:
+		SaveOutputStream out = saveFile.outputStream
+		out.write("new".bytes)
+		out.abort()
+
+		then:
+		saveFile.inputStream.text == "old"
+	}
+
+	def "a record cut off by a crash is dropped on recovery"() {
+		given:
+		write(saveManager.getSaveFile(1L, story, 1), "kept")
+		write(saveManager.getSaveFile(1L, story, 1), "torn")
+		saveManager.close()
+		File segment = new File(saveDir, "log").listFiles().sort { it.name }.last()
+		new RandomAccessFile(segment, "rw").withCloseable { it.setLength(it.length() - 3) }
+
+		when:
+		LogSaveManager recovered = restart()
+
+		then:
+		recovered.getSaveFiles(1L, story)[0].inputStream.text == "kept"
+
+		when: "the log is appended to after the truncated record"
+		write(recovered.getSaveFile(1L, story, 1), "after")
+
+		then:
+		restart().getSaveFiles(1L, story)[0].inputStream.text == "after"
+	}
+
+	def "compaction keeps live saves and drops superseded ones"() {
+		given:
+		String save = "x" * 300
+		10.times { write(saveManager.getSaveFile(1L, story, 0), save + it) }
+		write(saveManager.getSaveFile(1L, story, 1), "deleted")
+		saveManager.deleteSaveFile(1L, story, 1)
+		write(saveManager.getSaveFile(1L, story, 2), "kept")
+		10.times { write(saveManager.getSaveFile(1L, story, 0), save + (it + 10)) }
+		long logBytes = logBytes()
+
+		when:
+		int compacted = saveManager.compact()
+
+		then:
+		compacted > 0
+		logBytes() < logBytes
+		saveManager.getSaveFiles(1L, story)*.slot == [0, 2]
+		saveManager.getSaveFile(1L, story, 0).inputStream.text == save + 19
+
+		when:
+		LogSaveManager restarted = restart()
+
+		then:
+		restarted.getSaveFiles(1L, story)*.slot == [0, 2]
+		restarted.getSaveFile(1L, story, 0).inputStream.text == save + 19
+		restarted.getSaveFile(1L, story, 2).inputStream.text == "kept"
+	}
+
+	def "a restart only replays the records written after the last checkpoint"() {
+		given:
+		write(saveManager.getSaveFile(1L, story, 0), "zero")
+		saveManager.saveNewMetadata(1L, saveManager.getSaveFile(1L, story, 0),
+				new SaveFileMetadata("bob", ZonedDateTime.now()))
+		write(saveManager.getSaveFile(1L, story, 1), "one")
+		saveManager.deleteSaveFile(1L, story, 1)
+		saveManager.checkpoint()
+
+		and: "a slot is created and saved to after the checkpoint"
+		write(saveManager.getSaveFile(1L, story, 2), "two")
+
+		when:
+		LogSaveManager restarted = restart()
+		List<SaveFile> saveFiles = restarted.getSaveFiles(1L, story)
+
+		then:
+		restarted.recordsReplayed == 2
+		saveFiles*.slot == [0, 2]
+		saveFiles[0].inputStream.text == "zero"
+		saveFiles[0].metadata.get().createdBy == "bob"
+		saveFiles[1].inputStream.text == "two"
+	}
+
+	def "a checkpoint past a record cut off by a crash is not used"() {
+		given:
+		write(saveManager.getSaveFile(1L, story, 1), "kept")
+		write(saveManager.getSaveFile(1L, story, 1), "torn")
+		saveManager.checkpoint()
+		saveManager.close()
+		File segment = segments().last()
+		new RandomAccessFile(segment, "rw").withCloseable { it.setLength(it.length() - 3) }
+
+		when:
+		LogSaveManager recovered = restart()
+
+		then:
+		recovered.getSaveFiles(1L, story)[0].inputStream.text == "kept"
+
+		when: "the log grows past where the checkpoint was"
+		write(recovered.getSaveFile(1L, story, 1), "after")
+
+		then:
+		restart().getSaveFiles(1L, story)[0].inputStream.text == "after"
+	}
+
+	def "segments compacted after the checkpoint are recovered from their copies"() {
+		given:
+		String save = "x" * 300
+		10.times { write(saveManager.getSaveFile(1L, story, 0), save + it) }
+		write(saveManager.getSaveFile(1L, story, 2), "kept")
+		saveManager.checkpoint()
+		10.times { write(saveManager.getSaveFile(1L, story, 0), save + (it + 10)) }
+
+		when:
+		saveManager.compact()
+		LogSaveManager restarted = restart()
+
+		then:
+		restarted.getSaveFiles(1L, story)*.slot == [0, 2]
+		restarted.getSaveFile(1L, story, 0).inputStream.text == save + 19
+		restarted.getSaveFile(1L, story, 2).inputStream.text == "kept"
+	}
+
+	def "a damaged record in a sealed segment only loses that record"() {
+		given: "three saves, of which the first two fill the first segment"
+		write(saveManager.getSaveFile(1L, story, 0), "a" * 300)
+		write(saveManager.getSaveFile(1L, story, 1), "b" * 300)
+		write(saveManager.getSaveFile(1L, story, 2), "c" * 300)
+		saveManager.close()
+
+		File segment = segments().first()
+		long segmentLength = segment.length()
+		int damaged = new String(segment.bytes, "ISO-8859-1").indexOf("b" * 300) + 10
+		new RandomAccessFile(segment, "rw").withCloseable {
+			it.seek(damaged)
+			it.write((int) 'X')
+		}
+
+		when:
+		List<SaveFile> saveFiles = restart().getSaveFiles(1L, story)
+
+		then:
+		segments().size() == 2
+		segment.length() == segmentLength
+		saveFiles*.slot == [0, 1, 2]
+		saveFiles[0].inputStream.text == "a" * 300
+		saveFiles[1].inputStream.text == ""
+		saveFiles[2].inputStream.text == "c" * 300
+	}
+
+	private LogSaveManager restart() {
+		saveManager.close()
+		this.saveManager = new LogSaveManager(saveDir, MAX_SLOTS, SEGMENT_BYTES)
+		return saveManager
+	}
+
+	private List<File> segments() {
+		return new File(saveDir, "log").listFiles().findAll { it.name.startsWith("segment-") }.sort { it.name }
+	}
+
+	private long logBytes() {
+		return new File(saveDir, "log").listFiles().sum { it.length() }
+	}
+
+	private static void write(SaveFile saveFile, String text) {
+		SaveOutputStream out = saveFile.outputStream
+		out.write(text.bytes)
+		out.close()
+	}
+}
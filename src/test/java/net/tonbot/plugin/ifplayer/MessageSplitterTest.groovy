@@ -0,0 +1,55 @@
+package net.tonbot.plugin.ifplayer
+
+import spock.lang.Specification
+
+class MessageSplitterTest extends Specification {
+
+	def "short messages are not split"() {
+		expect:
+		MessageSplitter.split("```hello```") == ["```hello```"]
+		MessageSplitter.split("") == []
+	}
+
+	def "splits on line boundaries"() {
+		given:
+		String message = (1..10).collect { "line ${it}" }.join("\n")
+
+		when:
+		List<String> chunks = MessageSplitter.split(message, 20)
+
+		then:
+		chunks == [
+			"line 1\nline 2\nline 3",
+			"line 4\nline 5\nline 6",
+			"line 7\nline 8\nline 9",
+			"line 10"
+		]
+	}
+
+	def "code blocks are closed and reopened across chunks"() {
+		given:
+		String message = "```" + (1..10).collect { "line ${it}" }.join("\n") + "```"
+
+		when:
+		List<String> chunks = MessageSplitter.split(message, 24)
+
+		then:
+		chunks.every { it.length() <= 24 }
+		chunks.every { it.startsWith("```") && it.endsWith("```") }
+		chunks.collect { it.replace("```\n", "").replace("```", "") }.join("\n") == (1..10).collect {
+			"line ${it}"
+		}.join("\n")
+	}
+
+	def "long lines are broken up"() {
+		given:
+		String message = "x" * 4500
+
+		when:
+		List<String> chunks = MessageSplitter.split(message)
+
+		then:
+		chunks*.length() == [1997, 1997, 506]
+		chunks.join("") == message
+	}
+}
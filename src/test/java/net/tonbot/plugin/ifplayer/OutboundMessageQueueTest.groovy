@@ -0,0 +1,138 @@
+package net.tonbot.plugin.ifplayer
+
+import java.util.concurrent.Executor
+
+import spock.lang.Specification
+import sx.blah.discord.handle.obj.IChannel
+import sx.blah.discord.handle.obj.IMessage
+import sx.blah.discord.util.DiscordException
+import sx.blah.discord.util.RateLimitException
+
+class OutboundMessageQueueTest extends Specification {
+
+	IChannel channel
+	Queue<Runnable> queuedSenders
+	OutboundMessageQueue outboundMessageQueue
+
+	def setup() {
+		this.channel = Mock(IChannel) { getLongID() >> 1L }
+		this.queuedSenders = new LinkedList<>()
+		this.outboundMessageQueue = new OutboundMessageQueue({ queuedSenders.add(it) } as Executor)
+	}
+
+	def "messages that queued up while the channel was busy are merged"() {
+		when:
+		outboundMessageQueue.send(channel, "one")
+		outboundMessageQueue.send(channel, "two")
+		outboundMessageQueue.send(channel, "three")
+
+		then:
+		outboundMessageQueue.getQueueDepth(1L) == 3
+		outboundMessageQueue.stats.queueDepth == 3
+
+		when:
+		runQueuedSenders()
+
+		then:
+		1 * channel.sendMessage("one\ntwo\nthree")
+		0 * channel.sendMessage(_)
+		outboundMessageQueue.getQueueDepth(1L) == 0
+		outboundMessageQueue.stats.queueDepth == 0
+		outboundMessageQueue.stats.messagesSent == 1
+		outboundMessageQueue.stats.messagesCoalesced == 2
+		outboundMessageQueue.stats.messagesFailed == 0
+	}
+
+	def "each channel's messages are sent in the order they were queued"() {
+		given:
+		IChannel otherChannel = Mock(IChannel) { getLongID() >> 2L }
+		StatusMessage statusMessage = new StatusMessage()
+
+		when:
+		outboundMessageQueue.send(channel, "one")
+		outboundMessageQueue.send(otherChannel, "elsewhere")
+		outboundMessageQueue.updateStatus(channel, statusMessage, "West of House")
+		outboundMessageQueue.send(channel, "two")
+		runQueuedSenders()
+
+		then:
+		1 * channel.sendMessage("one")
+
+		then: "a status update is never merged with the messages around it"
+		1 * channel.sendMessage("West of House") >> Mock(IMessage)
+		1 * channel.pin(_)
+
+		then:
+		1 * channel.sendMessage("two")
+
+		and:
+		1 * otherChannel.sendMessage("elsewhere")
+		outboundMessageQueue.stats.messagesSent == 4
+		outboundMessageQueue.stats.messagesCoalesced == 0
+	}
+
+	def "failed sends are counted apart from sent ones"() {
+		when:
+		outboundMessageQueue.send(channel, "one")
+		runQueuedSenders()
+		outboundMessageQueue.send(channel, "two")
+		runQueuedSenders()
+
+		then:
+		1 * channel.sendMessage("one") >> { throw new DiscordException("Nope.") }
+		1 * channel.sendMessage("two")
+		outboundMessageQueue.stats.messagesSent == 1
+		outboundMessageQueue.stats.messagesFailed == 1
+	}
+
+	def "rate limited sends are retried rather than dropped"() {
+		when:
+		outboundMessageQueue.send(channel, "one")
+		runQueuedSenders()
+
+		then:
+		2 * channel.sendMessage("one") >> { throw new RateLimitException("Slow down.", 0, "POST", false) } >> null
+		outboundMessageQueue.stats.messagesSent == 1
+		outboundMessageQueue.stats.messagesFailed == 0
+	}
+
+	def "a status message is sent and pinned once, then edited in place"() {
+		given:
+		StatusMessage statusMessage = new StatusMessage()
+		IMessage sentMessage = Mock(IMessage)
+
+		when:
+		outboundMessageQueue.updateStatus(channel, statusMessage, "West of House")
+		runQueuedSenders()
+
+		then:
+		1 * channel.sendMessage("West of House") >> sentMessage
+		1 * channel.pin(sentMessage)
+
+		when: "several updates are waiting"
+		outboundMessageQueue.updateStatus(channel, statusMessage, "North of House")
+		outboundMessageQueue.updateStatus(channel, statusMessage, "Behind House")
+		runQueuedSenders()
+
+		then: "only the latest is applied"
+		1 * sentMessage.edit("Behind House")
+		0 * sentMessage.edit(_)
+		0 * channel.sendMessage(_)
+
+		when:
+		outboundMessageQueue.releaseStatus(channel, statusMessage)
+		outboundMessageQueue.updateStatus(channel, statusMessage, "Kitchen")
+		runQueuedSenders()
+
+		then:
+		1 * channel.unpin(sentMessage)
+		0 * sentMessage.edit(_)
+		0 * channel.sendMessage(_)
+	}
+
+	private void runQueuedSenders() {
+		while (!queuedSenders.isEmpty()) {
+			queuedSenders.poll().run()
+		}
+	}
+}
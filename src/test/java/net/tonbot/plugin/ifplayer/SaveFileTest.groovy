@@ -0,0 +1,85 @@
+package net.tonbot.plugin.ifplayer
+
+import java.lang.management.ManagementFactory
+import java.nio.file.Files
+
+import com.sun.management.UnixOperatingSystemMXBean
+
+import spock.lang.Requires
+import spock.lang.Specification
+
+class SaveFileTest extends Specification {
+
+	private static final int CYCLES = 2000
+
+	File dir
+	SaveFile saveFile
+
+	def setup() {
+		this.dir = Files.createTempDirectory("savefiletest").toFile()
+		File file = new File(dir, "1_zork_slot0.save")
+		file.createNewFile()
+
+		this.saveFile = SaveFile.builder().file(file).storyName("zork").slot(0).build()
+	}
+
+	def cleanup() {
+		dir.deleteDir()
+	}
+
+	def "a save replaces the file only when it is closed"() {
+		given:
+		saveFile.file.bytes = "old".bytes
+
+		when:
+		SaveOutputStream out = saveFile.getOutputStream()
+		out.write("new".bytes)
+
+		then:
+		saveFile.file.bytes == "old".bytes
+
+		when:
+		out.close()
+
+		then:
+		saveFile.file.bytes == "new".bytes
+		dir.list() as List == ["1_zork_slot0.save"]
+	}
+
+	def "an aborted save leaves the file as it was"() {
+		given:
+		saveFile.file.bytes = "old".bytes
+
+		when:
+		SaveOutputStream out = saveFile.getOutputStream()
+		out.write("partial".bytes)
+		out.abort()
+		out.close()
+
+		then:
+		saveFile.file.bytes == "old".bytes
+		dir.list() as List == ["1_zork_slot0.save"]
+	}
+
+	@Requires({ ManagementFactory.operatingSystemMXBean instanceof UnixOperatingSystemMXBean })
+	def "saving and restoring repeatedly does not leak file descriptors"() {
+		given:
+		UnixOperatingSystemMXBean os = (UnixOperatingSystemMXBean) ManagementFactory.operatingSystemMXBean
+		byte[] data = new byte[4096]
+		new Random(42).nextBytes(data)
+		long openBefore = os.openFileDescriptorCount
+
+		when:
+		CYCLES.times {
+			saveFile.getOutputStream().withCloseable { out ->
+				data.each { out.write(it) }
+			}
+			saveFile.getInputStream().withCloseable { it.bytes }
+		}
+
+		then:
+		// A little slack for descriptors the JVM opens on its own, such as jars.
+		os.openFileDescriptorCount - openBefore < 10
+		saveFile.file.bytes == data
+	}
+}
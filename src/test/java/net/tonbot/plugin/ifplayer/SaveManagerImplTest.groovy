@@ -0,0 +1,168 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.file.Files
+import java.time.ZonedDateTime
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule
+
+import spock.lang.Specification
+
+class SaveManagerImplTest extends Specification {
+
+	private static final int MAX_SLOTS = 5
+
+	File saveDir
+	Story story
+	SaveManagerImpl saveManager
+
+	def setup() {
+		this.saveDir = Files.createTempDirectory("savemanagertest").toFile()
+		this.story = Mock(Story) {
+			getName() >> "zork"
+		}
+		this.saveManager = new SaveManagerImpl(saveDir, MAX_SLOTS)
+	}
+
+	def cleanup() {
+		saveDir.deleteDir()
+	}
+
+	def "saved slots are listed after a restart"() {
+		given:
+		SaveFile saveFile = saveManager.getSaveFile(1L, story, 2)
+		saveManager.saveNewMetadata(1L, saveFile, new SaveFileMetadata("bob", ZonedDateTime.now()))
+		saveManager.getSaveFile(1L, story, 0)
+
+		when:
+		List<SaveFile> saveFiles = new SaveManagerImpl(saveDir, MAX_SLOTS).getSaveFiles(1L, story)
+
+		then:
+		saveFiles*.slot == [0, 2]
+		!saveFiles[0].metadata.isPresent()
+		saveFiles[1].metadata.get().createdBy == "bob"
+		new SaveManagerImpl(saveDir, MAX_SLOTS).getSaveFiles(2L, story).isEmpty()
+	}
+
+	def "a deleted slot is no longer listed"() {
+		given:
+		saveManager.getSaveFile(1L, story, 1)
+
+		when:
+		saveManager.deleteSaveFile(1L, story, 1)
+
+		then:
+		saveManager.getSaveFiles(1L, story).isEmpty()
+		new SaveManagerImpl(saveDir, MAX_SLOTS).getSaveFiles(1L, story).isEmpty()
+		saveDir.list().length == 0
+	}
+
+	def "slots saved with a metadata file per slot are indexed"() {
+		given:
+		new File(saveDir, "1_zork_slot3.save").createNewFile()
+		new ObjectMapper().registerModule(new JavaTimeModule()).writeValue(new File(saveDir, "1_zork_slot3.meta"),
+				new SaveFileMetadata("alice", ZonedDateTime.now()))
+
+		when:
+		List<SaveFile> saveFiles = saveManager.getSaveFiles(1L, story)
+
+		then:
+		saveFiles*.slot == [3]
+		saveFiles[0].metadata.get().createdBy == "alice"
+	}
+
+	def "flat saves are migrated unless their story is in use"() {
+		given:
+		new File(saveDir, "1_zork_slot3.save").text = "one"
+		new File(saveDir, "1_zork_slot3.meta").createNewFile()
+		new File(saveDir, "2_zork_slot0.save").text = "two"
+		saveManager.getSaveFile(2L, story, 0)
+		SaveLayout layout = new SaveLayout(saveDir)
+
+		when:
+		int migrated = saveManager.migrateFlatLayout()
+
+		then:
+		migrated == 1
+		!saveManager.flatLayoutMigrated
+		saveDir.listFiles().findAll { it.isFile() }*.name == ["2_zork_slot0.save"]
+		layout.getSaveFile(1L, "zork", 3).text == "one"
+		layout.getIndexFile(1L, "zork").exists()
+		saveManager.getSaveFiles(2L, story)[0].file.text == "two"
+
+		when:
+		SaveManagerImpl restarted = new SaveManagerImpl(saveDir, MAX_SLOTS)
+		restarted.migrateFlatLayout()
+
+		then:
+		restarted.flatLayoutMigrated
+		restarted.getSaveFiles(1L, story)*.slot == [3]
+		!restarted.getSaveFiles(1L, story)[0].metadata.isPresent()
+		restarted.getSaveFiles(2L, story)[0].file.text == "two"
+		saveDir.listFiles().findAll { it.isFile() }.isEmpty()
+	}
+
+	def "only stories left in the flat layout are looked up there after the scan"() {
+		given:
+		new File(saveDir, "1_zork_slot0.save").text = "one"
+		saveManager.getSaveFile(1L, story, 0)
+		saveManager.migrateFlatLayout()
+
+		when: "a flat file turns up for a story that wasn't there when the layout was scanned"
+		new File(saveDir, "2_zork_slot0.save").text = "two"
+
+		then:
+		!saveManager.flatLayoutMigrated
+		saveManager.getSaveFiles(1L, story)[0].file.text == "one"
+		saveManager.getSaveFiles(2L, story).isEmpty()
+	}
+
+	def "saves are kept as versions that share chunks"() {
+		given:
+		SaveManagerImpl history = new SaveManagerImpl(saveDir, MAX_SLOTS, 2)
+		byte[] first = new byte[20000]
+		new Random(1).nextBytes(first)
+		byte[] second = first.clone()
+		second[10000] ^= 1
+
+		write(history.getSaveFile(1L, story, 0), first)
+		history.saveNewMetadata(1L, history.getSaveFile(1L, story, 0), new SaveFileMetadata("bob", ZonedDateTime.now()))
+		write(history.getSaveFile(1L, story, 0), second)
+		write(history.getSaveFile(2L, story, 0), first)
+
+		when:
+		SaveHistoryStats stats = history.sweepChunks()
+
+		then:
+		history.getSaveVersions(1L, story, 0)*.number == [1, 2]
+		history.getSaveVersions(1L, story, 0)[0].metadata.createdBy == "bob"
+		new SaveManagerImpl(saveDir, MAX_SLOTS, 2).getSaveFile(1L, story, 0).inputStream.bytes == second
+		stats.versions == 3
+		stats.logicalBytes == 60000
+		stats.storedBytes < 30000
+		stats.sweptChunks == 0
+
+		when:
+		history.revertSaveFile(1L, story, 0, 1)
+
+		then:
+		history.getSaveVersions(1L, story, 0)*.number == [2, 3]
+		history.getSaveFile(1L, story, 0).inputStream.bytes == first
+
+		when:
+		history.deleteSaveFile(1L, story, 0)
+		history.deleteSaveFile(2L, story, 0)
+		new File(saveDir, "chunks").eachFileRecurse { it.setLastModified(0) }
+		stats = history.sweepChunks()
+
+		then:
+		stats.sweptChunks > 0
+		stats.storedBytes == 0
+	}
+
+	private static void write(SaveFile saveFile, byte[] save) {
+		SaveOutputStream out = saveFile.outputStream
+		out.write(save)
+		out.close()
+	}
+}
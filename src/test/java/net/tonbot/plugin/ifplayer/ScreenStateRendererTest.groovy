@@ -0,0 +1,107 @@
+package net.tonbot.plugin.ifplayer
+
+import spock.lang.Specification
+import sx.blah.discord.handle.obj.IChannel
+
+class ScreenStateRendererTest extends Specification {
+
+	IChannel channel
+	OutboundMessageQueue outboundMessageQueue
+	boolean stopped
+	Session session
+	ScreenStateRenderer screenStateRenderer
+
+	def setup() {
+		this.channel = Mock(IChannel) { getLongID() >> 1L }
+		this.outboundMessageQueue = Mock(OutboundMessageQueue)
+		this.stopped = false
+
+		Config config = Mock(Config) {
+			isStatusMessageInPlace() >> true
+		}
+		Story story = Mock(Story) {
+			getName() >> "zork"
+		}
+		GameMachine gameMachine = Mock(GameMachine) {
+			isStopped() >> { stopped }
+			getStory() >> story
+			getSaveFile() >> Optional.empty()
+		}
+
+		this.screenStateRenderer = new ScreenStateRenderer(outboundMessageQueue, Mock(ChannelTopicUpdater), config)
+		this.session = new Session(new SessionKey(1L), 1, "zork", gameMachine, screenStateRenderer,
+				Mock(SessionMailbox))
+	}
+
+	def "the status message is edited in place when the persistent windows change"() {
+		given:
+		StatusMessage statusMessage
+
+		when:
+		screenStateRenderer.render(session, screen(["West of House", "You are standing in a field."], null), channel)
+
+		then:
+		1 * outboundMessageQueue.updateStatus(channel, _, "```West of House```") >> { statusMessage = it[1] }
+
+		when: "only the scrolling window changes"
+		screenStateRenderer.render(session, screen(["West of House", "It is dark."], [false, true]), channel)
+
+		then:
+		0 * outboundMessageQueue.updateStatus(*_)
+		1 * outboundMessageQueue.send(channel, "```It is dark.```")
+
+		when:
+		screenStateRenderer.render(session, screen(["North of House", "You walk north."], [true, true]), channel)
+
+		then:
+		1 * outboundMessageQueue.updateStatus(channel, { it.is(statusMessage) }, "```North of House```")
+	}
+
+	def "the status message is released once the story stops"() {
+		given:
+		StatusMessage statusMessage
+		screenStateRenderer.render(session, screen(["West of House", "You are standing in a field."], null), channel)
+		1 * outboundMessageQueue.updateStatus(channel, _, _) >> { statusMessage = it[1] }
+
+		when:
+		stopped = true
+		screenStateRenderer.render(session, null, channel)
+
+		then:
+		1 * outboundMessageQueue.releaseStatus(channel, { it.is(statusMessage) })
+
+		when: "the stopped session is cleared again"
+		screenStateRenderer.render(session, null, channel)
+		screenStateRenderer.releaseStatus(channel)
+
+		then:
+		0 * outboundMessageQueue.releaseStatus(*_)
+	}
+
+	def "the status is queued before the turn's text"() {
+		when:
+		screenStateRenderer.render(session, screen(["West of House", "You are standing in a field."], null), channel)
+
+		then:
+		1 * outboundMessageQueue.updateStatus(channel, _, "```West of House```")
+
+		then:
+		1 * outboundMessageQueue.send(channel, "```You are standing in a field.```")
+	}
+
+	def "lines cut from the scrolling window are noted above it"() {
+		given:
+		ScreenState screenState = ScreenState.builder().windowContents(["West of House", "3\n4\n5"])
+				.windowChanges([false, true]).truncatedLineCount(2).build()
+
+		when:
+		screenStateRenderer.render(session, screenState, channel)
+
+		then:
+		1 * outboundMessageQueue.send(channel, "*(2 earlier lines were cut off.)*\n```3\n4\n5```")
+	}
+
+	private static ScreenState screen(List<String> windowContents, List<Boolean> windowChanges) {
+		return ScreenState.builder().windowContents(windowContents).windowChanges(windowChanges).build()
+	}
+}
@@ -0,0 +1,143 @@
+package net.tonbot.plugin.ifplayer
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+import spock.lang.Specification
+import sx.blah.discord.handle.obj.IChannel
+
+class SessionManagerImplTest extends Specification {
+
+	private static final int NUM_THREADS = 8
+	private static final int OPS_PER_THREAD = 5000
+	private static final int NUM_CHANNELS = 4
+
+	GameMachine gameMachine
+	ScreenStateRenderer screenStateRenderer
+	SessionMailbox mailbox
+	Story story
+	IChannel channel
+
+	Queue<Session> created
+	SessionManagerImpl sessionManager
+
+	def setup() {
+		this.gameMachine = Mock(GameMachine)
+		this.screenStateRenderer = Mock(ScreenStateRenderer)
+		this.mailbox = Mock(SessionMailbox)
+		this.story = Mock(Story)
+		this.channel = Mock(IChannel)
+		this.created = new ConcurrentLinkedQueue<>()
+
+		this.sessionManager = new SessionManagerImpl(Mock(OutboundMessageQueue), Mock(ChannelTopicUpdater),
+				Mock(SaveManager), Mock(SessionExecutor), Mock(AutosaveWriter), Mock(Config)) {
+					@Override
+					Session newSession(SessionKey sessionKey, long generation, IChannel channel, Story story,
+							SaveFile saveFile) {
+						Session session = new Session(sessionKey, generation, "story", gameMachine, screenStateRenderer,
+								mailbox)
+						created.add(session)
+						return session
+					}
+				}
+	}
+
+	def "creating a session replaces the current one"() {
+		given:
+		SessionKey sessionKey = new SessionKey(1L)
+		List<Session> replaced = []
+
+		when:
+		Session first = sessionManager.createSession(sessionKey, channel, story, { replaced.add(it) })
+		Session second = sessionManager.createSession(sessionKey, channel, story, { replaced.add(it) })
+
+		then:
+		replaced.size() == 1
+		replaced[0].is(first)
+		sessionManager.getSession(sessionKey).get().is(second)
+		second.generation > first.generation
+	}
+
+	def "removing a replaced session leaves the newer one alone"() {
+		given:
+		SessionKey sessionKey = new SessionKey(1L)
+		Session first = sessionManager.createSession(sessionKey, channel, story, {})
+		Session second = sessionManager.createSession(sessionKey, channel, story, {})
+
+		expect:
+		!sessionManager.removeSession(first)
+		sessionManager.getSession(sessionKey).get().is(second)
+		sessionManager.removeSession(second)
+		!sessionManager.getSession(sessionKey).isPresent()
+	}
+
+	def "a session created after the last one was removed is newer than it"() {
+		given:
+		SessionKey sessionKey = new SessionKey(1L)
+		Session first = sessionManager.createSession(sessionKey, channel, story, {})
+		sessionManager.removeSession(sessionKey)
+
+		when:
+		Session second = sessionManager.createSession(sessionKey, channel, story, {})
+
+		then:
+		second.generation > first.generation
+		!sessionManager.removeSession(first)
+		sessionManager.getSession(sessionKey).get().is(second)
+	}
+
+	def "racing creates and removes neither lose nor duplicate sessions"() {
+		given:
+		Queue<Session> retired = new ConcurrentLinkedQueue<>()
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS)
+		CountDownLatch startLatch = new CountDownLatch(1)
+
+		when:
+		List<Future<?>> futures = (1..NUM_THREADS).collect { int seed ->
+			executor.submit({
+				Random random = new Random(seed)
+				startLatch.await()
+
+				OPS_PER_THREAD.times {
+					SessionKey sessionKey = new SessionKey((long) random.nextInt(NUM_CHANNELS))
+
+					switch (random.nextInt(3)) {
+						case 0:
+							sessionManager.createSession(sessionKey, channel, story, { retired.add(it) })
+							break
+						case 1:
+							sessionManager.removeSession(sessionKey).ifPresent({ retired.add(it) })
+							break
+						default:
+							sessionManager.getSession(sessionKey).ifPresent({ Session session ->
+								if (sessionManager.removeSession(session)) {
+									retired.add(session)
+								}
+							})
+					}
+				}
+			} as Callable)
+		}
+		startLatch.countDown()
+		futures*.get()
+		executor.shutdown()
+
+		List<Session> current = (0..<NUM_CHANNELS).collect {
+			sessionManager.getSession(new SessionKey((long) it))
+		}.findAll { it.isPresent() }*.get()
+
+		Set<Session> accountedFor = Collections.newSetFromMap(new IdentityHashMap<Session, Boolean>())
+		accountedFor.addAll(retired)
+		accountedFor.addAll(current)
+
+		then:
+		// Every session is either still current or was handed back exactly once.
+		retired.size() + current.size() == created.size()
+		accountedFor.size() == created.size()
+		created.every { accountedFor.contains(it) }
+	}
+}
@@ -0,0 +1,127 @@
+package net.tonbot.plugin.ifplayer
+
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+
+import spock.lang.Specification
+import sx.blah.discord.handle.obj.IChannel
+
+class SessionOrchestratorImplTest extends Specification {
+
+	IChannel channel
+	Story story
+	OutboundMessageQueue outboundMessageQueue
+	ScreenStateRenderer screenStateRenderer
+
+	Queue<Runnable> queuedWork
+	List<Session> created
+	Map<Long, List<String>> turnsTaken
+	Closure onNewSession
+
+	SessionManagerImpl sessionManager
+	SessionOrchestratorImpl orchestrator
+
+	def setup() {
+		this.channel = Mock(IChannel) { getLongID() >> 1L }
+		this.story = Mock(Story) { getName() >> "zork" }
+		this.outboundMessageQueue = Mock(OutboundMessageQueue)
+		this.screenStateRenderer = Mock(ScreenStateRenderer)
+
+		this.queuedWork = new LinkedList<>()
+		this.created = []
+		this.turnsTaken = [:]
+		this.onNewSession = {}
+
+		Executor executor = { queuedWork.add(it) } as Executor
+		this.sessionManager = new SessionManagerImpl(outboundMessageQueue, Mock(ChannelTopicUpdater),
+				Mock(SaveManager), Mock(SessionExecutor), Mock(AutosaveWriter), Mock(Config)) {
+					@Override
+					Session newSession(SessionKey sessionKey, long generation, IChannel channel, Story story,
+							SaveFile saveFile) {
+						onNewSession()
+						Session session = new Session(sessionKey, generation, "zork", newGameMachine(generation),
+								screenStateRenderer, new SessionMailbox(executor, 4))
+						created.add(session)
+						return session
+					}
+				}
+
+		StoryLibrary storyLibrary = Mock(StoryLibrary) {
+			findStories("zork") >> [new File("zork.z5")]
+			loadStory(_) >> story
+		}
+		this.orchestrator = new SessionOrchestratorImpl(outboundMessageQueue, sessionManager, storyLibrary,
+				Mock(SaveManager))
+	}
+
+	def "a create that races another takes the first turn of each session once"() {
+		given: "another create gets in between building a session and registering it"
+		boolean raced = false
+		onNewSession = {
+			if (!raced) {
+				raced = true
+				orchestrator.create(channel, "zork", "alice")
+			}
+		}
+
+		when:
+		orchestrator.create(channel, "zork", "bob")
+		runQueuedWork()
+
+		Session winner = created.find { it.generation == 2 }
+		Session loser = created.find { it.generation == 1 }
+
+		then:
+		sessionManager.getSession(new SessionKey(1L)).get().is(winner)
+		turnsTaken[2L] == ["alice"]
+		turnsTaken[1L] == []
+		loser.gameMachine.isStopped()
+		!winner.gameMachine.isStopped()
+		1 * screenStateRenderer.releaseStatus(channel)
+		0 * outboundMessageQueue.send(channel, "The player has crashed! :(")
+	}
+
+	def "ending a session clears its display from its mailbox"() {
+		given:
+		orchestrator.create(channel, "zork", "bob")
+
+		when:
+		orchestrator.end(channel)
+
+		then: "nothing is rendered from the command's thread"
+		0 * screenStateRenderer._
+
+		when:
+		runQueuedWork()
+
+		then: "the first turn, which was queued before the end, does nothing"
+		turnsTaken[1L] == []
+		1 * screenStateRenderer.render(created[0], null, channel)
+		0 * screenStateRenderer.releaseStatus(_)
+	}
+
+	private GameMachine newGameMachine(long generation) {
+		AtomicBoolean stopped = new AtomicBoolean(false)
+		List<String> turns = []
+		turnsTaken[generation] = turns
+
+		return Mock(GameMachine) {
+			getStory() >> story
+			stop() >> { stopped.set(true) }
+			isStopped() >> { stopped.get() }
+			takeTurn(_, _) >> { String input, String username ->
+				if (!turns.isEmpty() && input == null) {
+					throw new IllegalStateException("The story has already started.")
+				}
+				turns.add(username)
+				return TurnResult.builder().status(TurnResult.Status.AWAITING_INPUT).build()
+			}
+		}
+	}
+
+	private void runQueuedWork() {
+		while (!queuedWork.isEmpty()) {
+			queuedWork.poll().run()
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.file.Files
+
+import spock.lang.Specification
+
+class StoryCacheTest extends Specification {
+
+	private static final int STORY_SIZE = 4096
+
+	File storyDir
+	StoryCache storyCache
+
+	def setup() {
+		this.storyDir = Files.createTempDirectory("storycachetest").toFile()
+
+		Config config = Mock(Config) {
+			// Room for two stories on the heap, but not three.
+			getStoryCacheMaxBytes() >> 5L * STORY_SIZE / 2
+			getStoryLoadMode() >> StoryLoadMode.HEAP
+		}
+		this.storyCache = new StoryCache(config)
+	}
+
+	def cleanup() {
+		storyDir.deleteDir()
+	}
+
+	def "a story is read once and then served from the cache"() {
+		given:
+		File storyFile = storyFile("zork.z5", STORY_SIZE)
+
+		when:
+		Story story = storyCache.get(storyFile)
+		Story cachedStory = storyCache.get(new File(storyDir, "./zork.z5"))
+
+		then:
+		cachedStory.is(story)
+		storyCache.stats.missCount() == 1
+		storyCache.stats.hitCount() == 1
+	}
+
+	def "a story file that changed on disk is read again"() {
+		given:
+		File storyFile = storyFile("zork.z5", STORY_SIZE)
+		Story story = storyCache.get(storyFile)
+
+		when:
+		storyFile("zork.z5", STORY_SIZE * 2)
+		Story reloadedStory = storyCache.get(storyFile)
+
+		then:
+		!reloadedStory.is(story)
+		reloadedStory.size == STORY_SIZE * 2
+		storyCache.stats.missCount() == 2
+	}
+
+	def "the least recently used story is evicted once the cache is full"() {
+		given:
+		File zork = storyFile("zork.z5", STORY_SIZE)
+		File planetfall = storyFile("planetfall.z3", STORY_SIZE)
+		File trinity = storyFile("trinity.z4", STORY_SIZE)
+
+		Story zorkStory = storyCache.get(zork)
+		Story planetfallStory = storyCache.get(planetfall)
+		storyCache.get(zork)
+
+		when:
+		storyCache.get(trinity)
+
+		then:
+		storyCache.stats.evictionCount() == 1
+		storyCache.get(zork).is(zorkStory)
+		!storyCache.get(planetfall).is(planetfallStory)
+	}
+
+	def "a story bigger than the whole cache is loaded but not kept"() {
+		given:
+		File storyFile = storyFile("zork.z5", STORY_SIZE * 4)
+
+		when:
+		Story story = storyCache.get(storyFile)
+
+		then:
+		story.size == STORY_SIZE * 4
+		!storyCache.get(storyFile).is(story)
+	}
+
+	def "a file that is not a story is not cached"() {
+		given:
+		File notAStory = new File(storyDir, "readme.z5")
+		notAStory.text = "Not a story."
+
+		when:
+		storyCache.get(notAStory)
+
+		then:
+		thrown(IllegalArgumentException)
+
+		when:
+		storyCache.get(notAStory)
+
+		then:
+		thrown(IllegalArgumentException)
+		storyCache.stats.missCount() == 2
+	}
+
+	private File storyFile(String name, int size) {
+		File file = new File(storyDir, name)
+		byte[] zcode = new byte[size]
+		zcode[0] = 5
+		file.bytes = zcode
+		return file
+	}
+}
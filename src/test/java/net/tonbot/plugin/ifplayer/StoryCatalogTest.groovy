@@ -0,0 +1,174 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.concurrent.Executor
+import java.util.zip.CRC32
+
+import spock.lang.Specification
+
+class StoryCatalogTest extends Specification {
+
+	File storyDir
+	Executor directExecutor
+
+	def setup() {
+		this.storyDir = Files.createTempDirectory("storycatalogtest").toFile()
+		this.directExecutor = { it.run() } as Executor
+	}
+
+	def cleanup() {
+		storyDir.deleteDir()
+	}
+
+	def "metadata is computed once and read back after a restart"() {
+		given:
+		File storyFile = new File(storyDir, "zork.z5")
+		storyFile.bytes = zcode(88, "880429")
+
+		when:
+		newCatalog().sync([storyFile])
+
+		then:
+		new File(storyDir, StoryCatalog.CATALOG_FILE_NAME).exists()
+
+		when: "the file changes without its size or last modified time changing"
+		long lastModified = storyFile.lastModified()
+		storyFile.bytes = zcode(89, "880429")
+		storyFile.setLastModified(lastModified)
+
+		StoryCatalog catalog = newCatalog()
+		catalog.sync([storyFile])
+		StoryMetadata metadata = catalog.get(storyFile).get()
+
+		then: "the persisted entry is trusted and the file is not opened again"
+		metadata.release == 88
+		metadata.serial == "880429"
+		metadata.version == 5
+		metadata.ifid == "ZCODE-88-880429"
+		metadata.fileSize == storyFile.length()
+	}
+
+	def "an entry is recomputed when its story changes and dropped when it is removed"() {
+		given:
+		File storyFile = new File(storyDir, "zork.z5")
+		storyFile.bytes = zcode(88, "880429")
+		File otherStoryFile = new File(storyDir, "other.z5")
+		otherStoryFile.bytes = zcode(1, "ABCDEF")
+
+		StoryCatalog catalog = newCatalog()
+		catalog.sync([storyFile, otherStoryFile])
+
+		when:
+		storyFile.bytes = Arrays.copyOf(zcode(89, "880430"), 144)
+		catalog.update([storyFile], [])
+
+		then:
+		catalog.get(storyFile).get().release == 89
+		newCatalog().get(storyFile).get().release == 89
+
+		when:
+		catalog.update([], ["other.z5"])
+
+		then:
+		!catalog.get(otherStoryFile).isPresent()
+		!newCatalog().get(otherStoryFile).isPresent()
+
+		when: "a rescan no longer finds a story"
+		catalog.sync([otherStoryFile])
+
+		then:
+		!catalog.get(storyFile).isPresent()
+		catalog.get(otherStoryFile).get().ifid.startsWith("ZCODE-1-ABCDEF-")
+	}
+
+	def "the checksum covers the whole Blorb container, not just its Z-code"() {
+		given:
+		byte[] zcode = zcode(88, "880429")
+		byte[] ifmd = "<ifindex><story><identification><ifid>ABC-123</ifid></identification><bibliographic><title>Zork &amp; Co</title></bibliographic></story></ifindex>"
+				.getBytes(StandardCharsets.UTF_8)
+		byte[] blorb = blorb(zcode, ifmd)
+
+		File storyFile = new File(storyDir, "zork.zblorb")
+		storyFile.bytes = blorb
+
+		CRC32 crc = new CRC32()
+		crc.update(blorb)
+
+		when:
+		StoryCatalog catalog = newCatalog()
+		catalog.sync([storyFile])
+		StoryMetadata metadata = catalog.get(storyFile).get()
+
+		then:
+		metadata.fileChecksum == crc.value
+		metadata.release == 88
+		metadata.ifid == "ABC-123"
+		metadata.title == "Zork & Co"
+	}
+
+	def "a story that cannot be read is left out of the catalog"() {
+		given:
+		File storyFile = new File(storyDir, "broken.z5")
+		storyFile.bytes = new byte[10]
+
+		when:
+		StoryCatalog catalog = newCatalog()
+		catalog.sync([storyFile])
+
+		then:
+		!catalog.get(storyFile).isPresent()
+	}
+
+	def "nothing is loaded or computed until the updater runs"() {
+		given:
+		File storyFile = new File(storyDir, "zork.z5")
+		storyFile.bytes = zcode(88, "880429")
+		newCatalog().sync([storyFile])
+
+		Queue<Runnable> updates = new LinkedList<>()
+
+		when:
+		StoryCatalog catalog = new StoryCatalog(storyDir, { updates.add(it) } as Executor, directExecutor)
+
+		then:
+		!catalog.get(storyFile).isPresent()
+
+		when:
+		updates.poll().run()
+
+		then:
+		catalog.get(storyFile).isPresent()
+	}
+
+	private StoryCatalog newCatalog() {
+		return new StoryCatalog(storyDir, directExecutor, directExecutor)
+	}
+
+	private static byte[] zcode(int release, String serial) {
+		ByteBuffer buffer = ByteBuffer.allocate(128)
+		buffer.put(0, (byte) 5)
+		buffer.putShort(0x02, (short) release)
+		buffer.position(0x12)
+		buffer.put(serial.getBytes(StandardCharsets.US_ASCII))
+		buffer.putShort(0x1C, (short) 0xBEEF)
+		return buffer.array()
+	}
+
+	private static byte[] blorb(byte[] zcode, byte[] ifmd) {
+		int ridxLength = 4 + 12
+		int zcodStart = 12 + 8 + ridxLength
+		int ifmdStart = zcodStart + 8 + zcode.length + (zcode.length & 1)
+		int formLength = ifmdStart + 8 + ifmd.length + (ifmd.length & 1) - 8
+
+		ByteBuffer buffer = ByteBuffer.allocate(formLength + 8)
+		buffer.put("FORM".bytes).putInt(formLength).put("IFRS".bytes)
+		buffer.put("RIdx".bytes).putInt(ridxLength).putInt(1)
+		buffer.put("Exec".bytes).putInt(0).putInt(zcodStart)
+		buffer.put("ZCOD".bytes).putInt(zcode.length).put(zcode)
+		buffer.position(ifmdStart)
+		buffer.put("IFmd".bytes).putInt(ifmd.length).put(ifmd)
+		return buffer.array()
+	}
+}
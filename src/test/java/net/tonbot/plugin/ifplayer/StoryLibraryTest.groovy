@@ -0,0 +1,70 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.file.Files
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class StoryLibraryTest extends Specification {
+
+	File storyDir
+	StoryLibrary storyLibrary
+
+	PollingConditions conditions = new PollingConditions(timeout: 10)
+
+	def setup() {
+		this.storyDir = Files.createTempDirectory("storylibrarytest").toFile()
+		new File(storyDir, "zork.z5").bytes = new byte[64]
+
+		this.storyLibrary = new StoryLibrary(storyDir, Mock(StoryCache), Mock(StoryCatalog))
+	}
+
+	def cleanup() {
+		storyLibrary.close()
+		storyDir.deleteDir()
+	}
+
+	def "the story directory is only watched once the library is started"() {
+		expect:
+		storyLibrary.listAllStories()*.name == ["zork.z5"]
+		!watcherIsRunning()
+
+		when:
+		new File(storyDir, "trinity.z4").bytes = new byte[64]
+		storyLibrary.start()
+
+		then: "stories added before the start are found"
+		storyLibrary.listAllStories()*.name.sort() == ["trinity.z4", "zork.z5"]
+		watcherIsRunning()
+
+		when:
+		new File(storyDir, "planetfall.z3").bytes = new byte[64]
+
+		then:
+		conditions.eventually {
+			assert storyLibrary.findStories("planetfall")*.name == ["planetfall.z3"]
+		}
+	}
+
+	def "closing the library stops its watcher"() {
+		given:
+		storyLibrary.start()
+
+		when:
+		storyLibrary.close()
+
+		then:
+		!watcherIsRunning()
+
+		when:
+		new File(storyDir, "planetfall.z3").bytes = new byte[64]
+		Thread.sleep(1000)
+
+		then:
+		storyLibrary.findStories("planetfall").isEmpty()
+	}
+
+	private static boolean watcherIsRunning() {
+		return Thread.getAllStackTraces().keySet().any { it.name == "ifplayer-story-dir-watcher" && it.isAlive() }
+	}
+}
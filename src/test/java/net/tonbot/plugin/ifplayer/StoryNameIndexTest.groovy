@@ -0,0 +1,64 @@
+package net.tonbot.plugin.ifplayer
+
+import org.apache.commons.lang3.StringUtils
+
+import spock.lang.Specification
+
+class StoryNameIndexTest extends Specification {
+
+	private static final List<String> NAMES = [
+		"zork1.z5",
+		"Zork2.z5",
+		"zork3.z5",
+		"hitchhiker.z3",
+		"Anchorhead.zblorb",
+		"anchor.z8"
+	]
+
+	StoryNameIndex index
+
+	def setup() {
+		this.index = StoryNameIndex.of(NAMES.collect { new File(it) })
+	}
+
+	def "prefix lookups ignore case"(String prefix, List<String> expectedNames) {
+		expect:
+		index.startingWith(prefix)*.name == expectedNames
+
+		where:
+		prefix    | expectedNames
+		"zork"    | ["zork1.z5", "Zork2.z5", "zork3.z5"]
+		"ZORK2"   | ["Zork2.z5"]
+		"anchor"  | ["anchor.z8", "Anchorhead.zblorb"]
+		"h"       | ["hitchhiker.z3"]
+		"planet"  | []
+		""        | ["anchor.z8", "Anchorhead.zblorb", "hitchhiker.z3", "zork1.z5", "Zork2.z5", "zork3.z5"]
+	}
+
+	def "exact lookups are case sensitive"() {
+		expect:
+		index.get("Zork2.z5").isPresent()
+		!index.get("zork2.z5").isPresent()
+	}
+
+	def "prefix lookups agree with startsWithIgnoreCase"(String prefix) {
+		expect:
+		index.startingWith(prefix)*.name as Set == NAMES.findAll {
+			StringUtils.startsWithIgnoreCase(it, prefix)
+		} as Set
+
+		where:
+		prefix << ["z", "Zo", "ZORK1", "a", "AnChOrH", "x"]
+	}
+
+	def "incremental changes keep the index sorted"() {
+		when:
+		StoryNameIndex changed = index.with(new File("Zork0.z5")).without("zork3.z5").without("missing.z5")
+
+		then:
+		changed.startingWith("zork")*.name == ["Zork0.z5", "zork1.z5", "Zork2.z5"]
+		changed.size() == NAMES.size()
+		index.size() == NAMES.size()
+		index.startingWith("zork")*.name == ["zork1.z5", "Zork2.z5", "zork3.z5"]
+	}
+}
@@ -0,0 +1,69 @@
+package net.tonbot.plugin.ifplayer
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+
+import spock.lang.Specification
+
+class StoryTest extends Specification {
+
+	File storyDir
+
+	def setup() {
+		this.storyDir = Files.createTempDirectory("storytest").toFile()
+	}
+
+	def cleanup() {
+		storyDir.deleteDir()
+	}
+
+	def "only a story read onto the heap counts its Z-code towards its heap size"() {
+		given:
+		File storyFile = new File(storyDir, "zork.z5")
+		byte[] zcode = new byte[64 * 1024]
+		zcode[0] = 5
+		storyFile.bytes = zcode
+
+		when:
+		Story heapStory = Story.loadFrom(storyFile, StoryLoadMode.HEAP)
+		Story mappedStory = Story.loadFrom(storyFile, StoryLoadMode.MAPPED)
+
+		then:
+		heapStory.size == zcode.length
+		mappedStory.size == zcode.length
+		heapStory.heapSize > zcode.length
+		mappedStory.heapSize < 1024
+	}
+
+	def "only the Z-code is loaded from a Blorb container"() {
+		given:
+		File storyFile = new File(storyDir, "zork.zblorb")
+		byte[] zcode = ByteBuffer.allocate(256).put(0, (byte) 5).putShort(0x02, (short) 88).array()
+		storyFile.bytes = BlorbIndexTest.blorb([["PICT", new byte[64 * 1024]], ["ZCOD", zcode]], "ZCOD")
+
+		when:
+		Story story = Story.loadFrom(storyFile, loadMode)
+
+		then:
+		story.name == "zork.zblorb"
+		story.size == zcode.length
+		story.version == 5
+		story.release == 88
+		story.heapSize < 1024
+
+		where:
+		loadMode << [StoryLoadMode.HEAP, StoryLoadMode.MAPPED]
+	}
+
+	def "a Blorb container without Z-code is not a story"() {
+		given:
+		File storyFile = new File(storyDir, "pictures.zblorb")
+		storyFile.bytes = BlorbIndexTest.blorb([["PICT", new byte[1024]]], null)
+
+		when:
+		Story.loadFrom(storyFile)
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+}